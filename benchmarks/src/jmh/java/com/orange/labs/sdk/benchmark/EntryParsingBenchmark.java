@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.benchmark;
+
+import android.util.JsonReader;
+
+import com.orange.labs.sdk.EntryParser;
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the parsing of a folder listing through Volley's path (bytes, then String, then
+ * JSONObject, then Entry) with the streaming {@link EntryParser}.
+ *
+ * Allocation per operation is given by the gc profiler ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EntryParsingBenchmark {
+
+    @Param({"10", "100", "5000", "100000"})
+    public int fileCount;
+
+    private byte[] folder;
+    private byte[] fileInfo;
+
+    @Setup(Level.Trial)
+    public void createPayloads() throws IOException {
+        folder = Payloads.folder(fileCount).getBytes("UTF-8");
+        fileInfo = Payloads.fileInfo(0).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public Entry folderJsonObject() throws IOException, JSONException {
+        return new Entry(new JSONObject(new String(folder, "UTF-8")));
+    }
+
+    @Benchmark
+    public Entry folderStreaming() throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(folder), "UTF-8"));
+        try {
+            return EntryParser.readEntry(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Benchmark
+    public Entry fileInfoJsonObject() throws IOException, JSONException {
+        Entry entry = new Entry();
+        entry.setExtraInfos(new JSONObject(new String(fileInfo, "UTF-8")));
+        return entry;
+    }
+
+    @Benchmark
+    public Entry fileInfoStreaming() throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(fileInfo), "UTF-8"));
+        try {
+            return EntryParser.readFileInfo(reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
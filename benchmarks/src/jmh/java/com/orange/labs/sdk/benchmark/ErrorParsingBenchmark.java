@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.benchmark;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+import com.orange.labs.sdk.exception.CloudAPIException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the error bodies by {@link CloudAPIException}, from a Volley error (bytes, then
+ * String, then JSONObject) or from a body already parsed by a transfer. The stack trace filled
+ * by each exception is part of the cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ErrorParsingBenchmark {
+
+    private VolleyError cloudError;
+    private VolleyError identityError;
+    private JSONObject cloudErrorJson;
+
+    @Setup(Level.Trial)
+    public void createPayloads() throws UnsupportedEncodingException, JSONException {
+        cloudError = volleyError(401, Payloads.cloudError());
+        identityError = volleyError(400, Payloads.identityError());
+        cloudErrorJson = new JSONObject(Payloads.cloudError());
+    }
+
+    private static VolleyError volleyError(int statusCode, String body)
+            throws UnsupportedEncodingException {
+        return new VolleyError(new NetworkResponse(statusCode, body.getBytes("UTF-8"),
+                Collections.<String, String>emptyMap(), false));
+    }
+
+    @Benchmark
+    public CloudAPIException cloudErrorFromVolley() {
+        return new CloudAPIException(cloudError);
+    }
+
+    @Benchmark
+    public CloudAPIException identityErrorFromVolley() {
+        return new CloudAPIException(identityError);
+    }
+
+    @Benchmark
+    public CloudAPIException cloudErrorFromJson() {
+        return new CloudAPIException(401, cloudErrorJson);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.benchmark;
+
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+import com.orange.labs.sdk.OrangeCloudAPI.Metadata;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the file information already parsed in a JSONObject: {@link Entry#setExtraInfos}
+ * (size formatting, urls, creation date) and {@link Metadata} (shooting date), dominated by
+ * the SimpleDateFormat parsing of the dates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FileInfoBenchmark {
+
+    private JSONObject fileInfo;
+    private JSONObject metadata;
+    private Entry parsed;
+
+    @Setup(Level.Trial)
+    public void createPayloads() throws JSONException {
+        fileInfo = new JSONObject(Payloads.fileInfo(0));
+        metadata = fileInfo.getJSONObject("metadata");
+        parsed = new Entry();
+        parsed.setExtraInfos(fileInfo);
+    }
+
+    @Benchmark
+    public Entry setExtraInfosJson() {
+        Entry entry = new Entry();
+        entry.setExtraInfos(fileInfo);
+        return entry;
+    }
+
+    @Benchmark
+    public Entry setExtraInfosEntry() {
+        Entry entry = new Entry();
+        entry.setExtraInfos(parsed);
+        return entry;
+    }
+
+    @Benchmark
+    public Metadata metadataDate() {
+        return new Metadata(metadata);
+    }
+}
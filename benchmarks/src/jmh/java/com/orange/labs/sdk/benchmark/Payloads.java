@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.benchmark;
+
+/**
+ * Synthetic Cloud API payloads, shaped like the real /folders/{id} and /files/{id} responses.
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * @param fileCount number of files in the folder
+     * @return a folder listing with 10 subfolders and the given number of files
+     */
+    static String folder(int fileCount) {
+        StringBuilder json = new StringBuilder(256 * (fileCount + 10));
+        json.append("{\"id\":\"Lw\",\"name\":\"root\",\"parentId\":\"\",\"subfolders\":[");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"Lw/folder").append(i)
+                    .append("\",\"name\":\"folder ").append(i)
+                    .append("\",\"parentId\":\"Lw\"}");
+        }
+        json.append("],\"files\":[");
+        for (int i = 0; i < fileCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"Lw/file").append(i)
+                    .append("\",\"name\":\"IMG_").append(i)
+                    .append(".jpg\",\"type\":\"PICTURE\",\"parentId\":\"Lw\"")
+                    .append(",\"thumbUrl\":\"https://cloudapi.orange.com/cloud/v1/files/Lw/file")
+                    .append(i).append("/thumbnail\"")
+                    .append(",\"previewUrl\":\"https://cloudapi.orange.com/cloud/v1/files/Lw/file")
+                    .append(i).append("/preview\"")
+                    .append(",\"downloadUrl\":\"https://cloudapi.orange.com/cloud/v1/files/Lw/file")
+                    .append(i).append("/content\"}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * @param index index of the file
+     * @return the information of a picture
+     */
+    static String fileInfo(int index) {
+        return "{\"id\":\"Lw/file" + index + "\",\"name\":\"IMG_" + index + ".jpg\""
+                + ",\"type\":\"PICTURE\",\"parentId\":\"Lw\",\"size\":2457600"
+                + ",\"creationDate\":\"2016-03-14T15:09:26+0100\""
+                + ",\"thumbUrl\":\"https://cloudapi.orange.com/cloud/v1/files/Lw/file" + index
+                + "/thumbnail\""
+                + ",\"previewUrl\":\"https://cloudapi.orange.com/cloud/v1/files/Lw/file" + index
+                + "/preview\""
+                + ",\"downloadUrl\":\"https://cloudapi.orange.com/cloud/v1/files/Lw/file" + index
+                + "/content\""
+                + ",\"metadata\":{\"height\":2448,\"width\":3264"
+                + ",\"shootingDate\":\"2016-03-14T15:09:26+0100\"}}";
+    }
+
+    /**
+     * @return the body of a Cloud API error
+     */
+    static String cloudError() {
+        return "{\"error\":{\"code\":\"PDK_RP_0007\",\"label\":\"INVALID_TOKEN\""
+                + ",\"details\":\"The access token is expired or has been revoked\"}}";
+    }
+
+    /**
+     * @return the body of an identity (OAuth) error
+     */
+    static String identityError() {
+        return "{\"error\":\"invalid_grant\""
+                + ",\"error_description\":\"The refresh token is invalid or expired\"}";
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.benchmark;
+
+import com.orange.labs.sdk.OrangeCloudAPI;
+import com.orange.labs.sdk.OrangeListener;
+import com.orange.labs.sdk.RestUtils;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+import com.orange.labs.sdk.session.Credentials;
+import com.orange.labs.sdk.session.Session;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done for each request before it is queued: the HTTP headers, shared by all requests of
+ * a credentials snapshot, compared with the former map built for each call, and the url of a
+ * folder listing with its query parameters, measured through listEntries() up to the rest
+ * client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestBuildingBenchmark {
+
+    private static final String ACCESS_TOKEN = "access-token";
+
+    @Param({"0", "2", "5"})
+    public int parameterCount;
+
+    private Credentials credentials;
+    private OrangeCloudAPI<Session> api;
+    private OrangeCloudAPI.Entry folder;
+    private JSONObject parameters;
+    private OrangeListener.Success<OrangeCloudAPI.Entry> success;
+    private OrangeListener.Error failure;
+
+    @Setup(Level.Trial)
+    public void createApi() throws JSONException {
+        // A snapshot is built once per access token, as published by AuthSession
+        credentials = Credentials.of(ACCESS_TOKEN);
+        api = new OrangeCloudAPI<Session>(new StubSession());
+        folder = new OrangeCloudAPI.Entry();
+        folder.identifier = "Lw/folder0";
+        folder.type = OrangeCloudAPI.Entry.Type.DIRECTORY;
+        if (parameterCount > 0) {
+            parameters = new JSONObject();
+            String[] names = {"limit", "offset", "showthumbnails", "filter", "restrictedmode"};
+            for (int i = 0; i < parameterCount; i++) {
+                parameters.put(names[i], i * 100);
+            }
+        }
+        success = new OrangeListener.Success<OrangeCloudAPI.Entry>() {
+            @Override
+            public void onResponse(OrangeCloudAPI.Entry response) {
+            }
+        };
+        failure = new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+            }
+        };
+    }
+
+    @Benchmark
+    public Map<String, String> headersShared() {
+        return credentials.getHeaders();
+    }
+
+    @Benchmark
+    public Map<String, String> headersRebuilt() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "Bearer " + credentials.getAccessToken());
+        headers.put("X-OAPI-Agent", "Android-" + OrangeCloudAPI.SDK_VERSION);
+        return headers;
+    }
+
+    @Benchmark
+    public boolean listEntriesUrl() {
+        try {
+            api.listEntries(folder, parameters, success, failure);
+            return false;
+        } catch (NoRestClientException e) {
+            // The url is built, the request would be created next
+            return true;
+        }
+    }
+
+    /**
+     * Thrown by the stub session in place of the rest client. Preallocated, without stack
+     * trace, so that throwing it costs little next to the work measured.
+     */
+    private static final class NoRestClientException extends RuntimeException {
+
+        static final NoRestClientException INSTANCE = new NoRestClientException();
+
+        private NoRestClientException() {
+            super("No rest client in benchmarks", null, false, false);
+        }
+    }
+
+    /**
+     * Session only giving its credentials, without Android context nor rest client.
+     */
+    private static final class StubSession implements Session {
+
+        @Override
+        public String getAppkey() {
+            return "appkey";
+        }
+
+        @Override
+        public String getAppSecret() {
+            return "appsecret";
+        }
+
+        @Override
+        public String getRedirectUri() {
+            return "https://localhost/";
+        }
+
+        @Override
+        public String getAccessToken() {
+            return ACCESS_TOKEN;
+        }
+
+        @Override
+        public Date getExpiresIn() {
+            return null;
+        }
+
+        @Override
+        public String getScope() {
+            return "cloud";
+        }
+
+        @Override
+        public RestUtils getRestClient() {
+            throw NoRestClientException.INSTANCE;
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void addScope(String scope) {
+        }
+
+        @Override
+        public boolean isLinked() {
+            return true;
+        }
+
+        @Override
+        public void unlink() {
+        }
+
+        @Override
+        public void refresh(OrangeListener.Success<String> success,
+                            OrangeListener.Error failure) {
+            success.onResponse(getAccessToken());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.benchmark;
+
+import com.orange.labs.sdk.transfer.HttpTransfer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the former upload loop (1 KB writes, a flush per write, whole body buffered by
+ * HttpURLConnection) with the streaming upload of {@link HttpTransfer} against a local stub
+ * server draining the request bodies.
+ *
+ * Throughput in MB/s is {@code payloadSize / score}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UploadThroughputBenchmark {
+
+    @Param({"1048576", "16777216", "67108864"})
+    public long payloadSize;
+
+    private HttpServer server;
+    private URL url;
+    private Map<String, String> headers;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cloud/v1/files/content", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] buffer = new byte[HttpTransfer.BUFFER_SIZE];
+                InputStream in = exchange.getRequestBody();
+                while (in.read(buffer) != -1) {
+                    // drain
+                }
+                byte[] response = "{\"fileId\":\"benchmark\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(201, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort()
+                + "/cloud/v1/files/content?name=benchmark&folder=root");
+
+        headers = new HashMap<String, String>();
+        headers.put("Authorization", "Bearer benchmark");
+        headers.put("Content-Type", "application/x-www-form-urlencoded");
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public int streaming() throws IOException {
+        HttpURLConnection conn = HttpTransfer.openUpload(url, "POST", headers, payloadSize, 0);
+        OutputStream out = conn.getOutputStream();
+        try {
+            HttpTransfer.copy(new ZeroInputStream(payloadSize), out, payloadSize, null);
+        } finally {
+            out.close();
+        }
+        int statusCode = conn.getResponseCode();
+        HttpTransfer.readBody(conn, statusCode);
+        conn.disconnect();
+        return statusCode;
+    }
+
+    @Benchmark
+    public int legacy() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setDoInput(true);
+        conn.setDoOutput(true);
+        conn.setUseCaches(false);
+        conn.setRequestMethod("POST");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+        DataOutputStream dos = new DataOutputStream(conn.getOutputStream());
+        InputStream in = new ZeroInputStream(payloadSize);
+        byte[] buf = new byte[1024];
+        int bytesRead;
+        while ((bytesRead = in.read(buf)) != -1) {
+            dos.write(buf, 0, bytesRead);
+            dos.flush();
+        }
+        int statusCode = conn.getResponseCode();
+        dos.close();
+        HttpTransfer.readBody(conn, statusCode);
+        conn.disconnect();
+        return statusCode;
+    }
+
+    /**
+     * Stream of zeros that does not hold its content in memory.
+     */
+    private static final class ZeroInputStream extends InputStream {
+
+        private long remaining;
+
+        ZeroInputStream(long length) {
+            remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + count, (byte) 0);
+            remaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An operation (delete, move, copy, rename) applied to many entries, with a bounded number of
+ * requests in flight. Each entry gets its own result and the end of the batch is notified once.
+ * The requests go through the session of the Cloud API: an expired token is refreshed once for
+ * all the requests waiting for it.
+ * Created by {@link OrangeCloudAPI}, it has to be used from the main thread.
+ *
+ * @param <T> type of the result of each entry
+ */
+public class BatchOperation<T> {
+
+    /**
+     * Default number of requests in flight.
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Callback interface for delivering the results of a batch.
+     *
+     * @param <T> type of the result of each entry
+     */
+    public interface Listener<T> {
+        /**
+         * Called when the operation succeeded on an entry.
+         *
+         * @param entry  the entry
+         * @param result the result of the operation
+         */
+        void onSuccess(Entry entry, T result);
+
+        /**
+         * Called when the operation failed on an entry. The batch goes on with the next
+         * entries.
+         *
+         * @param entry the entry
+         * @param error the Orange Api Cloud error
+         */
+        void onError(Entry entry, OrangeAPIException error);
+
+        /**
+         * Called once when all the entries have been processed, or when the requests in
+         * flight at the time of a cancel have ended.
+         *
+         * @param succeeded number of entries processed with success
+         * @param failed    number of entries in error
+         * @param cancelled true if the batch has been cancelled before its end
+         */
+        void onComplete(int succeeded, int failed, boolean cancelled);
+    }
+
+    /**
+     * The operation run on each entry.
+     */
+    interface Operation<T> {
+        void run(Entry entry, OrangeListener.Success<T> success, OrangeListener.Error failure);
+    }
+
+    private final List<Entry> entries;
+    private final Operation<T> operation;
+    private final int concurrency;
+    private final Listener<T> listener;
+
+    private int next;
+    private int running;
+    private int succeeded;
+    private int failed;
+    private boolean cancelled;
+    private boolean completed;
+
+    BatchOperation(List<Entry> entries, Operation<T> operation, int concurrency,
+                   Listener<T> listener) {
+        this.entries = new ArrayList<Entry>(entries);
+        this.operation = operation;
+        this.concurrency = concurrency;
+        this.listener = listener;
+    }
+
+    /**
+     * Send the first requests.
+     */
+    void start() {
+        launch();
+    }
+
+    /**
+     * Cancel the batch: the entries not started yet are not processed. The requests in flight
+     * end normally and their results are still notified.
+     */
+    public void cancel() {
+        if (completed) {
+            return;
+        }
+        cancelled = true;
+        complete();
+    }
+
+    /**
+     * @return true if the batch has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if all the entries have been processed, or if the batch was cancelled and
+     * its requests in flight have ended
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return number of entries of the batch
+     */
+    public int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of entries processed with success so far
+     */
+    public int getSucceededCount() {
+        return succeeded;
+    }
+
+    /**
+     * @return number of entries in error so far
+     */
+    public int getFailedCount() {
+        return failed;
+    }
+
+    private void launch() {
+        while (!cancelled && running < concurrency && next < entries.size()) {
+            final Entry entry = entries.get(next++);
+            running++;
+            operation.run(entry, new OrangeListener.Success<T>() {
+                @Override
+                public void onResponse(T response) {
+                    running--;
+                    succeeded++;
+                    listener.onSuccess(entry, response);
+                    onItemDone();
+                }
+            }, new OrangeListener.Error() {
+                @Override
+                public void onErrorResponse(OrangeAPIException error) {
+                    running--;
+                    failed++;
+                    listener.onError(entry, error);
+                    onItemDone();
+                }
+            });
+        }
+        complete();
+    }
+
+    private void onItemDone() {
+        if (!cancelled) {
+            launch();
+        } else {
+            complete();
+        }
+    }
+
+    private void complete() {
+        if (completed || running > 0) {
+            return;
+        }
+        if (!cancelled && next < entries.size()) {
+            return;
+        }
+        completed = true;
+        listener.onComplete(succeeded, failed, cancelled);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.orange.labs.sdk.exception.CloudAPIException;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+import com.orange.labs.sdk.metrics.MetricsListener;
+import com.orange.labs.sdk.retry.CircuitBreaker;
+import com.orange.labs.sdk.retry.CircuitOpenError;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The circuit breakers of the hosts called by the SDK (api.orange.com, cloudapi.orange.com),
+ * created on first use. Volley requests are checked and measured by the network built by
+ * {@link #wrap(Network)}, transfers by their callbacks. State changes are reported to the
+ * metrics.
+ */
+class CircuitBreakers {
+
+    private static String TAG = CircuitBreakers.class.toString();
+
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+    private volatile MetricsListener metrics;
+    private volatile boolean enabled = true;
+
+    private final CircuitBreaker.Listener listener = new CircuitBreaker.Listener() {
+        @Override
+        public void onStateChange(CircuitBreaker breaker, CircuitBreaker.State state) {
+            Log.w(TAG, "Circuit of " + breaker.getName() + " " + state);
+            MetricsListener current = metrics;
+            if (current != null) {
+                current.onCircuitStateChange(breaker.getName(), state);
+            }
+        }
+    };
+
+    void setMetrics(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param host the host
+     * @return the circuit breaker of the host, created if needed
+     */
+    CircuitBreaker get(String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(host, listener);
+            breaker = breakers.putIfAbsent(host, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @param url the url of a request
+     * @return the circuit breaker of its host, null if circuit breakers are disabled
+     */
+    CircuitBreaker forUrl(String url) {
+        return enabled ? get(hostOf(url)) : null;
+    }
+
+    /**
+     * @return true if the circuit of the host of the url is open
+     */
+    boolean isOpen(String url) {
+        CircuitBreaker breaker = forUrl(url);
+        return breaker != null && breaker.isOpen();
+    }
+
+    static String hostOf(String url) {
+        int start = url.indexOf("://");
+        start = (start == -1) ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && "/:?#".indexOf(url.charAt(end)) == -1) {
+            end++;
+        }
+        return url.substring(start, end);
+    }
+
+    /**
+     * @return true if the error shows a failing server, false for a client error
+     */
+    static boolean isServerFailure(VolleyError error) {
+        NetworkResponse response = error.networkResponse;
+        if (response != null) {
+            return response.statusCode == 429 || response.statusCode >= 500;
+        }
+        if (error instanceof TimeoutError) {
+            return true;
+        }
+        // An interrupt is a paused or cancelled transfer, but a read timeout is a slow server
+        Throwable cause = error.getCause();
+        return error instanceof NetworkError && (cause instanceof SocketTimeoutException
+                || !(cause instanceof InterruptedIOException));
+    }
+
+    static boolean isServerFailure(OrangeAPIException error) {
+        int statusCode = error.getStatusCode();
+        if (statusCode != 0) {
+            return statusCode == 429 || statusCode >= 500;
+        }
+        return error.getCause() instanceof VolleyError
+                && isServerFailure((VolleyError) error.getCause());
+    }
+
+    /**
+     * @return a network rejecting the requests to hosts whose circuit is open, and recording
+     * the outcome and the duration of the others. As for transfers, the duration of a full
+     * size image depends on its size and is not recorded.
+     */
+    Network wrap(final Network network) {
+        return new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                CircuitBreaker breaker = forUrl(request.getUrl());
+                if (breaker == null) {
+                    return network.performRequest(request);
+                }
+                // Checked again here: the circuit may have opened while the request was queued
+                if (!breaker.allowRequest()) {
+                    throw new CircuitOpenError(breaker.getName());
+                }
+                long start = SystemClock.elapsedRealtime();
+                boolean failure = false;
+                try {
+                    return network.performRequest(request);
+                } catch (VolleyError e) {
+                    failure = isServerFailure(e);
+                    throw e;
+                } finally {
+                    // Always recorded, even on a runtime exception: a half-open circuit waits
+                    // for the outcome of its trial requests
+                    long duration = isSizeDependent(request)
+                            ? 0 : SystemClock.elapsedRealtime() - start;
+                    breaker.onResult(failure, duration);
+                }
+            }
+        };
+    }
+
+    private static boolean isSizeDependent(Request<?> request) {
+        Object tag = request.getTag();
+        return tag instanceof String && RestUtils.operationOf((String) tag).equals("content");
+    }
+
+    /**
+     * @return the error of a request rejected by an open circuit
+     */
+    static CloudAPIException rejected(CircuitBreaker breaker) {
+        return new CloudAPIException(new CircuitOpenError(breaker.getName()));
+    }
+
+    /**
+     * @param url     url of a transfer
+     * @param failure error callback of the transfer
+     * @return the circuit breaker of the host of the transfer, null if circuit breakers are
+     * disabled or if the transfer is already recorded (a transfer falling back on another)
+     */
+    CircuitBreaker forTransfer(URL url, OrangeListener.Error failure) {
+        return (failure instanceof RecordingError) ? null : forUrl(url.toString());
+    }
+
+    /**
+     * Record the outcome of a transfer. Its duration depends on its size and does not tell
+     * the server health.
+     */
+    static <T> Response.Listener<T> recordSuccess(CircuitBreaker breaker,
+                                                  Response.Listener<T> success) {
+        return new RecordingListener<T>(breaker, success);
+    }
+
+    static OrangeListener.Error recordFailure(CircuitBreaker breaker,
+                                              OrangeListener.Error failure) {
+        return new RecordingError(breaker, failure);
+    }
+
+    private static class RecordingListener<T> implements Response.Listener<T> {
+
+        private final CircuitBreaker breaker;
+        private final Response.Listener<T> success;
+
+        RecordingListener(CircuitBreaker breaker, Response.Listener<T> success) {
+            this.breaker = breaker;
+            this.success = success;
+        }
+
+        @Override
+        public void onResponse(T response) {
+            breaker.onResult(false, 0);
+            success.onResponse(response);
+        }
+    }
+
+    private static class RecordingError implements OrangeListener.Error {
+
+        private final CircuitBreaker breaker;
+        private final OrangeListener.Error failure;
+
+        RecordingError(CircuitBreaker breaker, OrangeListener.Error failure) {
+            this.breaker = breaker;
+            this.failure = failure;
+        }
+
+        @Override
+        public void onErrorResponse(OrangeAPIException error) {
+            if (!(error.getCause() instanceof CircuitOpenError)) {
+                breaker.onResult(isServerFailure(error), 0);
+            }
+            failure.onErrorResponse(error);
+        }
+    }
+}
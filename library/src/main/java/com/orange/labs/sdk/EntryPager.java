@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Paged listing of a folder, loaded page by page with the limit and offset parameters. The
+ * next page is prefetched when the consumer gets near the end of the loaded entries, and at
+ * most a window of pages is kept in memory: the pages the farthest from the last position
+ * read are evicted, and loaded again if needed.
+ * Designed to back an adapter: it has to be used from the main thread.
+ */
+public class EntryPager {
+
+    /**
+     * Callback interface for delivering pages.
+     */
+    public interface Listener {
+        /**
+         * Called when a page has been loaded.
+         *
+         * @param page    index of the page
+         * @param entries the entries of the page
+         */
+        void onPageLoaded(int page, List<Entry> entries);
+
+        /**
+         * Called when a page could not be loaded. It is requested again on next access.
+         *
+         * @param page  index of the page
+         * @param error the Orange Api Cloud error
+         */
+        void onError(int page, OrangeAPIException error);
+    }
+
+    private final OrangeCloudAPI<?> api;
+    private final Entry folder;
+    private final JSONObject parameters;
+    private final int pageSize;
+    private final int maxPages;
+    private final int prefetchDistance;
+    private final Listener listener;
+
+    // Loaded pages by index
+    private final Map<Integer, List<Entry>> pages = new HashMap<Integer, List<Entry>>();
+    private final Set<Integer> loading = new HashSet<Integer>();
+    private int count;
+    private boolean complete;
+    private int lastPage;
+    private boolean closed;
+
+    /**
+     * Create a pager. Nothing is loaded before the first call to {@link #getEntry(int)} or
+     * {@link #start()}.
+     *
+     * @param api        the Cloud API
+     * @param folder     the folder to list, null for the root folder
+     * @param parameters additional parameters of the listing (see listEntries), can be null
+     * @param pageSize   number of entries per page
+     * @param maxPages   maximum number of pages kept in memory, at least 2
+     * @param listener   callback notified of the loaded pages
+     */
+    public EntryPager(OrangeCloudAPI<?> api, Entry folder, JSONObject parameters, int pageSize,
+                      int maxPages, Listener listener) {
+        if (api == null) {
+            throw new IllegalArgumentException("api must not be null.");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be greater than 0.");
+        }
+        if (maxPages < 2) {
+            throw new IllegalArgumentException("maxPages must be at least 2.");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null.");
+        }
+        this.api = api;
+        this.folder = folder;
+        this.parameters = parameters;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.prefetchDistance = Math.max(1, pageSize / 4);
+        this.listener = listener;
+    }
+
+    /**
+     * Load the first page.
+     */
+    public void start() {
+        load(0);
+    }
+
+    /**
+     * Get an entry. If its page is not in memory, it is loaded and null is returned: the
+     * listener is notified once the page is available. Getting close to the end of the loaded
+     * entries prefetches the next page.
+     *
+     * @param position position of the entry in the folder
+     * @return the entry or null if not loaded yet
+     */
+    public Entry getEntry(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("position must not be negative.");
+        }
+        int page = position / pageSize;
+        int offset = position % pageSize;
+        lastPage = page;
+
+        if (offset >= pageSize - prefetchDistance) {
+            load(page + 1);
+        }
+        List<Entry> entries = pages.get(page);
+        if (entries == null) {
+            load(page);
+            return null;
+        }
+        return (offset < entries.size()) ? entries.get(offset) : null;
+    }
+
+    /**
+     * @return number of entries known so far: the full size of the folder once the last page
+     * has been loaded
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return true if the last page of the folder has been loaded
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return number of pages in memory
+     */
+    public int getLoadedPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Stop the pager: pages in flight are ignored and the loaded ones are released.
+     */
+    public void close() {
+        closed = true;
+        pages.clear();
+        loading.clear();
+    }
+
+    private void load(final int page) {
+        if (closed || pages.containsKey(page) || loading.contains(page)) {
+            return;
+        }
+        // No page after the last one
+        if (complete && page * pageSize >= count) {
+            return;
+        }
+        JSONObject pageParameters;
+        try {
+            pageParameters = (parameters != null)
+                    ? new JSONObject(parameters.toString())
+                    : new JSONObject();
+            pageParameters.put("limit", pageSize);
+            pageParameters.put("offset", page * pageSize);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid parameters: " + e.getMessage());
+        }
+
+        loading.add(page);
+        // Pages are not kept for revalidation: memory is bounded by the window only
+        api.requestEntries(folder, pageParameters, false, new OrangeListener.Success<Entry>() {
+            @Override
+            public void onResponse(Entry response) {
+                if (closed || !loading.remove(page)) {
+                    return;
+                }
+                List<Entry> entries = response.contents;
+                if (entries == null) {
+                    entries = new ArrayList<Entry>(0);
+                }
+                if (entries.size() < pageSize) {
+                    complete = true;
+                    count = page * pageSize + entries.size();
+                } else if (!complete) {
+                    count = Math.max(count, (page + 1) * pageSize);
+                }
+                pages.put(page, entries);
+                evict();
+                listener.onPageLoaded(page, entries);
+            }
+        }, new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+                if (closed || !loading.remove(page)) {
+                    return;
+                }
+                listener.onError(page, error);
+            }
+        });
+    }
+
+    /**
+     * Drop the pages the farthest from the last page read until the window is respected.
+     */
+    private void evict() {
+        while (pages.size() > maxPages) {
+            Integer farthest = null;
+            for (Integer page : pages.keySet()) {
+                if (farthest == null
+                        || Math.abs(page - lastPage) > Math.abs(farthest - lastPage)) {
+                    farthest = page;
+                }
+            }
+            pages.remove(farthest);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+import com.orange.labs.sdk.OrangeCloudAPI.Metadata;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Streaming parser of the folder and file payloads of the Cloud API. Entries are built
+ * directly from a {@link JsonReader}, without any intermediate String or JSONObject, so that
+ * it can run on the network thread with a small memory footprint.
+ * Parsing follows {@link Entry#Entry(org.json.JSONObject)} and
+ * {@link Entry#setExtraInfos(org.json.JSONObject)}.
+ */
+public final class EntryParser {
+
+    // SimpleDateFormat is not thread safe: one per network thread
+    private static final ThreadLocal<SimpleDateFormat> FORMATTER =
+            new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return new SimpleDateFormat(Entry.DATE_FORMAT);
+                }
+            };
+
+    private EntryParser() {
+    }
+
+    /**
+     * Parse an entry of a folder listing (/folders/{id}), with its contents if it is a folder.
+     *
+     * @param reader the JSON reader, positioned on the entry object
+     * @return the entry
+     * @throws IOException if the JSON is malformed
+     */
+    public static Entry readEntry(JsonReader reader) throws IOException {
+        return read(reader, false);
+    }
+
+    /**
+     * Parse the information of a file (/files/{id}): size, dates, urls and metadata.
+     *
+     * @param reader the JSON reader, positioned on the file object
+     * @return the entry, with its extra information available
+     * @throws IOException if the JSON is malformed
+     */
+    public static Entry readFileInfo(JsonReader reader) throws IOException {
+        return read(reader, true);
+    }
+
+    private static Entry read(JsonReader reader, boolean extraInfo) throws IOException {
+        Entry entry = new Entry();
+        entry.identifier = "";
+        entry.name = "";
+        entry.parentIdentifier = "";
+        entry.downloadURL = "";
+        entry.previewURL = "";
+        entry.thumbnailURL = "";
+        String type = "";
+        String creationDate = "";
+        ArrayList<Entry> subfolders = null;
+        ArrayList<Entry> files = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (name.equals("id")) {
+                entry.identifier = reader.nextString();
+            } else if (name.equals("name")) {
+                entry.name = reader.nextString();
+            } else if (name.equals("parentId")) {
+                entry.parentIdentifier = reader.nextString();
+            } else if (name.equals("type")) {
+                type = reader.nextString();
+            } else if (name.equals("downloadUrl")) {
+                entry.downloadURL = reader.nextString();
+            } else if (name.equals("previewUrl")) {
+                entry.previewURL = reader.nextString();
+            } else if (name.equals("thumbUrl")) {
+                entry.thumbnailURL = reader.nextString();
+            } else if (name.equals("size")) {
+                // Also given by some listings: kept for the running totals of walks
+                entry.bytes = reader.nextLong();
+            } else if (extraInfo && name.equals("creationDate")) {
+                creationDate = reader.nextString();
+            } else if (extraInfo && name.equals("metadata")
+                    && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                entry.metadata = readMetadata(reader);
+            } else if (!extraInfo && name.equals("subfolders")
+                    && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                subfolders = readEntries(reader);
+            } else if (!extraInfo && name.equals("files")
+                    && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                files = readEntries(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        entry.type = parseType(type);
+        if (entry.type == Entry.Type.DIRECTORY && !extraInfo) {
+            int count = ((subfolders != null) ? subfolders.size() : 0)
+                    + ((files != null) ? files.size() : 0);
+            entry.contents = new ArrayList<Entry>(count);
+            if (subfolders != null) {
+                entry.contents.addAll(subfolders);
+            }
+            if (files != null) {
+                entry.contents.addAll(files);
+            }
+        }
+        if (extraInfo) {
+            entry.size = Entry.humanReadableByteCount(entry.bytes, true);
+            entry.creationDate = parseDate(creationDate);
+            if (entry.metadata == null) {
+                entry.metadata = new Metadata();
+            }
+            entry.extraInfoAvailable = true;
+        }
+        return entry;
+    }
+
+    private static ArrayList<Entry> readEntries(JsonReader reader) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                entries.add(read(reader, false));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+        return entries;
+    }
+
+    private static Metadata readMetadata(JsonReader reader) throws IOException {
+        Metadata metadata = new Metadata();
+        metadata.height = "";
+        metadata.width = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (name.equals("height")) {
+                metadata.height = reader.nextString();
+            } else if (name.equals("width")) {
+                metadata.width = reader.nextString();
+            } else if (name.equals("shootingDate")) {
+                metadata.shootingDate = parseDate(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return metadata;
+    }
+
+    private static Entry.Type parseType(String type) {
+        if (type.length() == 0) {
+            return Entry.Type.DIRECTORY;
+        } else if (type.equals("FILE")) {
+            return Entry.Type.FILE;
+        } else if (type.equals("PICTURE")) {
+            return Entry.Type.IMAGE;
+        } else if (type.equals("VIDEO")) {
+            return Entry.Type.VIDEO;
+        } else if (type.equals("MUSIC")) {
+            return Entry.Type.MUSIC;
+        }
+        return null;
+    }
+
+    private static Date parseDate(String date) {
+        if (date.length() == 0) {
+            return null;
+        }
+        try {
+            return FORMATTER.get().parse(date);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+import com.orange.labs.sdk.cache.BitmapPool;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of threads decoding images, separated from the network dispatchers so that
+ * decoding runs in parallel and never delays the other requests. Results are delivered on
+ * the main thread. Queue wait and decode times are measured.
+ */
+public class ImageDecodePool {
+
+    private static String TAG = ImageDecodePool.class.toString();
+
+    private final ThreadPoolExecutor executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private long decodeCount;
+    private long failureCount;
+    private long totalQueueNanos;
+    private long maxQueueNanos;
+    private long totalDecodeNanos;
+    private long maxDecodeNanos;
+
+    /**
+     * Create a pool with one thread per core but one, between 1 and 4.
+     */
+    public ImageDecodePool() {
+        this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param threads number of decoding threads
+     */
+    public ImageDecodePool(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be greater than 0.");
+        }
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "OrangeImageDecode-" + count.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Decode an image in background.
+     *
+     * @param data    the encoded image
+     * @param size    longest side of the target, in pixels
+     * @param config  the bitmap config
+     * @param pool    pool of reusable bitmaps, can be null
+     * @param success callback returning the bitmap, on the main thread
+     * @param failure callback when the data can not be decoded, on the main thread
+     */
+    public void decode(final byte[] data,
+                       final int size,
+                       final Bitmap.Config config,
+                       final BitmapPool pool,
+                       final Response.Listener<Bitmap> success,
+                       final Response.ErrorListener failure) {
+        final long queued = System.nanoTime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long started = System.nanoTime();
+                Bitmap decoded = null;
+                try {
+                    decoded = ImageDecoder.decode(data, size, config, pool);
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "Unable to decode image", e);
+                }
+                record(started - queued, System.nanoTime() - started, decoded != null);
+
+                final Bitmap bitmap = decoded;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (bitmap != null) {
+                            success.onResponse(bitmap);
+                        } else {
+                            failure.onErrorResponse(new ParseError());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private synchronized void record(long queueNanos, long decodeNanos, boolean decoded) {
+        if (decoded) {
+            decodeCount++;
+        } else {
+            failureCount++;
+        }
+        totalQueueNanos += queueNanos;
+        maxQueueNanos = Math.max(maxQueueNanos, queueNanos);
+        totalDecodeNanos += decodeNanos;
+        maxDecodeNanos = Math.max(maxDecodeNanos, decodeNanos);
+    }
+
+    /**
+     * @return number of images decoded
+     */
+    public synchronized long getDecodeCount() {
+        return decodeCount;
+    }
+
+    /**
+     * @return number of images that could not be decoded
+     */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return mean time spent by an image in the queue before its decoding, in ms
+     */
+    public synchronized float getAverageQueueWait() {
+        long total = decodeCount + failureCount;
+        return (total == 0) ? 0 : totalQueueNanos / 1e6f / total;
+    }
+
+    /**
+     * @return longest time spent by an image in the queue, in ms
+     */
+    public synchronized float getMaxQueueWait() {
+        return maxQueueNanos / 1e6f;
+    }
+
+    /**
+     * @return mean decoding time of an image, in ms
+     */
+    public synchronized float getAverageDecodeTime() {
+        long total = decodeCount + failureCount;
+        return (total == 0) ? 0 : totalDecodeNanos / 1e6f / total;
+    }
+
+    /**
+     * @return longest decoding time of an image, in ms
+     */
+    public synchronized float getMaxDecodeTime() {
+        return maxDecodeNanos / 1e6f;
+    }
+
+    /**
+     * @return number of images waiting for a decoding thread
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.orange.labs.sdk.cache.BitmapPool;
+
+/**
+ * Decoding of encoded images at the size they are displayed. Images are down sampled with
+ * {@link BitmapFactory.Options#inSampleSize} and decoded in a bitmap of the pool when possible.
+ */
+public final class ImageDecoder {
+
+    private static String TAG = ImageDecoder.class.toString();
+
+    /**
+     * Smallest size bucket, in pixels.
+     */
+    public static final int MIN_BUCKET = 64;
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Get the size bucket of a request: the smallest power of two holding its longest side.
+     * A bitmap decoded for a bucket is displayed for any request of the same or a smaller
+     * bucket.
+     *
+     * @param size longest side of the target, in pixels
+     * @return the bucket, in pixels
+     */
+    public static int bucket(int size) {
+        int bucket = MIN_BUCKET;
+        while (bucket < size) {
+            bucket *= 2;
+        }
+        return bucket;
+    }
+
+    /**
+     * Decode an image with the greatest power of two sample size keeping its longest side at
+     * least of the target size.
+     *
+     * @param data   the encoded image
+     * @param size   longest side of the target, in pixels
+     * @param config the bitmap config, null for ARGB_8888
+     * @param pool   pool of reusable bitmaps, can be null
+     * @return the bitmap or null if data is not an image
+     */
+    public static Bitmap decode(byte[] data, int size, Bitmap.Config config, BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, size);
+        options.inPreferredConfig = (config != null) ? config : Bitmap.Config.ARGB_8888;
+        // Mutable to be reusable once released by the application
+        options.inMutable = true;
+        if (pool != null) {
+            options.inBitmap = pool.get(options);
+        }
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap rejected by the decoder
+            Log.w(TAG, "Unable to reuse bitmap", e);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * @return the greatest power of two keeping the longest side at least of the target size
+     */
+    static int sampleSize(int width, int height, int size) {
+        int longest = Math.max(width, height);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
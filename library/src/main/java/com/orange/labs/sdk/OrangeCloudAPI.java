@@ -25,29 +25,55 @@ package com.orange.labs.sdk;
 
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.JsonReader;
 import android.util.Log;
 
 import com.android.volley.Request.Method;
 import com.android.volley.Response;
+import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageLoader.ImageCache;
+import com.orange.labs.sdk.cache.MetadataStore;
+import com.orange.labs.sdk.cache.TwoTierImageCache;
+import com.orange.labs.sdk.exception.CloudAPIException;
 import com.orange.labs.sdk.exception.OrangeAPIException;
+import com.orange.labs.sdk.metrics.MetricsListener;
+import com.orange.labs.sdk.retry.CircuitBreaker;
+import com.orange.labs.sdk.retry.RetryStrategy;
+import com.orange.labs.sdk.session.AuthSession;
+import com.orange.labs.sdk.session.Credentials;
 import com.orange.labs.sdk.session.Session;
+import com.orange.labs.sdk.trace.RequestEventListener;
+import com.orange.labs.sdk.transfer.CountingOutputStream;
+import com.orange.labs.sdk.transfer.HttpTransfer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Location of the Orange Cloud API functions.
@@ -62,14 +88,40 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
      */
     public static final String SDK_VERSION = "1.0.7";
     // Server information
+    private static String TAG = OrangeCloudAPI.class.toString();
     private static String API_URL = "https://api.orange.com/cloud/";
     private static String API_CONTENT_URL = "https://cloudapi.orange.com/cloud/";
 
     private static String API_VERSION = "v1";
+    // Size of the chunks sent by resumable uploads
+    private static int UPLOAD_CHUNK_SIZE = 4 * 1024 * 1024;
     // Parameters linked to OAuth
     private static String CLOUDAPI_DEFAULT_SCOPE = "cloud";
+
+    // Number of session refreshes a call may trigger before its error is reported
+    private static int MAX_AUTH_RETRIES = 2;
+    // Parsers of the revalidated responses, run on the network thread
+    private static final RestUtils.ResponseParser<Entry> ENTRY_PARSER =
+            new RestUtils.ResponseParser<Entry>() {
+                @Override
+                public Entry parse(JsonReader reader) throws IOException {
+                    return EntryParser.readEntry(reader);
+                }
+            };
+    private static final RestUtils.ResponseParser<Entry> FILE_INFO_PARSER =
+            new RestUtils.ResponseParser<Entry>() {
+                @Override
+                public Entry parse(JsonReader reader) throws IOException {
+                    return EntryParser.readFileInfo(reader);
+                }
+            };
     // Internal
     private SESS_T session;
+    private volatile MetadataStore metadataStore;
+    private volatile MetricsListener metrics;
+    private volatile String apiUrl = API_URL;
+    private volatile String contentUrl = API_CONTENT_URL;
+    private Handler handler;
 
 
     /**
@@ -110,13 +162,112 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
     }
 
     /**
-     * Set an image cache
+     * Set an image cache. With a {@link TwoTierImageCache}, images are also kept encoded on
+     * disk and survive the process.
      * @param imageCache ImageCache Object (see sample code)
      */
     public void setImageCache(ImageCache imageCache) {
         session.getRestClient().setCache(imageCache);
     }
 
+    /**
+     * Set a persistent store of the metadata. When set, listEntries() and fileInfo() first
+     * return the stored metadata, if any, then the metadata revalidated by the server: the
+     * success callback is then called twice. The store is cleared when the session is
+     * unlinked.
+     *
+     * @param store the metadata store, null to disable it
+     */
+    public void setMetadataStore(MetadataStore store) {
+        metadataStore = store;
+        session.getRestClient().setMetadataStore(store);
+    }
+
+    /**
+     * @return the persistent store of the metadata or null
+     */
+    public MetadataStore getMetadataStore() {
+        return metadataStore;
+    }
+
+    /**
+     * Send the calls to other servers than the Orange Cloud, typically a local simulator for
+     * load tests. Urls end before the version of the Api, as https://api.orange.com/cloud/.
+     * See {@link com.orange.labs.sdk.session.AuthSession#setApiServer(String)} for the
+     * token requests.
+     *
+     * @param apiUrl     base url of the metadata calls
+     * @param contentUrl base url of the uploads
+     */
+    public void setServers(String apiUrl, String contentUrl) {
+        if (apiUrl == null || contentUrl == null) {
+            throw new IllegalArgumentException("apiUrl and contentUrl must not be null.");
+        }
+        this.apiUrl = apiUrl.endsWith("/") ? apiUrl : apiUrl + "/";
+        this.contentUrl = contentUrl.endsWith("/") ? contentUrl : contentUrl + "/";
+    }
+
+    /**
+     * Set a listener of the metrics of the calls: duration, retries, token refreshes and
+     * error of each call, bytes exchanged and cache lookups. Operations are named after the methods
+     * ("listEntries", "fileInfo"...), uploads and downloads are reported as
+     * {@link RestUtils#UPLOAD_OPERATION} and {@link RestUtils#DOWNLOAD_OPERATION}.
+     *
+     * @param metrics the listener, null to disable the metrics
+     * @see com.orange.labs.sdk.metrics.InMemoryMetrics
+     */
+    public void setMetrics(MetricsListener metrics) {
+        this.metrics = metrics;
+        session.getRestClient().setMetrics(metrics);
+    }
+
+    /**
+     * Set the strategy deciding the timeout of each request, which failed calls are sent again
+     * after which delay, and the time allowed to a call, token refreshes included.
+     *
+     * @param strategy the strategy, not null
+     * @see com.orange.labs.sdk.retry.AdaptiveRetryStrategy
+     */
+    public void setRetryStrategy(RetryStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy must not be null.");
+        }
+        session.getRestClient().setRetryStrategy(strategy);
+    }
+
+    /**
+     * Get the circuit breaker of a host, to tune its thresholds. When a host fails or is too
+     * slow, its circuit opens: calls fail at once with a 503 {@link
+     * com.orange.labs.sdk.retry.CircuitOpenError#CODE} error, or get their last revalidated
+     * response, until trial requests succeed.
+     *
+     * @param host the host, for instance "api.orange.com"
+     * @return the circuit breaker of the host
+     */
+    public CircuitBreaker getCircuitBreaker(String host) {
+        return session.getRestClient().getCircuitBreaker(host);
+    }
+
+    /**
+     * @param enabled false to send the calls whatever the health of the hosts. Enabled by
+     *                default.
+     */
+    public void setCircuitBreakersEnabled(boolean enabled) {
+        session.getRestClient().setCircuitBreakersEnabled(enabled);
+    }
+
+    /**
+     * Set a listener of the steps of each request: queued, dispatched to a network thread,
+     * headers received, body received, parsed, delivered on the main thread. Steps carry the
+     * tag of the request, see {@link com.orange.labs.sdk.trace.ChromeTraceRecorder} to export
+     * them.
+     *
+     * @param listener the listener, null to disable the tracing
+     */
+    public void setRequestEventListener(RequestEventListener listener) {
+        session.getRestClient().setRequestEventListener(listener);
+    }
+
     /**
      * Unlink session and Cloud Api.
      */
@@ -137,7 +288,22 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         final String tag = "Cloud/freespace/";
 
         // Prepare URL
-        final String url = API_URL + API_VERSION + "/freespace";
+        final String url = apiUrl + API_VERSION + "/freespace";
+
+        final CallTracker<Long> call = track("freespace", true, success, failure);
+        if (call != null) {
+            freespace(call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                freespace(success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
 
         session.getRestClient().jsonRequest(tag, Method.GET, url, null, getHeaders(),
                 new Response.Listener<JSONObject>() {
@@ -149,11 +315,11 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
                 }, new OrangeListener.Error() {
                     @Override
                     public void onErrorResponse(OrangeAPIException error) {
-                        checkSession(error, new OrangeListener.Success<String>() {
+                        checkSession(error, new AuthRetry() {
                             @Override
-                            public void onResponse(String response) {
+                            public void retry(OrangeListener.Error retryFailure) {
                                 // retry request
-                                freespace(success, failure);
+                                freespace(success, retryFailure);
                             }
                         }, failure);
 
@@ -186,9 +352,25 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         final String tag = "Cloud/folder/list/" + entryIdentifier;
 
         // Prepare URL
-        final String url = API_URL + API_VERSION + "/folders/" + entryIdentifier;
+        final String url = apiUrl + API_VERSION + "/folders/" + entryIdentifier;
 
-        session.getRestClient().jsonRequest(tag, Method.GET, url, null, getHeaders(),
+        final CallTracker<Entry> call = track("listFolder", true, success, failure);
+        if (call != null) {
+            listFolder(entry, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                listFolder(entry, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
+        session.getRestClient().jsonRequest(tag, "listFolder", Method.GET, url, null,
+                getHeaders(),
                 new Response.Listener<JSONObject>() {
                     @Override
                     public void onResponse(JSONObject response) {
@@ -198,11 +380,11 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
                     @Override
                     public void onErrorResponse(OrangeAPIException error) {
 
-                        checkSession(error, new OrangeListener.Success<String>() {
+                        checkSession(error, new AuthRetry() {
                             @Override
-                            public void onResponse(String response) {
+                            public void retry(OrangeListener.Error retryFailure) {
                                 // retry request
-                                listFolder(entry, success, failure);
+                                listFolder(entry, success, retryFailure);
                             }
                         }, failure);
                     }
@@ -215,7 +397,9 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
      *
      * @param entry         folder object to list. Can be null to get the root access.
      * @param parameters    Add parameters (see documentation)
-     * @param success       callback returning a Entry (folders and its contents)
+     * @param success       callback returning a Entry (folders and its contents). If the
+     *                      folder has not changed since the last call, the same instance is
+     *                      returned.
      * @param failure       callback when error occurred
      */
 
@@ -224,6 +408,71 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
                            final OrangeListener.Success<Entry> success,
                            final OrangeListener.Error failure) {
 
+        final MetadataStore store = metadataStore;
+        if (store == null || !isFullListing(parameters)) {
+            requestEntries(entry, parameters, true, success, failure);
+            return;
+        }
+
+        // Stale while revalidate: stored listing first, unless the server has been faster
+        final AtomicBoolean revalidated = new AtomicBoolean();
+        final long principal = session.getRestClient().getPrincipal();
+        store.loadFolder((entry != null) ? entry.identifier : null,
+                new OrangeListener.Success<Entry>() {
+                    @Override
+                    public void onResponse(Entry response) {
+                        if (response != null && !revalidated.get()) {
+                            success.onResponse(response);
+                        }
+                    }
+                });
+        requestEntries(entry, parameters, true, new OrangeListener.Success<Entry>() {
+            @Override
+            public void onResponse(Entry response) {
+                revalidated.set(true);
+                if (principal == session.getRestClient().getPrincipal()) {
+                    // Not stored once the session is unlinked
+                    store.saveFolder(response, entry == null);
+                }
+                success.onResponse(response);
+            }
+        }, failure);
+    }
+
+    /**
+     * @return true if the parameters of listEntries() do not restrict the listing to a page
+     */
+    private static boolean isFullListing(JSONObject parameters) {
+        return parameters == null || (!parameters.has("limit") && !parameters.has("offset"));
+    }
+
+    /**
+     * List a folder without the metadata store.
+     *
+     * @param revalidate false if the response must not be kept in memory for a revalidation
+     */
+    void requestEntries(final Entry entry,
+                        final JSONObject parameters,
+                        final boolean revalidate,
+                        final OrangeListener.Success<Entry> success,
+                        final OrangeListener.Error failure) {
+        requestEntries(entry, parameters, revalidate, null, success, failure);
+    }
+
+    /**
+     * List a folder without the metadata store.
+     *
+     * @param revalidate false if the response must not be kept in memory for a revalidation
+     * @param validators listings to revalidate against instead of the ones kept in memory,
+     *                   keyed by url. Null for none.
+     */
+    void requestEntries(final Entry entry,
+                        final JSONObject parameters,
+                        final boolean revalidate,
+                        final ValidatorCache validators,
+                        final OrangeListener.Success<Entry> success,
+                        final OrangeListener.Error failure) {
+
         String entryIdentifier = "";
         if (entry != null) {
             entryIdentifier = entry.identifier;
@@ -233,38 +482,71 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         final String tag = "Cloud/entries/list/" + entryIdentifier;
 
         // Prepare URL
-        String url = API_URL + API_VERSION + "/folders/" + entryIdentifier;
-        if (parameters != null) {
-            try {
-                url += "?";
-                Iterator<String> keys = parameters.keys();
-                while (keys.hasNext()) {
-                    String key = keys.next();
-                    url += key + "=" + parameters.get(key) + "&";
-                }
-            } catch (JSONException e) {
-                // TODO:
-                e.printStackTrace();
+        String url = folderUrl(entryIdentifier, parameters);
+
+        final CallTracker<Entry> call = track("listEntries", true, success, failure);
+        if (call != null) {
+            requestEntries(entry, parameters, revalidate, validators, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                requestEntries(entry, parameters, revalidate, validators, success,
+                        retryFailure);
             }
+        }, failure)) {
+            return;
         }
-        session.getRestClient().jsonRequest(tag, Method.GET, url, null, getHeaders(),
-                new Response.Listener<JSONObject>() {
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        success.onResponse(new Entry(response));
-                    }
-                }, new OrangeListener.Error() {
+
+        Response.Listener<Entry> listener = new Response.Listener<Entry>() {
+            @Override
+            public void onResponse(Entry response) {
+                success.onResponse(response);
+            }
+        };
+        OrangeListener.Error errorListener = new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+                checkSession(error, new AuthRetry() {
                     @Override
-                    public void onErrorResponse(OrangeAPIException error) {
-                        checkSession(error, new OrangeListener.Success<String>() {
-                            @Override
-                            public void onResponse(String response) {
-                                // retry request
-                                listEntries(entry, parameters, success, failure);
-                            }
-                        }, failure);
+                    public void retry(OrangeListener.Error retryFailure) {
+                        // retry request
+                        requestEntries(entry, parameters, revalidate, validators,
+                                success, retryFailure);
                     }
-                });
+                }, failure);
+            }
+        };
+        if (validators != null) {
+            session.getRestClient().jsonRequest(tag, "listEntries", url, getHeaders(),
+                    ENTRY_PARSER, validators, listener, errorListener);
+        } else {
+            session.getRestClient().jsonRequest(tag, "listEntries", url, getHeaders(),
+                    ENTRY_PARSER, revalidate, listener, errorListener);
+        }
+    }
+
+    /**
+     * Build the url listing a folder.
+     *
+     * @param identifier identifier of the folder, empty for the root folder
+     * @param parameters query parameters of the listing (limit, offset...). Can be null.
+     * @return the url of the listing
+     */
+    String folderUrl(String identifier, JSONObject parameters) {
+        String url = apiUrl + API_VERSION + "/folders/" + identifier;
+        if (parameters != null) {
+            url += "?";
+            Iterator<String> keys = parameters.keys();
+            while (keys.hasNext()) {
+                // the keys come from the object itself, so opt never misses
+                String key = keys.next();
+                url += key + "=" + parameters.opt(key) + "&";
+            }
+        }
+        return url;
     }
 
     /**
@@ -300,9 +582,24 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         }
 
         // Prepare URL
-        final String url = API_URL + API_VERSION + "/folders/";
+        final String url = apiUrl + API_VERSION + "/folders/";
 
-        session.getRestClient().jsonRequest(tag, Method.POST, url, params, getHeaders(), new Response.Listener<JSONObject>() {
+        final CallTracker<Entry> call = track("createFolder", false, success, failure);
+        if (call != null) {
+            createFolder(entry, name, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                createFolder(entry, name, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
+        session.getRestClient().jsonRequest(tag, "createFolder", Method.POST, url, params, getHeaders(), new Response.Listener<JSONObject>() {
             @Override
             public void onResponse(JSONObject response) {
                 success.onResponse(new Entry(response));
@@ -310,10 +607,10 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         }, new OrangeListener.Error() {
             @Override
             public void onErrorResponse(OrangeAPIException error) {
-                checkSession(error, new OrangeListener.Success<String>() {
+                checkSession(error, new AuthRetry() {
                     @Override
-                    public void onResponse(String response) {
-                        createFolder(entry, name, success, failure);
+                    public void retry(OrangeListener.Error retryFailure) {
+                        createFolder(entry, name, success, retryFailure);
                     }
                 }, failure);
             }
@@ -349,11 +646,26 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         }
 
         // Prepare URL
-        final String url = API_URL + API_VERSION
+        final String url = apiUrl + API_VERSION
                 + ((entry.type == Entry.Type.DIRECTORY)
                 ? "/folders/"
                 : "/files/")
                 + entry.identifier;
+        final CallTracker<Entry> call = track("rename", false, success, failure);
+        if (call != null) {
+            rename(entry, name, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                rename(entry, name, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
         session.getRestClient().jsonRequest(tag, Method.POST, url, params, getHeaders(), new Response.Listener<JSONObject>() {
             @Override
             public void onResponse(JSONObject response) {
@@ -362,10 +674,10 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         }, new OrangeListener.Error() {
             @Override
             public void onErrorResponse(OrangeAPIException error) {
-                checkSession(error, new OrangeListener.Success<String>() {
+                checkSession(error, new AuthRetry() {
                     @Override
-                    public void onResponse(String response) {
-                        rename(entry, name, success, failure);
+                    public void retry(OrangeListener.Error retryFailure) {
+                        rename(entry, name, success, retryFailure);
                     }
                 }, failure);
             }
@@ -398,11 +710,26 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
             e.printStackTrace();
         }
         // Prepare URL
-        final String url = API_URL + API_VERSION
+        final String url = apiUrl + API_VERSION
                 + ((entry.type == Entry.Type.DIRECTORY)
                 ? "/folders/"
                 : "/files/")
                 + entry.identifier;
+        final CallTracker<Entry> call = track("copy", false, success, failure);
+        if (call != null) {
+            copy(entry, destination, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                copy(entry, destination, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
         session.getRestClient().jsonRequest(tag, Method.POST, url, params, getHeaders(), new Response.Listener<JSONObject>() {
             @Override
             public void onResponse(JSONObject response) {
@@ -411,10 +738,10 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         }, new OrangeListener.Error() {
             @Override
             public void onErrorResponse(OrangeAPIException error) {
-                checkSession(error, new OrangeListener.Success<String>() {
+                checkSession(error, new AuthRetry() {
                     @Override
-                    public void onResponse(String response) {
-                        copy(entry, destination, success, failure);
+                    public void retry(OrangeListener.Error retryFailure) {
+                        copy(entry, destination, success, retryFailure);
                     }
                 }, failure);
             }
@@ -436,7 +763,7 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
 
 
         // Create Tag used to cancel the request
-        final String tag = "Cloud/copy/" + entry.name;
+        final String tag = "Cloud/move/" + entry.name;
 
         // Prepare params
         final JSONObject params = new JSONObject();
@@ -446,11 +773,26 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
             e.printStackTrace();
         }
         // Prepare URL
-        final String url = API_URL + API_VERSION
+        final String url = apiUrl + API_VERSION
                 + ((entry.type == Entry.Type.DIRECTORY)
                 ? "/folders/"
                 : "/files/")
                 + entry.identifier;
+        final CallTracker<Entry> call = track("move", false, success, failure);
+        if (call != null) {
+            move(entry, destination, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                move(entry, destination, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
         session.getRestClient().jsonRequest(tag, Method.POST, url, params, getHeaders(), new Response.Listener<JSONObject>() {
             @Override
             public void onResponse(JSONObject response) {
@@ -459,10 +801,10 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         }, new OrangeListener.Error() {
             @Override
             public void onErrorResponse(OrangeAPIException error) {
-                checkSession(error, new OrangeListener.Success<String>() {
+                checkSession(error, new AuthRetry() {
                     @Override
-                    public void onResponse(String response) {
-                        move(entry, destination, success, failure);
+                    public void retry(OrangeListener.Error retryFailure) {
+                        move(entry, destination, success, retryFailure);
                     }
                 }, failure);
             }
@@ -489,31 +831,164 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         final String tag = "Cloud/delete/" + entry.identifier;
 
         // Prepare URL
-        final String url = API_URL + API_VERSION
+        final String url = apiUrl + API_VERSION
                 + ((entry.type == Entry.Type.DIRECTORY)
                 ? "/folders/"
                 : "/files/")
                 + entry.identifier;
 
+        final CallTracker<String> call = track("delete", true, success, failure);
+        if (call != null) {
+            delete(entry, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                delete(entry, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
         session.getRestClient().stringRequest(tag, Method.DELETE, url, null, getHeaders(),
                 new Response.Listener<String>() {
                     @Override
                     public void onResponse(String response) {
+                        MetadataStore store = metadataStore;
+                        if (store != null) {
+                            store.delete(entry.identifier);
+                        }
                         success.onResponse(response);
                     }
                 }, new OrangeListener.Error() {
                     @Override
                     public void onErrorResponse(OrangeAPIException error) {
-                        checkSession(error, new OrangeListener.Success<String>() {
+                        checkSession(error, new AuthRetry() {
                             @Override
-                            public void onResponse(String response) {
-                                delete(entry, success, failure);
+                            public void retry(OrangeListener.Error retryFailure) {
+                                delete(entry, success, retryFailure);
                             }
                         }, failure);
                     }
                 });
     }
 
+    /**
+     * Delete many entries (files or folders), with a bounded number of requests in flight.
+     *
+     * @param entries  entries to delete
+     * @param listener callback notified of the result of each entry and of the end of the batch
+     * @return the batch, which can be cancelled
+     */
+    public BatchOperation<String> deleteAll(final Collection<Entry> entries,
+                                            final BatchOperation.Listener<String> listener) {
+        return startBatch(entries, new BatchOperation.Operation<String>() {
+            @Override
+            public void run(Entry entry, OrangeListener.Success<String> success,
+                            OrangeListener.Error failure) {
+                delete(entry, success, failure);
+            }
+        }, listener);
+    }
+
+    /**
+     * Move many entries (files or folders) in a folder, with a bounded number of requests in
+     * flight.
+     *
+     * @param entries     entries to move
+     * @param destination the destination folder
+     * @param listener    callback notified of the result of each entry and of the end of the
+     *                    batch
+     * @return the batch, which can be cancelled
+     */
+    public BatchOperation<Entry> moveAll(final Collection<Entry> entries,
+                                         final Entry destination,
+                                         final BatchOperation.Listener<Entry> listener) {
+        if (destination == null) {
+            throw new IllegalArgumentException("destination must not be null.");
+        }
+        return startBatch(entries, new BatchOperation.Operation<Entry>() {
+            @Override
+            public void run(Entry entry, OrangeListener.Success<Entry> success,
+                            OrangeListener.Error failure) {
+                move(entry, destination, success, failure);
+            }
+        }, listener);
+    }
+
+    /**
+     * Copy many entries (files or folders) in a folder, with a bounded number of requests in
+     * flight.
+     *
+     * @param entries     entries to copy
+     * @param destination the destination folder
+     * @param listener    callback notified of the result of each entry and of the end of the
+     *                    batch
+     * @return the batch, which can be cancelled
+     */
+    public BatchOperation<Entry> copyAll(final Collection<Entry> entries,
+                                         final Entry destination,
+                                         final BatchOperation.Listener<Entry> listener) {
+        if (destination == null) {
+            throw new IllegalArgumentException("destination must not be null.");
+        }
+        return startBatch(entries, new BatchOperation.Operation<Entry>() {
+            @Override
+            public void run(Entry entry, OrangeListener.Success<Entry> success,
+                            OrangeListener.Error failure) {
+                copy(entry, destination, success, failure);
+            }
+        }, listener);
+    }
+
+    /**
+     * Rename many entries (files or folders), with a bounded number of requests in flight.
+     *
+     * @param names    the new name of each entry
+     * @param listener callback notified of the result of each entry and of the end of the batch
+     * @return the batch, which can be cancelled
+     */
+    public BatchOperation<Entry> renameAll(final Map<Entry, String> names,
+                                           final BatchOperation.Listener<Entry> listener) {
+        if (names == null) {
+            throw new IllegalArgumentException("names must not be null.");
+        }
+        for (String name : names.values()) {
+            if (name == null || name.length() == 0) {
+                throw new IllegalArgumentException("name must not be null or empty.");
+            }
+        }
+        final Map<Entry, String> snapshot = new LinkedHashMap<Entry, String>(names);
+        return startBatch(snapshot.keySet(), new BatchOperation.Operation<Entry>() {
+            @Override
+            public void run(Entry entry, OrangeListener.Success<Entry> success,
+                            OrangeListener.Error failure) {
+                rename(entry, snapshot.get(entry), success, failure);
+            }
+        }, listener);
+    }
+
+    private <T> BatchOperation<T> startBatch(Collection<Entry> entries,
+                                             BatchOperation.Operation<T> operation,
+                                             BatchOperation.Listener<T> listener) {
+        if (entries == null) {
+            throw new IllegalArgumentException("entries must not be null.");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null.");
+        }
+        List<Entry> list = new ArrayList<Entry>(entries);
+        if (list.contains(null)) {
+            throw new IllegalArgumentException("entries must not contain null.");
+        }
+        BatchOperation<T> batch = new BatchOperation<T>(list, operation,
+                BatchOperation.DEFAULT_CONCURRENCY, listener);
+        batch.start();
+        return batch;
+    }
+
     /**
      * Get more information about a file. In particular, the following information is returned:
      * size, creation time, thumbnail and download URL.
@@ -530,26 +1005,75 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
             throw new IllegalArgumentException("entry must not be null.");
         }
 
+        final MetadataStore store = metadataStore;
+        if (store == null) {
+            requestFileInfo(entry, success, failure);
+            return;
+        }
+
+        // Stale while revalidate: stored information first, unless the server has been faster
+        final AtomicBoolean revalidated = new AtomicBoolean();
+        final long principal = session.getRestClient().getPrincipal();
+        store.loadEntry(entry.identifier, new OrangeListener.Success<Entry>() {
+            @Override
+            public void onResponse(Entry response) {
+                if (response != null && response.extraInfoAvailable && !revalidated.get()) {
+                    entry.setExtraInfos(response);
+                    success.onResponse(entry);
+                }
+            }
+        });
+        requestFileInfo(entry, new OrangeListener.Success<Entry>() {
+            @Override
+            public void onResponse(Entry response) {
+                revalidated.set(true);
+                if (principal == session.getRestClient().getPrincipal()) {
+                    store.saveEntry(response);
+                }
+                success.onResponse(response);
+            }
+        }, failure);
+    }
+
+    void requestFileInfo(final Entry entry,
+                                 final OrangeListener.Success<Entry> success,
+                                 final OrangeListener.Error failure) {
+
         // Create Tag used to cancel the request
         final String tag = "Cloud/fileInfo/" + entry.identifier;
 
         // Prepare URL
-        final String url = API_URL + API_VERSION + "/files/" + entry.identifier;
+        final String url = apiUrl + API_VERSION + "/files/" + entry.identifier;
 
-        session.getRestClient().jsonRequest(tag, Method.GET, url, null, getHeaders(),
-                new Response.Listener<JSONObject>() {
+        final CallTracker<Entry> call = track("fileInfo", true, success, failure);
+        if (call != null) {
+            requestFileInfo(entry, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                requestFileInfo(entry, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
+        session.getRestClient().jsonRequest(tag, url, getHeaders(), FILE_INFO_PARSER,
+                new Response.Listener<Entry>() {
                     @Override
-                    public void onResponse(JSONObject response) {
+                    public void onResponse(Entry response) {
                         entry.setExtraInfos(response);
                         success.onResponse(entry);
                     }
                 }, new OrangeListener.Error() {
                     @Override
                     public void onErrorResponse(OrangeAPIException error) {
-                        checkSession(error, new OrangeListener.Success<String>() {
+                        checkSession(error, new AuthRetry() {
                             @Override
-                            public void onResponse(String response) {
-                                fileInfo(entry, success, failure);
+                            public void retry(OrangeListener.Error retryFailure) {
+                                requestFileInfo(entry, success, retryFailure);
                             }
                         }, failure);
                     }
@@ -566,6 +1090,27 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
     public void thumbnail(final Entry entry,
                           final OrangeListener.Success<Bitmap> success,
                           final OrangeListener.Error failure) {
+        thumbnail(entry, 0, 0, null, success, failure);
+    }
+
+    /**
+     * Download a thumbnail from Orange Cloud, decoded for the size it is displayed.
+     *
+     * @param entry   the entry metadata. Must be a file.
+     * @param width   width of the view in pixels, 0 for the screen width
+     * @param height  height of the view in pixels, 0 for the screen height
+     * @param config  the bitmap config (RGB_565 halves the memory of opaque images), null for
+     *                ARGB_8888
+     * @param success callback returning a Bitmap, at least of the given size if the image is
+     *                large enough
+     * @param failure callback when error occurred
+     */
+    public void thumbnail(final Entry entry,
+                          final int width,
+                          final int height,
+                          final Bitmap.Config config,
+                          final OrangeListener.Success<Bitmap> success,
+                          final OrangeListener.Error failure) {
 
         if (entry == null) {
             throw new IllegalArgumentException("entry must not be null.");
@@ -577,15 +1122,30 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
 
         final String tag = "Cloud/thumbnail/" + entry.identifier;
         final String url = entry.thumbnailURL;
-        session.getRestClient().imageRequest(tag, url, getHeaders(),
+        final CallTracker<Bitmap> call = track("thumbnail", true, success, failure);
+        if (call != null) {
+            thumbnail(entry, width, height, config, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                thumbnail(entry, width, height, config, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
+        session.getRestClient().imageRequest(tag, url, getHeaders(), width, height, config,
                 success,
                 new OrangeListener.Error() {
                     @Override
                     public void onErrorResponse(OrangeAPIException error) {
-                        checkSession(error, new OrangeListener.Success<String>() {
+                        checkSession(error, new AuthRetry() {
                             @Override
-                            public void onResponse(String response) {
-                                thumbnail(entry, success, failure);
+                            public void retry(OrangeListener.Error retryFailure) {
+                                thumbnail(entry, width, height, config, success, retryFailure);
                             }
                         }, failure);
                     }
@@ -602,6 +1162,27 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
     public void preview(final Entry entry,
                         final OrangeListener.Success<Bitmap> success,
                         final OrangeListener.Error failure) {
+        preview(entry, 0, 0, null, success, failure);
+    }
+
+    /**
+     * Download a preview from Orange Cloud, decoded for the size it is displayed.
+     *
+     * @param entry   the entry metadata. Must be a file.
+     * @param width   width of the view in pixels, 0 for the screen width
+     * @param height  height of the view in pixels, 0 for the screen height
+     * @param config  the bitmap config (RGB_565 halves the memory of opaque images), null for
+     *                ARGB_8888
+     * @param success callback returning a Bitmap, at least of the given size if the image is
+     *                large enough
+     * @param failure callback when error occurred
+     */
+    public void preview(final Entry entry,
+                        final int width,
+                        final int height,
+                        final Bitmap.Config config,
+                        final OrangeListener.Success<Bitmap> success,
+                        final OrangeListener.Error failure) {
 
         if (entry == null) {
             throw new IllegalArgumentException("entry must not be null.");
@@ -613,16 +1194,30 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
 
         final String tag = "Cloud/preview/" + entry.identifier;
         final String url = entry.previewURL;
+        final CallTracker<Bitmap> call = track("preview", true, success, failure);
+        if (call != null) {
+            preview(entry, width, height, config, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                preview(entry, width, height, config, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
 
-        session.getRestClient().imageRequest(tag, url, getHeaders(),
+        session.getRestClient().imageRequest(tag, url, getHeaders(), width, height, config,
                 success,
                 new OrangeListener.Error() {
                     @Override
                     public void onErrorResponse(OrangeAPIException error) {
-                        checkSession(error, new OrangeListener.Success<String>() {
+                        checkSession(error, new AuthRetry() {
                             @Override
-                            public void onResponse(String response) {
-                                preview(entry, success, failure);
+                            public void retry(OrangeListener.Error retryFailure) {
+                                preview(entry, width, height, config, success, retryFailure);
                             }
                         }, failure);
                     }
@@ -652,15 +1247,32 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         final String tag = "Cloud/content/" + entry.identifier;
         final String url = entry.downloadURL;
 
-        session.getRestClient().imageRequest(tag, url, getHeaders(),
+        final CallTracker<Bitmap> call = track("content", true, success, failure);
+        if (call != null) {
+            imageContent(entry, call, call);
+            return;
+        }
+
+        if (awaitSession(new AuthRetry() {
+            @Override
+            public void retry(OrangeListener.Error retryFailure) {
+                imageContent(entry, success, retryFailure);
+            }
+        }, failure)) {
+            return;
+        }
+
+        // Full size image: its timeout depends on its size
+        long length = entry.extraInfoAvailable ? entry.bytes : 0;
+        session.getRestClient().imageRequest(tag, url, getHeaders(), 0, 0, null, length,
                 success,
                 new OrangeListener.Error() {
                     @Override
                     public void onErrorResponse(OrangeAPIException error) {
-                        checkSession(error, new OrangeListener.Success<String>() {
+                        checkSession(error, new AuthRetry() {
                             @Override
-                            public void onResponse(String response) {
-                                imageContent(entry, success, failure);
+                            public void retry(OrangeListener.Error retryFailure) {
+                                imageContent(entry, success, retryFailure);
                             }
                         }, failure);
                     }
@@ -668,7 +1280,227 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
     }
 
     /**
-     * Upload a file to the Orange Cloud
+     * Download the content of a file in an output stream. Content is streamed: memory used does
+     * not depend on the file size. This function is synchronous and has to be called as a
+     * background task. The output stream is not closed.
+     *
+     * @param entry    the entry metadata. Must be a file.
+     * @param output   the stream where the content is written
+     * @param success  callback returning the downloaded entry
+     * @param progress callback to notify download progress
+     * @param failure  callback when error occurred
+     */
+    public void download(final Entry entry,
+                         final OutputStream output,
+                         final OrangeListener.Success<Entry> success,
+                         final OrangeListener.Progress progress,
+                         final OrangeListener.Error failure) {
+
+        if (entry == null) {
+            throw new IllegalArgumentException("entry must not be null.");
+        }
+        if (entry.downloadURL == null) {
+            throw new IllegalArgumentException("downloadURL must not be null. Make sure that a " +
+                    "fileinfo() has been called before.");
+        }
+
+        URL url;
+        try {
+            url = new URL(entry.downloadURL);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("downloadURL is not a valid url: "
+                    + entry.downloadURL);
+        }
+        long length = entry.extraInfoAvailable ? entry.bytes : HttpTransfer.UNKNOWN_LENGTH;
+
+        final CallTracker<Entry> call = track(RestUtils.DOWNLOAD_OPERATION, true, success, failure);
+        if (call != null) {
+            // Retries resume after the bytes already written in the output
+            download(entry, new CountingOutputStream(output), call, progress, call);
+            return;
+        }
+
+        awaitSessionSync(failure);
+
+        long offset = (output instanceof CountingOutputStream)
+                ? ((CountingOutputStream) output).getCount() : 0;
+        session.getRestClient().downloadRequest(url, getHeaders(), output, offset, length,
+                new Response.Listener<Long>() {
+                    @Override
+                    public void onResponse(Long response) {
+                        success.onResponse(entry);
+                    }
+                }, progress,
+                new OrangeListener.Error() {
+                    @Override
+                    public void onErrorResponse(OrangeAPIException error) {
+                        // Download is synchronous: retry on the calling thread
+                        OrangeAPIException sessionError = checkSessionSync(error, failure);
+                        if (sessionError == null) {
+                            download(entry, output, success, progress,
+                                    retryListener(failure, error));
+                        } else {
+                            failure.onErrorResponse(sessionError);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Download the content of a file in a local file. See
+     * {@link #download(Entry, OutputStream, OrangeListener.Success, OrangeListener.Progress, OrangeListener.Error)}.
+     * The local file is deleted if the download fails.
+     *
+     * @param entry    the entry metadata. Must be a file.
+     * @param file     the local file to write
+     * @param success  callback returning the downloaded entry
+     * @param progress callback to notify download progress
+     * @param failure  callback when error occurred
+     */
+    public void download(final Entry entry,
+                         final File file,
+                         final OrangeListener.Success<Entry> success,
+                         final OrangeListener.Progress progress,
+                         final OrangeListener.Error failure) {
+
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null.");
+        }
+        FileOutputStream output;
+        try {
+            output = new FileOutputStream(file);
+        } catch (FileNotFoundException e) {
+            failure.onErrorResponse(new CloudAPIException(new VolleyError(e)));
+            return;
+        }
+        final boolean[] succeeded = new boolean[1];
+        try {
+            download(entry, output, new OrangeListener.Success<Entry>() {
+                @Override
+                public void onResponse(Entry response) {
+                    succeeded[0] = true;
+                }
+            }, progress, failure);
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                if (succeeded[0]) {
+                    succeeded[0] = false;
+                    failure.onErrorResponse(new CloudAPIException(new VolleyError(e)));
+                }
+            }
+        }
+        if (succeeded[0]) {
+            success.onResponse(entry);
+        } else if (!file.delete()) {
+            Log.w(TAG, "Unable to delete " + file);
+        }
+    }
+
+    /**
+     * Download the content of a large file in a local file, fetching byte ranges of the file
+     * in parallel. This mode is faster than a single download on high-latency links.
+     * This function is synchronous and has to be called as a background task. The local file
+     * is deleted if the download fails.
+     *
+     * @param entry        the entry metadata. Must be a file and fileInfo() must have been
+     *                     called to know its size.
+     * @param file         the local file to write
+     * @param segmentCount the maximum number of ranges fetched in parallel
+     * @param success      callback returning the downloaded entry
+     * @param progress     callback to notify download progress
+     * @param failure      callback when error occurred
+     */
+    public void segmentedDownload(final Entry entry,
+                                  final File file,
+                                  final int segmentCount,
+                                  final OrangeListener.Success<Entry> success,
+                                  final OrangeListener.Progress progress,
+                                  final OrangeListener.Error failure) {
+
+        if (entry == null) {
+            throw new IllegalArgumentException("entry must not be null.");
+        }
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null.");
+        }
+        if (entry.downloadURL == null || !entry.extraInfoAvailable) {
+            throw new IllegalArgumentException("downloadURL and bytes must not be null. Make " +
+                    "sure that a fileinfo() has been called before.");
+        }
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be greater than 0.");
+        }
+
+        URL url;
+        try {
+            url = new URL(entry.downloadURL);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("downloadURL is not a valid url: "
+                    + entry.downloadURL);
+        }
+
+        final CallTracker<Entry> call = track(RestUtils.DOWNLOAD_OPERATION, true, success, failure);
+        if (call != null) {
+            segmentedDownload(entry, file, segmentCount, call, progress, call);
+            return;
+        }
+
+        awaitSessionSync(failure);
+
+        session.getRestClient().segmentedDownloadRequest(url, getHeaders(), file, entry.bytes,
+                segmentCount,
+                new Response.Listener<Long>() {
+                    @Override
+                    public void onResponse(Long response) {
+                        success.onResponse(entry);
+                    }
+                }, progress,
+                new OrangeListener.Error() {
+                    @Override
+                    public void onErrorResponse(OrangeAPIException error) {
+                        OrangeAPIException sessionError = checkSessionSync(error, failure);
+                        if (sessionError == null) {
+                            segmentedDownload(entry, file, segmentCount, success, progress,
+                                    retryListener(failure, error));
+                        } else {
+                            if (!file.delete()) {
+                                Log.w(TAG, "Unable to delete " + file);
+                            }
+                            failure.onErrorResponse(sessionError);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Download the content of a file in a file descriptor, for example one given by the
+     * Storage Access Framework. See
+     * {@link #download(Entry, OutputStream, OrangeListener.Success, OrangeListener.Progress, OrangeListener.Error)}.
+     * The descriptor is not closed.
+     *
+     * @param entry      the entry metadata. Must be a file.
+     * @param descriptor the file descriptor to write, opened in write mode
+     * @param success    callback returning the downloaded entry
+     * @param progress   callback to notify download progress
+     * @param failure    callback when error occurred
+     */
+    public void download(final Entry entry,
+                         final ParcelFileDescriptor descriptor,
+                         final OrangeListener.Success<Entry> success,
+                         final OrangeListener.Progress progress,
+                         final OrangeListener.Error failure) {
+
+        if (descriptor == null) {
+            throw new IllegalArgumentException("descriptor must not be null.");
+        }
+        download(entry, new FileOutputStream(descriptor.getFileDescriptor()), success, progress,
+                failure);
+    }
+
+    /**
+     * Upload a file to the Orange Cloud
      *
      * @param fileUri  Uri of file to upload
      * @param filename name of file to upload
@@ -682,9 +1514,18 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
 
         URL url;
         try {
-            url = new URL(API_CONTENT_URL + API_VERSION + "/files/content?name=" + filename
+            url = new URL(contentUrl + API_VERSION + "/files/content?name=" + filename
                     + "&folder=" + entry.identifier);
 
+            final CallTracker<JSONObject> call = track(RestUtils.UPLOAD_OPERATION, false,
+                    success, failure);
+            if (call != null) {
+                upload(fileUri, filename, entry, call, progress, call);
+                return;
+            }
+
+            awaitSessionSync(failure);
+
             session.getRestClient().uploadRequest(url, fileUri, getHeaders(),
                     new Response.Listener<JSONObject>() {
                         @Override
@@ -695,12 +1536,14 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
                     new OrangeListener.Error() {
                         @Override
                         public void onErrorResponse(OrangeAPIException error) {
-                            checkSession(error, new OrangeListener.Success<String>() {
-                                @Override
-                                public void onResponse(String response) {
-                                    upload(fileUri, filename, entry, success, progress, failure);
-                                }
-                            }, failure);
+                            // Upload is synchronous: retry on the calling thread
+                            OrangeAPIException sessionError = checkSessionSync(error, failure);
+                            if (sessionError == null) {
+                                upload(fileUri, filename, entry, success, progress,
+                                        retryListener(failure, error));
+                            } else {
+                                failure.onErrorResponse(sessionError);
+                            }
                         }
                     });
         } catch (MalformedURLException e) {
@@ -708,46 +1551,461 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         }
     }
 
+    /**
+     * Upload a file to the Orange Cloud by chunks. If the upload is interrupted (network error,
+     * expired session, process killed...), calling again this method with the same parameters
+     * resumes the upload from the last chunk acknowledged by the server.
+     * The chunk protocol is an assumption, not part of the documented Cloud API: see
+     * {@link RestUtils#resumableUploadRequest}. Use {@link #upload} with servers that do not
+     * support it.
+     *
+     * @param fileUri  Uri of file to upload
+     * @param filename name of file to upload
+     * @param entry    unique identifier of the parent folder
+     * @param success  callback if upload is ok
+     * @param progress callback to notify upload progress
+     * @param failure  callback to notify error
+     */
+    public void resumableUpload(final Uri fileUri, final String filename, final Entry entry,
+                                final OrangeListener.Success<JSONObject> success,
+                                final OrangeListener.Progress progress,
+                                final OrangeListener.Error failure) {
+
+        // The url is also the key of the upload in the journal
+        String spec = contentUrl + API_VERSION + "/files/content?name=" + Uri.encode(filename)
+                + "&folder=" + Uri.encode(entry.identifier);
+        URL url;
+        try {
+            url = new URL(spec);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("upload url is not valid: " + spec);
+        }
+
+        // A content of a single chunk is a plain POST: sent again, it would be stored twice
+        final CallTracker<JSONObject> call = track(RestUtils.UPLOAD_OPERATION, false,
+                success, failure);
+        if (call != null) {
+            resumableUpload(fileUri, filename, entry, call, progress, call);
+            return;
+        }
+
+        awaitSessionSync(failure);
+
+        session.getRestClient().resumableUploadRequest(url, fileUri, UPLOAD_CHUNK_SIZE,
+                getHeaders(),
+                new Response.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        success.onResponse(response);
+                    }
+                }, progress,
+                new OrangeListener.Error() {
+                    @Override
+                    public void onErrorResponse(OrangeAPIException error) {
+                        OrangeAPIException sessionError = checkSessionSync(error, failure);
+                        if (sessionError == null) {
+                            resumableUpload(fileUri, filename, entry, success, progress,
+                                    retryListener(failure, error));
+                        } else {
+                            failure.onErrorResponse(sessionError);
+                        }
+                    }
+                });
+    }
+
     /**
      * Method is called if an Api call returned an error. It checks if the error is a session
-     * problem. If true, method checks if the OAuth access token is still valid (refresh if needed)
-     * and re-open a session.
-     * Normally it will be simplified and removed in future version.
+     * problem. If true, the OAuth access token is refreshed and the call is retried. Calls
+     * failing during a refresh wait for it instead of starting their own, calls sent with a
+     * token already refreshed are retried at once, and a call is retried at most
+     * {@link #MAX_AUTH_RETRIES} times. Other errors are retried after the
+     * delay given by the {@link RetryStrategy}. Nothing is retried past the deadline of the
+     * call.
      *
      * @param error   The error exception returned by an api call.
-     * @param success callback when session is re-opened without error
+     * @param retry   called when session is re-opened without error
      * @param failure callback when error occurred
      */
     private void checkSession(final OrangeAPIException error,
-                              final OrangeListener.Success<String> success,
+                              final AuthRetry retry,
                               final OrangeListener.Error failure) {
 
         // Check error code to know if SESSION_EXPIRED
-        if (error.getStatusCode() == 401) {
+        if (error.getStatusCode() == 401 && RetryListener.attempts(failure) < MAX_AUTH_RETRIES
+                && !CallTracker.isExpired(failure, 0)) {
+            if (CallTracker.isStale(failure, getCredentials())) {
+                // Rejected token already replaced: no new refresh
+                retry.retry(retryListener(failure, error));
+                return;
+            }
             session.refresh(new OrangeListener.Success<String>() {
                 @Override
                 public void onResponse(String response) {
-                    success.onResponse(null);
+                    retry.retry(retryListener(failure, error));
                 }
             }, failure);
+            return;
+        }
+        long delay = retryDelay(error, failure);
+        if (delay >= 0) {
+            getHandler().postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    retry.retry(retryListener(failure, error));
+                }
+            }, delay);
         } else {
-            // Normal error
+            // Normal error, or retry budget exhausted
+            failure.onErrorResponse(error);
+        }
+    }
+
+    /**
+     * Same as {@link #checkSession(OrangeAPIException, AuthRetry, OrangeListener.Error)}
+     * for synchronous calls (uploads, downloads): the calling thread waits for the session
+     * refresh. Must not be called from the main thread, where refresh responses are delivered.
+     * The backoff before a retry is also waited on the calling thread. The call has to be
+     * retried with {@link #retryListener(OrangeListener.Error, OrangeAPIException)}.
+     *
+     * @param error   The error exception returned by an api call.
+     * @param failure the error callback of the call
+     * @return null if the session has been refreshed or the backoff waited and the call can be
+     * retried, else the error to report
+     */
+    private OrangeAPIException checkSessionSync(final OrangeAPIException error,
+                                                final OrangeListener.Error failure) {
+        if (error.getStatusCode() != 401 || RetryListener.attempts(failure) >= MAX_AUTH_RETRIES
+                || CallTracker.isExpired(failure, 0)) {
+            long delay = retryDelay(error, failure);
+            if (delay < 0 || Thread.currentThread().isInterrupted()) {
+                return error;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // Transfer paused or cancelled
+                Thread.currentThread().interrupt();
+                return error;
+            }
+            return null;
+        }
+        if (CallTracker.isStale(failure, getCredentials())) {
+            // Rejected token already replaced: no new refresh
+            return null;
+        }
+        final OrangeAPIException[] result = new OrangeAPIException[]{error};
+        final CountDownLatch latch = new CountDownLatch(1);
+        session.refresh(new OrangeListener.Success<String>() {
+            @Override
+            public void onResponse(String response) {
+                result[0] = null;
+                latch.countDown();
+            }
+        }, new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException refreshError) {
+                result[0] = refreshError;
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result[0];
+    }
+
+    /**
+     * Park a new call while the access token is renewed or about to expire, so that it is not
+     * sent with a stale token. The call is run once the refresh is done, whatever its result:
+     * an expired token is still handled by {@link #checkSession(OrangeAPIException, AuthRetry,
+     * OrangeListener.Error)}.
+     *
+     * @param call    the call to run after the refresh
+     * @param failure the error callback of the call
+     * @return true if the call has been parked, false if it can be sent now
+     */
+    private boolean awaitSession(final AuthRetry call, final OrangeListener.Error failure) {
+        // Retried calls already went through a refresh
+        if (failure instanceof RetryListener || !needsRefresh()) {
+            CallTracker.markSent(failure, getCredentials());
+            return false;
+        }
+        final OrangeListener.Error replayFailure = new RetryListener(failure, 0);
+        session.refresh(new OrangeListener.Success<String>() {
+            @Override
+            public void onResponse(String response) {
+                call.retry(replayFailure);
+            }
+        }, new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+                call.retry(replayFailure);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Same as {@link #awaitSession(AuthRetry, OrangeListener.Error)} for synchronous calls: the
+     * calling thread waits for the refresh.
+     *
+     * @param failure the error callback of the call
+     */
+    private void awaitSessionSync(final OrangeListener.Error failure) {
+        if (failure instanceof RetryListener || !needsRefresh()) {
+            CallTracker.markSent(failure, getCredentials());
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        session.refresh(new OrangeListener.Success<String>() {
+            @Override
+            public void onResponse(String response) {
+                latch.countDown();
+            }
+        }, new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CallTracker.markSent(failure, getCredentials());
+    }
+
+    /**
+     * @param error   the error of the call
+     * @param failure the error callback of the call
+     * @return delay before sending the call again, -1 if the error has to be reported
+     */
+    private long retryDelay(OrangeAPIException error, OrangeListener.Error failure) {
+        CallTracker<?> call = CallTracker.of(failure);
+        if (call == null) {
+            return -1;
+        }
+        long delay = session.getRestClient().getRetryStrategy().getRetryDelay(call.operation,
+                call.idempotent, call.retries.get() + 1, error);
+        if (delay < 0 || CallTracker.isExpired(failure, delay)) {
+            return -1;
+        }
+        Log.v(TAG, "retry " + call.operation + " in " + delay + " ms: " + error.getStatusCode());
+        return delay;
+    }
+
+    /**
+     * @param failure the error callback of a call
+     * @param error   the error the call is retried for
+     * @return the error callback to give to the retry of the call, counting one more attempt,
+     * and one more session refresh if the token had expired
+     */
+    private static OrangeListener.Error retryListener(OrangeListener.Error failure,
+                                                      OrangeAPIException error) {
+        CallTracker<?> call = CallTracker.of(failure);
+        if (call != null) {
+            // Refreshes do not spend the retry budget of the strategy
+            if (error.getStatusCode() == 401) {
+                call.refreshes.incrementAndGet();
+            } else {
+                call.retries.incrementAndGet();
+            }
+        }
+        int attempts = RetryListener.attempts(failure);
+        if (failure instanceof RetryListener) {
+            failure = ((RetryListener) failure).failure;
+        }
+        return new RetryListener(failure, (error.getStatusCode() == 401) ? attempts + 1 : attempts);
+    }
+
+    /**
+     * @return the handler delaying the retries on the main thread
+     */
+    private Handler getHandler() {
+        // Created on first use: the API can be built off a looper (benchmarks)
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        return handler;
+    }
+
+    /**
+     * A call to do again once the session has been refreshed, or after a backoff.
+     */
+    private interface AuthRetry {
+        void retry(OrangeListener.Error failure);
+    }
+
+    /**
+     * Error callback of a retried call: it carries the number of refreshes already done for
+     * the call, and forwards errors to the callback given by the caller.
+     */
+    private static class RetryListener implements OrangeListener.Error {
+
+        private final OrangeListener.Error failure;
+        private final int attempts;
+
+        RetryListener(OrangeListener.Error failure, int attempts) {
+            this.failure = failure;
+            this.attempts = attempts;
+        }
+
+        static int attempts(OrangeListener.Error failure) {
+            return (failure instanceof RetryListener) ? ((RetryListener) failure).attempts : 0;
+        }
+
+        @Override
+        public void onErrorResponse(OrangeAPIException error) {
             failure.onErrorResponse(error);
         }
     }
 
     /**
-     * Generate a Map containing the HTTP headers needed to Cloud Api.
+     * Start a call: its deadline, its retries and, when metrics are enabled, its measure.
      *
-     * @return a Map containing minimal headers needed to Cloud Api
+     * @param operation  name of the call
+     * @param idempotent true if the call can be sent twice without side effect
+     * @param success    the success callback given by the caller
+     * @param failure    the error callback given by the caller
+     * @return the callbacks to run the call with, or null if the call is already started
+     * (retry)
+     */
+    private <T> CallTracker<T> track(String operation, boolean idempotent,
+                                     OrangeListener.Success<T> success,
+                                     OrangeListener.Error failure) {
+        if (CallTracker.of(failure) != null) {
+            return null;
+        }
+        long deadline = session.getRestClient().getRetryStrategy().getDeadline(operation);
+        return new CallTracker<T>(metrics, operation, idempotent, deadline, success, failure);
+    }
+
+    /**
+     * Callbacks of a call: it keeps the start of the call for its deadline and counts its
+     * retries and its token refreshes apart. When metrics are enabled, the duration, from the
+     * first attempt to the result, and both counts are reported once. The result is then forwarded to the
+     * callbacks given by the caller.
+     */
+    private static class CallTracker<T> implements OrangeListener.Success<T>,
+            OrangeListener.Error {
+
+        private final MetricsListener metrics;
+        private final String operation;
+        private final boolean idempotent;
+        private final OrangeListener.Success<T> success;
+        private final OrangeListener.Error failure;
+        private final long start = SystemClock.elapsedRealtime();
+        private final long deadline;
+        private final AtomicInteger retries = new AtomicInteger();
+        private final AtomicInteger refreshes = new AtomicInteger();
+        private final AtomicBoolean reported = new AtomicBoolean();
+        // Version of the credentials the last attempt was sent with
+        private volatile long credentialsVersion;
+
+        CallTracker(MetricsListener metrics, String operation, boolean idempotent,
+                    long deadline, OrangeListener.Success<T> success,
+                    OrangeListener.Error failure) {
+            this.metrics = metrics;
+            this.operation = operation;
+            this.idempotent = idempotent;
+            this.deadline = (deadline > 0) ? start + deadline : Long.MAX_VALUE;
+            this.success = success;
+            this.failure = failure;
+        }
+
+        /**
+         * @param failure the error callback of a call
+         * @param delay   delay before a new attempt
+         * @return true if the new attempt would start after the deadline of the call
+         */
+        static boolean isExpired(OrangeListener.Error failure, long delay) {
+            CallTracker<?> call = of(failure);
+            return call != null && SystemClock.elapsedRealtime() + delay >= call.deadline;
+        }
+
+        /**
+         * Record the credentials an attempt of a call is sent with.
+         *
+         * @param failure     the error callback of the call
+         * @param credentials the current credentials
+         */
+        static void markSent(OrangeListener.Error failure, Credentials credentials) {
+            CallTracker<?> call = of(failure);
+            if (call != null) {
+                call.credentialsVersion = credentials.getVersion();
+            }
+        }
+
+        /**
+         * @param failure     the error callback of a call
+         * @param credentials the current credentials
+         * @return true if the last attempt of the call was sent with previous credentials
+         */
+        static boolean isStale(OrangeListener.Error failure, Credentials credentials) {
+            CallTracker<?> call = of(failure);
+            return call != null && call.credentialsVersion != credentials.getVersion();
+        }
+
+        /**
+         * @return the tracker of a call from its error callback, null if the call is not
+         * measured
+         */
+        static CallTracker<?> of(OrangeListener.Error failure) {
+            if (failure instanceof RetryListener) {
+                failure = ((RetryListener) failure).failure;
+            }
+            return (failure instanceof CallTracker) ? (CallTracker<?>) failure : null;
+        }
+
+        @Override
+        public void onResponse(T response) {
+            report(null);
+            success.onResponse(response);
+        }
+
+        @Override
+        public void onErrorResponse(OrangeAPIException error) {
+            report(error);
+            failure.onErrorResponse(error);
+        }
+
+        private void report(OrangeAPIException error) {
+            if (metrics != null && reported.compareAndSet(false, true)) {
+                metrics.onCall(operation, SystemClock.elapsedRealtime() - start, retries.get(),
+                        refreshes.get(), error);
+            }
+        }
+    }
+
+    /**
+     * Get the HTTP headers needed to Cloud Api. The map is shared by all the requests sent
+     * with the same access token.
+     *
+     * @return a Map containing minimal headers needed to Cloud Api, not modifiable
      */
     public Map<String, String> getHeaders() {
-        HashMap<String, String> headers = new HashMap<String, String>();
-        headers.put("Authorization", "Bearer " + getSession().getAccessToken());
-        headers.put("X-OAPI-Agent", "Android-" + SDK_VERSION);
-        Log.v("Authorization: ", "Bearer " + getSession().getAccessToken());
-        Log.v("X-OAPI-Agent:", "Android-" + SDK_VERSION);
-        return headers;
+        return getCredentials().getHeaders();
+    }
+
+    /**
+     * @return the credentials of the session. Sessions other than {@link AuthSession} only
+     * give their access token: their credentials are built for each request.
+     */
+    private Credentials getCredentials() {
+        if (session instanceof AuthSession) {
+            return ((AuthSession) session).getCredentials();
+        }
+        return Credentials.of(session.getAccessToken());
+    }
+
+    /**
+     * @return true if calls have to wait for a refresh of the session before being sent
+     */
+    private boolean needsRefresh() {
+        return session instanceof AuthSession && ((AuthSession) session).needsRefresh();
     }
 
     /**
@@ -758,7 +2016,8 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         /**
          * Date format returned by Server. Use to convert creationDate
          */
-        private static SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZZZ");
+        static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZZZ";
+        private static SimpleDateFormat formatter = new SimpleDateFormat(DATE_FORMAT);
         /**
          * The unique identifier for the file or folder
          */
@@ -861,6 +2120,7 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
             downloadURL = jsonObject.optString("downloadUrl");
             previewURL = jsonObject.optString("previewUrl");
             thumbnailURL = jsonObject.optString("thumbUrl");
+            bytes = jsonObject.optLong("size");
 
             // If it is folder check if directory contains sub folders and files.
             if (this.type == Type.DIRECTORY) {
@@ -890,7 +2150,7 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
             //metadata = new Metadata(jsonObject.optJSONObject("metadata"));
         }
 
-        private static String humanReadableByteCount(long bytes, boolean si) {
+        static String humanReadableByteCount(long bytes, boolean si) {
             int unit = si ? 1000 : 1024;
             if (bytes < unit) return bytes + " B";
             int exp = (int) (Math.log(bytes) / Math.log(unit));
@@ -925,6 +2185,24 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
 
         }
 
+        /**
+         * Add extra information of another entry, typically parsed from a file info request.
+         *
+         * @param info Entry holding the extra information
+         */
+        public void setExtraInfos(Entry info) {
+            bytes = info.bytes;
+            size = info.size;
+            downloadURL = info.downloadURL;
+            previewURL = info.previewURL;
+            thumbnailURL = info.thumbnailURL;
+            creationDate = info.creationDate;
+            if (info.metadata != null) {
+                metadata = info.metadata;
+            }
+            extraInfoAvailable = true;
+        }
+
         /**
          * List of available item types
          */
@@ -939,6 +2217,11 @@ public final class OrangeCloudAPI<SESS_T extends Session> {
         public String width;
         public Date shootingDate;
 
+        /**
+         * Empty constructor
+         */
+        public Metadata() {}
+
         /**
          * Creates metadata entry from a json Object, usually received from the list folder or
          * an explicit file info on a file
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesce identical requests in flight: the first caller sends the request, the next ones
+ * only wait for its result. Results are fanned out to every waiting listener.
+ *
+ * @param <T> type of the response
+ */
+class RequestCoalescer<T> {
+
+    private final Map<String, List<Waiter<T>>> inFlight = new HashMap<String, List<Waiter<T>>>();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Build the key of a request. Requests are identical if they have the same method, url
+     * and principal. The principal identifies the user, not the access token: keys do not
+     * change when the token is refreshed.
+     *
+     * @param method    the HTTP method
+     * @param url       the url
+     * @param principal the user of the request
+     * @return the key
+     */
+    static String key(int method, String url, long principal) {
+        return method + " " + url + " " + principal;
+    }
+
+    /**
+     * Register a listener for a request.
+     *
+     * @param key     key of the request
+     * @param success callback on success
+     * @param failure callback on error
+     * @return true if the request is not in flight and has to be sent by the caller
+     */
+    synchronized boolean join(String key, Response.Listener<T> success,
+                              Response.ErrorListener failure) {
+        List<Waiter<T>> waiters = inFlight.get(key);
+        boolean first = (waiters == null);
+        if (first) {
+            waiters = new ArrayList<Waiter<T>>(1);
+            inFlight.put(key, waiters);
+        } else {
+            hits.incrementAndGet();
+        }
+        waiters.add(new Waiter<T>(success, failure));
+        return first;
+    }
+
+    /**
+     * @param key key of the request
+     * @return a listener delivering the response to all the waiters of the request
+     */
+    Response.Listener<T> successListener(final String key) {
+        return new Response.Listener<T>() {
+            @Override
+            public void onResponse(T response) {
+                for (Waiter<T> waiter : complete(key)) {
+                    waiter.success.onResponse(response);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param key key of the request
+     * @return a listener delivering the error to all the waiters of the request
+     */
+    Response.ErrorListener errorListener(final String key) {
+        return new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                for (Waiter<T> waiter : complete(key)) {
+                    waiter.failure.onErrorResponse(error);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return number of requests that joined a request in flight instead of being sent
+     */
+    long getHitCount() {
+        return hits.get();
+    }
+
+    private synchronized List<Waiter<T>> complete(String key) {
+        List<Waiter<T>> waiters = inFlight.remove(key);
+        return (waiters != null) ? waiters : new ArrayList<Waiter<T>>(0);
+    }
+
+    private static class Waiter<T> {
+        final Response.Listener<T> success;
+        final Response.ErrorListener failure;
+
+        Waiter(Response.Listener<T> success, Response.ErrorListener failure) {
+            this.success = success;
+            this.failure = failure;
+        }
+    }
+}
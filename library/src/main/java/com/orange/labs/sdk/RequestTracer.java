@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HurlStack;
+import com.orange.labs.sdk.trace.RequestEvent;
+import com.orange.labs.sdk.trace.RequestEventListener;
+
+import org.apache.http.HttpResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Sends the steps of the requests to a {@link RequestEventListener}. The Volley queue is built
+ * with a network and a response delivery that report the steps Volley does not expose: when
+ * no listener is set, they only forward the calls.
+ */
+class RequestTracer {
+
+    private static final String CACHE_DIRECTORY = "volley";
+
+    private volatile RequestEventListener listener;
+
+    void setListener(RequestEventListener listener) {
+        this.listener = listener;
+    }
+
+    boolean isEnabled() {
+        return listener != null;
+    }
+
+    /**
+     * Add a request to a queue and report it as queued. The identifier of the request is only
+     * known once added.
+     */
+    void add(RequestQueue queue, Request<?> request) {
+        long time = System.nanoTime();
+        queue.add(request);
+        emit(request, RequestEvent.QUEUED, time);
+    }
+
+    void emit(Request<?> request, RequestEvent event) {
+        emit(request, event, System.nanoTime());
+    }
+
+    private void emit(Request<?> request, RequestEvent event, long timeNanos) {
+        RequestEventListener current = listener;
+        if (current != null) {
+            Object tag = request.getTag();
+            current.onEvent(request.getSequence(), (tag != null) ? tag.toString() : request.getUrl(),
+                    event, timeNanos);
+        }
+    }
+
+    void emit(int requestId, String tag, RequestEvent event) {
+        RequestEventListener current = listener;
+        if (current != null) {
+            current.onEvent(requestId, tag, event, System.nanoTime());
+        }
+    }
+
+    /**
+     * Same as Volley.newRequestQueue(), with the steps of the requests reported to this tracer
+     * and the requests going through the circuit breakers of their host.
+     */
+    RequestQueue newRequestQueue(Context context, CircuitBreakers circuits) {
+        File cacheDir = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        RequestQueue queue = new RequestQueue(new DiskBasedCache(cacheDir),
+                new TracingNetwork(circuits.wrap(new BasicNetwork(new TracingStack()))), 4,
+                new TracingDelivery(new Handler(Looper.getMainLooper())));
+        queue.start();
+        return queue;
+    }
+
+    /**
+     * HTTP stack reporting the reception of the headers: HurlStack returns before reading the
+     * body.
+     */
+    private class TracingStack extends HurlStack {
+        @Override
+        public HttpResponse performRequest(Request<?> request, Map<String, String> headers)
+                throws IOException, AuthFailureError {
+            HttpResponse response = super.performRequest(request, headers);
+            emit(request, RequestEvent.HEADERS_RECEIVED);
+            return response;
+        }
+    }
+
+    private class TracingNetwork implements Network {
+
+        private final Network network;
+
+        TracingNetwork(Network network) {
+            this.network = network;
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            emit(request, RequestEvent.DISPATCHED);
+            try {
+                return network.performRequest(request);
+            } finally {
+                emit(request, RequestEvent.BODY_RECEIVED);
+            }
+        }
+    }
+
+    /**
+     * Delivery on the main thread reporting when a response is posted, taken by the main
+     * thread and handled by its callback.
+     */
+    private class TracingDelivery implements ResponseDelivery {
+
+        private final Handler handler;
+        // Runs the Volley delivery at once, from the runnable posted here
+        private final ResponseDelivery delivery = new ExecutorDelivery(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+
+        TracingDelivery(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response) {
+            postResponse(request, response, null);
+        }
+
+        @Override
+        public void postResponse(final Request<?> request, final Response<?> response,
+                                 final Runnable runnable) {
+            emit(request, RequestEvent.PARSED);
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    emit(request, RequestEvent.DELIVERY_STARTED);
+                    delivery.postResponse(request, response, runnable);
+                    emit(request, RequestEvent.DELIVERED);
+                }
+            });
+        }
+
+        @Override
+        public void postError(final Request<?> request, final VolleyError error) {
+            emit(request, RequestEvent.PARSED);
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    emit(request, RequestEvent.DELIVERY_STARTED);
+                    delivery.postError(request, error);
+                    emit(request, RequestEvent.DELIVERED);
+                }
+            });
+        }
+    }
+}
@@ -23,10 +23,17 @@
  */
 package com.orange.labs.sdk;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
 import android.util.DisplayMetrics;
+import android.util.JsonReader;
 import android.util.Log;
 import android.view.Display;
 import android.view.WindowManager;
@@ -34,43 +41,98 @@ import android.widget.ImageView;
 
 import com.android.volley.AuthFailureError;
 import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.RetryPolicy;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.ImageRequest;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.android.volley.toolbox.StringRequest;
-import com.android.volley.toolbox.Volley;
+import com.orange.labs.sdk.cache.MetadataStore;
+import com.orange.labs.sdk.cache.TwoTierImageCache;
 import com.orange.labs.sdk.exception.CloudAPIException;
+import com.orange.labs.sdk.metrics.MetricsListener;
+import com.orange.labs.sdk.retry.AdaptiveRetryStrategy;
+import com.orange.labs.sdk.retry.CircuitBreaker;
+import com.orange.labs.sdk.retry.CircuitOpenError;
+import com.orange.labs.sdk.retry.RetryStrategy;
+import com.orange.labs.sdk.trace.RequestEvent;
+import com.orange.labs.sdk.trace.RequestEventListener;
+import com.orange.labs.sdk.transfer.HttpStatusException;
+import com.orange.labs.sdk.transfer.HttpTransfer;
+import com.orange.labs.sdk.transfer.SegmentedDownload;
+import com.orange.labs.sdk.transfer.UploadJournal;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
 import java.util.Map;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RestUtils {
 
-    private static int TIMEOUT = 5000;
+    private static int MAX_CHUNK_RETRIES = 3;
+    private static int MAX_SEGMENT_THREADS = 8;
     private static String TAG = RestUtils.class.toString();
 
+    /**
+     * Operation reported to the metrics for the bytes of the uploads.
+     */
+    public static final String UPLOAD_OPERATION = "upload";
+
+    /**
+     * Operation reported to the metrics for the bytes of the downloads.
+     */
+    public static final String DOWNLOAD_OPERATION = "download";
+
     private RequestQueue mRequestQueue;
     private ImageLoader.ImageCache mImageCache;
     private int maxWidth;
     private int maxHeight;
     private Context mContext;
+    private UploadJournal mUploadJournal;
+    private ExecutorService mSegmentExecutor;
+    private ExecutorService mDiskExecutor;
+    private final ImageDecodePool mDecodePool = new ImageDecodePool();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final RequestCoalescer<JSONObject> mJsonCoalescer = new RequestCoalescer<JSONObject>();
+    private final RequestCoalescer<Bitmap> mImageCoalescer = new RequestCoalescer<Bitmap>();
+    private final RequestCoalescer<Object> mParsedCoalescer = new RequestCoalescer<Object>();
+    private final ValidatorCache mValidatorCache = new ValidatorCache();
+    // Identifies the user in the keys of the requests, changed when the session is unlinked
+    private final AtomicLong mPrincipal = new AtomicLong();
+    private volatile MetadataStore mMetadataStore;
+    private volatile MetricsListener mMetrics;
+    private final RequestTracer mTracer = new RequestTracer();
+    private volatile RetryStrategy mRetryStrategy = new AdaptiveRetryStrategy();
+    private final CircuitBreakers mCircuits = new CircuitBreakers();
 
     public RestUtils(Context context) {
         // Create Volley Request Queue thanks to context
-        mRequestQueue = Volley.newRequestQueue(context);
+        mRequestQueue = mTracer.newRequestQueue(context, mCircuits);
         mContext = context;
 
         // Fix maxWidth & maxHeight of screen
@@ -86,6 +148,199 @@ public class RestUtils {
         mImageCache = cache;
     }
 
+    /**
+     * @param store persistent store of the metadata, cleared with the principal, null for none
+     */
+    public void setMetadataStore(MetadataStore store) {
+        mMetadataStore = store;
+    }
+
+    /**
+     * @param metrics listener of the traffic and cache lookups of the requests, null for none
+     */
+    public void setMetrics(MetricsListener metrics) {
+        mMetrics = metrics;
+        mCircuits.setMetrics(metrics);
+    }
+
+    /**
+     * @param host a host called by the SDK
+     * @return the circuit breaker of the host, to tune its thresholds
+     */
+    public CircuitBreaker getCircuitBreaker(String host) {
+        return mCircuits.get(host);
+    }
+
+    /**
+     * @param enabled false to send the requests whatever the health of their host
+     */
+    public void setCircuitBreakersEnabled(boolean enabled) {
+        mCircuits.setEnabled(enabled);
+    }
+
+    /**
+     * Add a request to the queue, or reject it at once if the circuit of its host is open.
+     */
+    private void send(final Request<?> request) {
+        final CircuitBreaker breaker = mCircuits.forUrl(request.getUrl());
+        if (breaker != null && breaker.isOpen()) {
+            Log.v(TAG, "Circuit open, request rejected: " + request.getUrl());
+            // Delivered later, as any response
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    request.deliverError(new CircuitOpenError(breaker.getName()));
+                }
+            });
+            return;
+        }
+        mTracer.add(mRequestQueue, request);
+    }
+
+    /**
+     * @param listener listener of the steps of the requests, null for none
+     */
+    public void setRequestEventListener(RequestEventListener listener) {
+        mTracer.setListener(listener);
+    }
+
+    /**
+     * @param strategy strategy giving the timeouts of the requests, not null
+     */
+    public void setRetryStrategy(RetryStrategy strategy) {
+        mRetryStrategy = strategy;
+    }
+
+    /**
+     * @return the strategy giving the timeouts and the retries of the calls
+     */
+    public RetryStrategy getRetryStrategy() {
+        return mRetryStrategy;
+    }
+
+    /**
+     * Volley sends a request once: failed calls are retried by the SDK, after a backoff and
+     * within their deadline, which Volley retries cannot do.
+     *
+     * @param operation     operation of the request
+     * @param expectedBytes expected size of the response, 0 if unknown
+     * @return the retry policy of a request
+     */
+    private RetryPolicy retryPolicy(String operation, long expectedBytes) {
+        return new DefaultRetryPolicy(mRetryStrategy.getTimeout(operation, expectedBytes),
+                0, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT);
+    }
+
+    /**
+     * @return the operation of a request given without one: the first segment of its tag
+     * after "Cloud" ("Cloud/fileInfo/..." gives "fileInfo")
+     */
+    static String operationOf(String tag) {
+        int start = tag.startsWith("Cloud/") ? "Cloud/".length() : (tag.startsWith("/") ? 1 : 0);
+        int end = tag.indexOf('/', start);
+        return (end == -1) ? tag.substring(start) : tag.substring(start, end);
+    }
+
+    private void reportTraffic(String operation, long bytesIn, long bytesOut) {
+        MetricsListener metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onTraffic(operation, bytesIn, bytesOut);
+        }
+    }
+
+    private void reportCacheLookup(String operation, boolean hit) {
+        MetricsListener metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onCacheLookup(operation, hit);
+        }
+    }
+
+    /**
+     * @return size of the body of a request, 0 if unknown
+     */
+    private static long bodyLength(Request<?> request) {
+        try {
+            byte[] body = request.getBody();
+            return (body != null) ? body.length : 0;
+        } catch (AuthFailureError e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the length of a response body, a 304 response having none
+     */
+    private static long responseLength(NetworkResponse response) {
+        return (response.data != null) ? response.data.length : 0;
+    }
+
+    /**
+     * @return size in bytes of a response body read by {@link HttpTransfer#readBody}
+     */
+    private static long byteLength(String body) throws UnsupportedEncodingException {
+        return body.getBytes("UTF-8").length;
+    }
+
+    /**
+     * @return number of GET requests served by an identical request already in flight,
+     * without a new network call
+     */
+    public long getCoalescedRequestCount() {
+        return mJsonCoalescer.getHitCount() + mImageCoalescer.getHitCount()
+                + mParsedCoalescer.getHitCount();
+    }
+
+    /**
+     * @return the pool decoding the images, with its queue wait and decode time metrics
+     */
+    public ImageDecodePool getDecodePool() {
+        return mDecodePool;
+    }
+
+    /**
+     * @return number of responses revalidated by a 304 Not Modified and served from memory
+     */
+    public long getNotModifiedCount() {
+        return mValidatorCache.getNotModifiedCount();
+    }
+
+    /**
+     * Forget the responses kept for revalidation, for example when the user changes.
+     */
+    public void clearValidatorCache() {
+        mValidatorCache.clear();
+    }
+
+    /**
+     * Start a new principal, when the user of the session changes. Requests of the next user
+     * are never coalesced with, nor revalidated against, the responses of the previous one.
+     * The stored metadata and images of the previous user are removed in background.
+     */
+    public void resetPrincipal() {
+        mPrincipal.incrementAndGet();
+        mValidatorCache.clear();
+        MetadataStore store = mMetadataStore;
+        if (store != null) {
+            store.deleteAll();
+        }
+        if (mImageCache instanceof TwoTierImageCache) {
+            final TwoTierImageCache cache = (TwoTierImageCache) mImageCache;
+            getDiskExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    cache.clear();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the current principal, to drop the responses received for a previous user
+     */
+    long getPrincipal() {
+        return mPrincipal.get();
+    }
+
     public void jsonRequest(final String tag,
                             final int method,
                             final String url,
@@ -93,30 +348,241 @@ public class RestUtils {
                             final Map<String, String> headers,
                             final Response.Listener<JSONObject> success,
                             final OrangeListener.Error failure) {
+        jsonRequest(tag, operationOf(tag), method, url, params, headers, success, failure);
+    }
+
+    /**
+     * Send a JSON request measured as the given operation, whatever its tag.
+     *
+     * @param tag       tag of the request, to cancel it
+     * @param operation operation of the request in the metrics and the retry strategy
+     * @param method    the HTTP method
+     * @param url       the url
+     * @param params    the JSON body, can be null
+     * @param headers   the HTTP headers to add
+     * @param success   callback returning the response
+     * @param failure   callback when error occurred
+     */
+    public void jsonRequest(final String tag,
+                            final String operation,
+                            final int method,
+                            final String url,
+                            final JSONObject params,
+                            final Map<String, String> headers,
+                            final Response.Listener<JSONObject> success,
+                            final OrangeListener.Error failure) {
+        Response.Listener<JSONObject> listener = success;
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                failure.onErrorResponse(new CloudAPIException(error));
+            }
+        };
+        if (method == Request.Method.GET) {
+            // Identical GET in flight: wait for its response instead of sending a new one
+            String key = RequestCoalescer.key(method, url, mPrincipal.get());
+            if (!mJsonCoalescer.join(key, listener, errorListener)) {
+                Log.v(TAG, "jsonRequest coalesced: " + url);
+                return;
+            }
+            listener = mJsonCoalescer.successListener(key);
+            errorListener = mJsonCoalescer.errorListener(key);
+        }
         Log.v(TAG, "jsonRequest: " + url);
-        JsonObjectRequest jsonObjReq = new JsonObjectRequest(method, url, params, success,
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError error) {
-                        failure.onErrorResponse(new CloudAPIException(error));
-                    }
-                }) {
+        JsonObjectRequest jsonObjReq = new JsonObjectRequest(method, url, params, listener,
+                errorListener) {
 
             @Override
             public Map<String, String> getHeaders() throws AuthFailureError {
                 return headers;
             }
+
+            @Override
+            protected Response<JSONObject> parseNetworkResponse(NetworkResponse response) {
+                if (mMetrics != null) {
+                    reportTraffic(operation, responseLength(response), bodyLength(this));
+                }
+                return super.parseNetworkResponse(response);
+            }
         };
-        jsonObjReq.setRetryPolicy(new DefaultRetryPolicy(
-                TIMEOUT,
-                DefaultRetryPolicy.DEFAULT_MAX_RETRIES,
-                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        jsonObjReq.setRetryPolicy(retryPolicy(operation, 0));
 
         jsonObjReq.setTag(tag);
-        mRequestQueue.add(jsonObjReq);
+        send(jsonObjReq);
     }
 
 
+    /**
+     * GET a JSON response parsed on the network thread. The response is revalidated with its
+     * ETag / Last-Modified validators: when the server answers 304 Not Modified, the parsed
+     * response of the previous call is returned again, without any download or parsing.
+     *
+     * @param tag     tag of the request
+     * @param url     the url
+     * @param headers the HTTP headers to add
+     * @param parser  parser of the response
+     * @param success callback returning the parsed response, possibly the cached instance
+     * @param failure callback when error occurred
+     * @param <T>     type of the parsed response
+     */
+    public <T> void jsonRequest(final String tag,
+                                final String url,
+                                final Map<String, String> headers,
+                                final ResponseParser<T> parser,
+                                final Response.Listener<T> success,
+                                final OrangeListener.Error failure) {
+        jsonRequest(tag, url, headers, parser, true, success, failure);
+    }
+
+    /**
+     * GET a JSON response parsed on the network thread.
+     *
+     * @param tag        tag of the request
+     * @param url        the url
+     * @param headers    the HTTP headers to add
+     * @param parser     parser of the response
+     * @param revalidate true to keep the response for a revalidation with its validators,
+     *                   false for responses that must not stay in memory
+     * @param success    callback returning the parsed response
+     * @param failure    callback when error occurred
+     * @param <T>        type of the parsed response
+     */
+    public <T> void jsonRequest(final String tag,
+                                final String url,
+                                final Map<String, String> headers,
+                                final ResponseParser<T> parser,
+                                final boolean revalidate,
+                                final Response.Listener<T> success,
+                                final OrangeListener.Error failure) {
+        jsonRequest(tag, operationOf(tag), url, headers, parser, revalidate, success, failure);
+    }
+
+    /**
+     * GET a JSON response parsed on the network thread, measured as the given operation
+     * whatever its tag.
+     *
+     * @param tag        tag of the request, to cancel it
+     * @param operation  operation of the request in the metrics and the retry strategy
+     * @param url        the url
+     * @param headers    the HTTP headers to add
+     * @param parser     parser of the response
+     * @param revalidate true to keep the response for a revalidation with its validators,
+     *                   false for responses that must not stay in memory
+     * @param success    callback returning the parsed response
+     * @param failure    callback when error occurred
+     * @param <T>        type of the parsed response
+     */
+    public <T> void jsonRequest(final String tag,
+                                final String operation,
+                                final String url,
+                                final Map<String, String> headers,
+                                final ResponseParser<T> parser,
+                                final boolean revalidate,
+                                final Response.Listener<T> success,
+                                final OrangeListener.Error failure) {
+        String key = RequestCoalescer.key(Request.Method.GET, url, mPrincipal.get());
+        // Parser is part of the key: coalesced requests then always share the same type
+        final String flightKey = key + " " + parser.getClass().getName();
+        boolean first = mParsedCoalescer.join(flightKey,
+                new Response.Listener<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public void onResponse(Object response) {
+                        success.onResponse((T) response);
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        failure.onErrorResponse(new CloudAPIException(error));
+                    }
+                });
+        if (!first) {
+            Log.v(TAG, "jsonRequest coalesced: " + url);
+            return;
+        }
+        if (revalidate && mCircuits.isOpen(url)) {
+            final ValidatorCache.Validated validated = mValidatorCache.get(key);
+            if (validated != null) {
+                // Server failing: the last response is better than an error
+                Log.v(TAG, "Circuit open, last response served: " + url);
+                reportCacheLookup(operation, true);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mParsedCoalescer.successListener(flightKey).onResponse(validated.value);
+                    }
+                });
+                return;
+            }
+        }
+        Log.v(TAG, "jsonRequest: " + url);
+        ValidatedJsonRequest<Object> request = new ValidatedJsonRequest<Object>(url, key, headers,
+                parser, revalidate ? mValidatorCache : null,
+                mParsedCoalescer.successListener(flightKey),
+                mParsedCoalescer.errorListener(flightKey)) {
+            @Override
+            protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+                if (mMetrics != null) {
+                    reportTraffic(operation, responseLength(response), 0);
+                    if (revalidate) {
+                        reportCacheLookup(operation, response.statusCode == 304);
+                    }
+                }
+                return super.parseNetworkResponse(response);
+            }
+        };
+        request.setRetryPolicy(retryPolicy(operation, 0));
+        request.setTag(tag);
+        send(request);
+    }
+
+    /**
+     * GET a JSON response parsed on the network thread, revalidated against the given
+     * validators rather than the ones kept in memory. Such requests are not coalesced and
+     * not served from the validators when the circuit is open.
+     *
+     * @param tag        tag of the request, to cancel it
+     * @param operation  operation of the request in the metrics and the retry strategy
+     * @param url        the url, also the key of its validators
+     * @param headers    the HTTP headers to add
+     * @param parser     parser of the response
+     * @param validators validators of the previous responses, updated with this one
+     * @param success    callback returning the parsed response
+     * @param failure    callback when error occurred
+     * @param <T>        type of the parsed response
+     */
+    <T> void jsonRequest(final String tag,
+                         final String operation,
+                         final String url,
+                         final Map<String, String> headers,
+                         final ResponseParser<T> parser,
+                         final ValidatorCache validators,
+                         final Response.Listener<T> success,
+                         final OrangeListener.Error failure) {
+        Log.v(TAG, "jsonRequest: " + url);
+        ValidatedJsonRequest<T> request = new ValidatedJsonRequest<T>(url, url, headers,
+                parser, validators, success,
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        failure.onErrorResponse(new CloudAPIException(error));
+                    }
+                }) {
+            @Override
+            protected Response<T> parseNetworkResponse(NetworkResponse response) {
+                if (mMetrics != null) {
+                    reportTraffic(operation, responseLength(response), 0);
+                    reportCacheLookup(operation, response.statusCode == 304);
+                }
+                return super.parseNetworkResponse(response);
+            }
+        };
+        request.setRetryPolicy(retryPolicy(operation, 0));
+        request.setTag(tag);
+        send(request);
+    }
+
     public void stringRequest(final String tag,
                               final int method,
                               final String url,
@@ -141,144 +607,836 @@ public class RestUtils {
             public Map<String, String> getHeaders() throws AuthFailureError {
                 return headers;
             }
+
+            @Override
+            protected Response<String> parseNetworkResponse(NetworkResponse response) {
+                if (mMetrics != null) {
+                    reportTraffic(operationOf(tag), responseLength(response), bodyLength(this));
+                }
+                return super.parseNetworkResponse(response);
+            }
         };
-        stringReq.setRetryPolicy(new DefaultRetryPolicy(
-                TIMEOUT,
-                DefaultRetryPolicy.DEFAULT_MAX_RETRIES,
-                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        stringReq.setRetryPolicy(retryPolicy(operationOf(tag), 0));
         stringReq.setTag(tag);
-        mRequestQueue.add(stringReq);
+        send(stringReq);
+    }
+
+    public void imageRequest(final String tag,
+                             final String url,
+                             final Map<String, String> headers,
+                             final OrangeListener.Success<Bitmap> success,
+                             final OrangeListener.Error failure,
+                             final boolean useCache) {
+        imageRequest(tag, url, headers, maxWidth, maxHeight, null, success, failure, useCache);
+    }
+
+    /**
+     * Get an image decoded for the size it is displayed. The image is down sampled as much as
+     * possible while its longest side stays larger than the target. Bitmaps are cached by size
+     * bucket: a cached bitmap of a larger bucket is used for smaller targets.
+     *
+     * @param tag      tag of the request, also key of the image in the cache
+     * @param url      the url
+     * @param headers  the HTTP headers to add
+     * @param width    target width in pixels, 0 for the screen width
+     * @param height   target height in pixels, 0 for the screen height
+     * @param config   the bitmap config, null for ARGB_8888
+     * @param success  callback returning the bitmap
+     * @param failure  callback when error occurred
+     * @param useCache true to look for the image in the image cache and store it
+     */
+    public void imageRequest(final String tag,
+                             final String url,
+                             final Map<String, String> headers,
+                             final int width,
+                             final int height,
+                             final Bitmap.Config config,
+                             final OrangeListener.Success<Bitmap> success,
+                             final OrangeListener.Error failure,
+                             final boolean useCache) {
+        imageRequest(tag, url, headers, width, height, config, 0, success, failure, useCache);
     }
 
+    /**
+     * Same as {@link #imageRequest(String, String, Map, int, int, Bitmap.Config,
+     * OrangeListener.Success, OrangeListener.Error, boolean)} for an image of a known size:
+     * the timeout of the request grows with it.
+     *
+     * @param expectedBytes size of the encoded image, 0 if unknown
+     */
     public void imageRequest(final String tag,
                              final String url,
                              final Map<String, String> headers,
+                             final int width,
+                             final int height,
+                             final Bitmap.Config config,
+                             final long expectedBytes,
                              final OrangeListener.Success<Bitmap> success,
                              final OrangeListener.Error failure,
                              final boolean useCache) {
 
+        final Bitmap.Config decodeConfig = (config != null) ? config : Bitmap.Config.ARGB_8888;
+        final int screenSize = Math.max(maxWidth, maxHeight);
+        final int size = Math.min(Math.max((width > 0) ? width : maxWidth,
+                (height > 0) ? height : maxHeight), screenSize);
+        final int maxBucket = ImageDecoder.bucket(screenSize);
+        final int bucket = ImageDecoder.bucket(size);
 
         if (useCache && mImageCache != null) {
-            Bitmap image = mImageCache.getBitmap(tag);
-            if (image != null) {
-                success.onResponse(image);
-                return;
+            // Any bitmap of the same or a larger bucket fits
+            for (int b = bucket; b <= maxBucket; b *= 2) {
+                Bitmap image = mImageCache.getBitmap(bitmapKey(tag, b, decodeConfig));
+                if (image != null) {
+                    reportCacheLookup(operationOf(tag), true);
+                    success.onResponse(image);
+                    return;
+                }
             }
+            reportCacheLookup(operationOf(tag), false);
         }
-        Log.v(TAG, "imageRequest: " + url);
-        ImageRequest request = new ImageRequest(url,
+        String key = RequestCoalescer.key(Request.Method.GET, url, mPrincipal.get())
+                + " " + bucket + " " + decodeConfig;
+        boolean first = mImageCoalescer.join(key,
                 new Response.Listener<Bitmap>() {
                     @Override
                     public void onResponse(Bitmap bitmap) {
                         if (useCache && mImageCache != null) {
-                            mImageCache.putBitmap(tag, bitmap);
+                            // A bitmap smaller than its target is the full image: it fits all
+                            boolean full = Math.max(bitmap.getWidth(), bitmap.getHeight()) < size;
+                            mImageCache.putBitmap(bitmapKey(tag, full ? maxBucket : bucket,
+                                    decodeConfig), bitmap);
                         }
                         success.onResponse(bitmap);
                     }
-                }, maxWidth, maxHeight, null,
+                },
                 new Response.ErrorListener() {
                     public void onErrorResponse(VolleyError error) {
                         failure.onErrorResponse(new CloudAPIException(error));
                     }
-                }) {
+                });
+        if (!first) {
+            // Same image already in flight: its response is shared
+            Log.v(TAG, "imageRequest coalesced: " + url);
+            return;
+        }
+
+        TwoTierImageCache cache = (useCache && mImageCache instanceof TwoTierImageCache)
+                ? (TwoTierImageCache) mImageCache
+                : null;
+        if (cache != null) {
+            // Look for the encoded image on disk before the network
+            loadFromDisk(tag, url, headers, expectedBytes, key, size, decodeConfig, cache);
+        } else {
+            sendImageRequest(tag, url, headers, expectedBytes, key, size, decodeConfig, null);
+        }
+    }
+
+    /**
+     * @return key of a decoded bitmap in the memory cache
+     */
+    private static String bitmapKey(String tag, int bucket, Bitmap.Config config) {
+        return tag + "@" + bucket + "/" + config;
+    }
+
+    private void loadFromDisk(final String tag,
+                              final String url,
+                              final Map<String, String> headers,
+                              final long expectedBytes,
+                              final String key,
+                              final int size,
+                              final Bitmap.Config config,
+                              final TwoTierImageCache cache) {
+        getDiskExecutor().execute(new Runnable() {
             @Override
-            public Map<String, String> getHeaders() throws AuthFailureError {
-                return headers;
+            public void run() {
+                final byte[] data = cache.getEncoded(tag);
+                reportCacheLookup(operationOf(tag), data != null);
+                if (data != null) {
+                    mDecodePool.decode(data, size, config, cache.getBitmapPool(),
+                            mImageCoalescer.successListener(key),
+                            new Response.ErrorListener() {
+                                @Override
+                                public void onErrorResponse(VolleyError error) {
+                                    // Corrupted entry: drop it and fetch the image again
+                                    Log.w(TAG, "Unable to decode cached image " + tag);
+                                    getDiskExecutor().execute(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            cache.removeEncoded(tag);
+                                        }
+                                    });
+                                    sendImageRequest(tag, url, headers, expectedBytes, key, size,
+                                            config, cache);
+                                }
+                            });
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendImageRequest(tag, url, headers, expectedBytes, key, size, config,
+                                cache);
+                    }
+                });
             }
-        };
+        });
+    }
+
+    private void sendImageRequest(final String tag,
+                                  final String url,
+                                  final Map<String, String> headers,
+                                  final long expectedBytes,
+                                  final String key,
+                                  final int size,
+                                  final Bitmap.Config config,
+                                  final TwoTierImageCache cache) {
+        Log.v(TAG, "imageRequest: " + url);
+        ImageBytesRequest request = new ImageBytesRequest(url, headers,
+                new Response.Listener<byte[]>() {
+                    @Override
+                    public void onResponse(final byte[] data) {
+                        reportTraffic(operationOf(tag), data.length, 0);
+                        final Response.Listener<Bitmap> success =
+                                mImageCoalescer.successListener(key);
+                        mDecodePool.decode(data, size, config,
+                                (cache != null) ? cache.getBitmapPool() : null,
+                                new Response.Listener<Bitmap>() {
+                                    @Override
+                                    public void onResponse(Bitmap bitmap) {
+                                        if (cache != null) {
+                                            // Keep the encoded image for the next process, once
+                                            // known to be decodable
+                                            getDiskExecutor().execute(new Runnable() {
+                                                @Override
+                                                public void run() {
+                                                    cache.putEncoded(tag, data);
+                                                }
+                                            });
+                                        }
+                                        success.onResponse(bitmap);
+                                    }
+                                }, mImageCoalescer.errorListener(key));
+                    }
+                }, mImageCoalescer.errorListener(key));
         // Adding request to request queue
-        request.setRetryPolicy(new DefaultRetryPolicy(
-                TIMEOUT,
-                DefaultRetryPolicy.DEFAULT_MAX_RETRIES,
-                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        request.setRetryPolicy(retryPolicy(operationOf(tag), expectedBytes));
         request.setTag(tag);
-        mRequestQueue.add(request);
+        send(request);
     }
 
+    /**
+     * Upload the content of an uri. Content is streamed to the server: it is never fully
+     * loaded in memory, whatever its size. This method is synchronous and has to be called
+     * from a background thread.
+     *
+     * @param url      the upload url
+     * @param fileUri  uri of the content, any uri that the ContentResolver can open
+     * @param headers  the HTTP headers to add
+     * @param success  callback returning the server response
+     * @param progress callback to notify upload progress
+     * @param failure  callback when error occurred
+     */
     public void uploadRequest(final URL url,
                               final Uri fileUri,
                               final Map<String, String> headers,
                               final Response.Listener<JSONObject> success,
                               final OrangeListener.Progress progress,
                               final OrangeListener.Error failure) {
+        CircuitBreaker breaker = mCircuits.forTransfer(url, failure);
+        if (breaker != null) {
+            // Takes a trial request once the circuit is half open, as the requests of the queue
+            if (!breaker.allowRequest()) {
+                failure.onErrorResponse(CircuitBreakers.rejected(breaker));
+            } else {
+                uploadRequest(url, fileUri, headers,
+                        CircuitBreakers.recordSuccess(breaker, success), progress,
+                        CircuitBreakers.recordFailure(breaker, failure));
+            }
+            return;
+        }
+        Log.v(TAG, "uploadRequest: " + url);
+        // Transfers do not go through the queue, they only share its identifiers
+        int traceId = mRequestQueue.getSequenceNumber();
+        String traceTag = "Cloud/" + UPLOAD_OPERATION + "/" + fileUri.getLastPathSegment();
+        mTracer.emit(traceId, traceTag, RequestEvent.DISPATCHED);
 
-
+        UploadSource source = null;
+        HttpURLConnection conn = null;
         try {
-            Log.v(TAG, "uploadRequest: " + url);
-            FileInputStream fileInputStream = (FileInputStream) mContext.getContentResolver().openInputStream(fileUri);
+            source = openSource(fileUri);
+            long length = source.length;
 
-            // Open a HTTP connection to the URL
-            HttpURLConnection conn = (HttpsURLConnection) url.openConnection();
-            conn.setDoInput(true);
-            conn.setDoOutput(true);
-            conn.setUseCaches(false);
-            conn.setRequestMethod("POST");
-
-            //
-            // Define headers
-            //
+            // Socket timeouts measure inactivity: they do not grow with the size of the body
+            conn = HttpTransfer.openUpload(url, "POST", headers, length,
+                    mRetryStrategy.getTimeout(UPLOAD_OPERATION, 0));
             conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            for (String key : headers.keySet()) {
-                conn.setRequestProperty(key.toString(), headers.get(key));
-            }
 
             //
             // Write body part
             //
-            DataOutputStream dos = new DataOutputStream(conn.getOutputStream());
-
-            int bytesAvailable = fileInputStream.available();
-            int progressValue = 0;
-            int bytesRead = 0;
-            byte buf[] = new byte[1024];
-            BufferedInputStream bufInput = new BufferedInputStream(fileInputStream);
-            while ((bytesRead = bufInput.read(buf)) != -1) {
-                // write output
-                dos.write(buf, 0, bytesRead);
-                dos.flush();
-                progressValue += bytesRead;
-                // update progress bar
-                progress.onProgress((float) progressValue / bytesAvailable);
+            OutputStream out = conn.getOutputStream();
+            long written;
+            try {
+                written = HttpTransfer.copy(source.in, out, length, progress);
+            } finally {
+                out.close();
             }
 
             //
             // Responses from the server (code and message)
             //
             int serverResponseCode = conn.getResponseCode();
-            // close streams
-            fileInputStream.close();
-            dos.flush();
-            dos.close();
-
+            mTracer.emit(traceId, traceTag, RequestEvent.HEADERS_RECEIVED);
+            String response = HttpTransfer.readBody(conn, serverResponseCode);
+            mTracer.emit(traceId, traceTag, RequestEvent.BODY_RECEIVED);
+            reportTraffic(UPLOAD_OPERATION, byteLength(response), written);
             if (serverResponseCode == 200 || serverResponseCode == 201) {
-                BufferedReader rd = new BufferedReader(new InputStreamReader(
-                        conn.getInputStream()));
-
-                String response = "";
-                String line;
-                while ((line = rd.readLine()) != null) {
-                    Log.i("FileUpload", "Response: " + line);
-                    response += line;
+                success.onResponse(new JSONObject(response));
+            } else {
+                failure.onErrorResponse(new CloudAPIException(serverResponseCode,
+                        parseError(response)));
+            }
+        } catch (IOException e) {
+            failure.onErrorResponse(new CloudAPIException(new NetworkError(e)));
+        } catch (JSONException e) {
+            failure.onErrorResponse(new CloudAPIException(new ParseError(e)));
+        } finally {
+            if (source != null) {
+                source.close();
+            }
+            if (conn != null) {
+                conn.disconnect();
+            }
+            mTracer.emit(traceId, traceTag, RequestEvent.DELIVERED);
+        }
+    }
+
+    /**
+     * Upload the content of an uri by chunks. Each chunk is sent with a Content-Range header
+     * and the offset acknowledged by the server is recorded in a journal: calling again this
+     * method with the same uri and url, after a network error, a session refresh or a process
+     * restart, resumes the upload from the last acknowledged chunk.
+     * <p>
+     * The chunk protocol is not part of the documented Cloud API: it is assumed to follow the
+     * usual resumable upload scheme. A server accepting a chunk answers 308 (or 2xx) with an
+     * optional "Range: bytes=0-&lt;last byte kept&gt;" header, the first answer may give an
+     * "uploadId" sent back as a query parameter with the next chunks, and the last chunk is
+     * answered like a plain upload, with any 2xx. A server acknowledging the whole content
+     * with a 308 fails the upload. A server answering 2xx to a chunk that is not the
+     * last, without Range header nor uploadId, ignores Content-Range: the upload fails, its
+     * journal record is dropped and no other chunk is sent.
+     * This method is synchronous and has to be called from a background thread.
+     *
+     * @param url       the upload url
+     * @param fileUri   uri of the content, any uri that the ContentResolver can open
+     * @param chunkSize the size of the chunks
+     * @param headers   the HTTP headers to add
+     * @param success   callback returning the server response of the last chunk
+     * @param progress  callback to notify upload progress of the whole content
+     * @param failure   callback when error occurred
+     */
+    public void resumableUploadRequest(final URL url,
+                                       final Uri fileUri,
+                                       final int chunkSize,
+                                       final Map<String, String> headers,
+                                       final Response.Listener<JSONObject> success,
+                                       final OrangeListener.Progress progress,
+                                       final OrangeListener.Error failure) {
+        CircuitBreaker breaker = mCircuits.forTransfer(url, failure);
+        if (breaker != null) {
+            if (!breaker.allowRequest()) {
+                failure.onErrorResponse(CircuitBreakers.rejected(breaker));
+            } else {
+                resumableUploadRequest(url, fileUri, chunkSize, headers,
+                        CircuitBreakers.recordSuccess(breaker, success), progress,
+                        CircuitBreakers.recordFailure(breaker, failure));
+            }
+            return;
+        }
+        Log.v(TAG, "resumableUploadRequest: " + url);
+
+        UploadSource source = null;
+        try {
+            source = openSource(fileUri);
+            long length = source.length;
+            if (length <= 0) {
+                // Ranges can not be computed, send the content at once
+                source.close();
+                source = null;
+                uploadRequest(url, fileUri, headers, success, progress, failure);
+                return;
+            }
+
+            UploadJournal journal = getUploadJournal();
+            UploadJournal.Record record = journal.open(fileUri.toString(), url.toString(),
+                    length, chunkSize);
+            HttpTransfer.skipFully(source.in, record.offset);
+
+            int networkFailures = 0;
+            while (true) {
+                long offset = record.offset;
+                long count = record.nextChunkLength();
+                if (count == 0) {
+                    // Never send an empty chunk: its range would be invalid
+                    journal.remove(record);
+                    failure.onErrorResponse(notCompleted(url));
+                    return;
+                }
+                URL chunkUrl = (record.uploadId == null)
+                        ? url
+                        : new URL(url + "&uploadId=" + URLEncoder.encode(record.uploadId, "UTF-8"));
+
+                int statusCode;
+                String response;
+                String range;
+                HttpURLConnection conn = null;
+                try {
+                    conn = HttpTransfer.openUpload(chunkUrl, "POST", headers, count,
+                            mRetryStrategy.getTimeout(UPLOAD_OPERATION, 0));
+                    conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                    conn.setRequestProperty("Content-Range", record.contentRange(count));
+                    OutputStream out = conn.getOutputStream();
+                    long written;
+                    try {
+                        written = HttpTransfer.copy(source.in, out, count, offset, length,
+                                progress);
+                    } finally {
+                        out.close();
+                    }
+                    statusCode = conn.getResponseCode();
+                    response = HttpTransfer.readBody(conn, statusCode);
+                    range = conn.getHeaderField("Range");
+                    reportTraffic(UPLOAD_OPERATION, byteLength(response), written);
+                } catch (IOException e) {
+                    boolean interrupted = e instanceof InterruptedIOException
+                            && !(e instanceof SocketTimeoutException);
+                    // Until the server has shown chunk support, a chunk sent again may be
+                    // stored twice
+                    boolean chunked = record.uploadId != null || record.offset > 0;
+                    if (interrupted || !chunked || ++networkFailures > MAX_CHUNK_RETRIES) {
+                        throw e;
+                    }
+                    Log.w(TAG, "Chunk at " + offset + " failed, retrying", e);
+                    // Position in the source is unknown: reopen it at the committed offset
+                    source.close();
+                    source = openSource(fileUri);
+                    HttpTransfer.skipFully(source.in, record.offset);
+                    continue;
+                } finally {
+                    if (conn != null) {
+                        conn.disconnect();
+                    }
+                }
+
+                boolean lastChunk = offset + count == length;
+                if (statusCode >= 200 && statusCode < 300 && lastChunk) {
+                    journal.remove(record);
+                    success.onResponse((response.length() > 0)
+                            ? new JSONObject(response) : new JSONObject());
+                    return;
+                } else if (statusCode == 308 || (statusCode >= 200 && statusCode < 300)) {
+                    // Chunk committed, the server may have kept only a part of it
+                    String uploadId = null;
+                    if (response.length() > 0) {
+                        uploadId = new JSONObject(response).optString("uploadId", null);
+                    }
+                    if (!lastChunk && statusCode != 308 && range == null && uploadId == null
+                            && record.uploadId == null) {
+                        // Content-Range ignored: the chunk was stored as a whole file
+                        journal.remove(record);
+                        failure.onErrorResponse(new CloudAPIException(new VolleyError(
+                                "Chunked uploads are not supported by " + url.getHost())));
+                        return;
+                    }
+                    if (uploadId != null) {
+                        record.uploadId = uploadId;
+                    }
+                    long acknowledged = record.acknowledged(range, offset + count);
+                    if (acknowledged == length) {
+                        // Whole content kept but the upload is still not completed
+                        journal.remove(record);
+                        failure.onErrorResponse(notCompleted(url));
+                        return;
+                    }
+                    record.offset = acknowledged;
+                    journal.save(record);
+                    networkFailures = 0;
+                    if (acknowledged != offset + count) {
+                        source.close();
+                        source = openSource(fileUri);
+                        HttpTransfer.skipFully(source.in, acknowledged);
+                    }
+                } else {
+                    if (statusCode == 404 || statusCode == 410) {
+                        // Upload is unknown by the server, next attempt restarts from scratch
+                        journal.remove(record);
+                    }
+                    failure.onErrorResponse(new CloudAPIException(statusCode,
+                            parseError(response)));
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            failure.onErrorResponse(new CloudAPIException(new NetworkError(e)));
+        } catch (JSONException e) {
+            failure.onErrorResponse(new CloudAPIException(new ParseError(e)));
+        } finally {
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Download a content in an output stream. Content is streamed through a small buffer: the
+     * memory used does not depend on the size of the content. This method is synchronous and
+     * has to be called from a background thread. Output stream is not closed.
+     *
+     * @param url      the download url
+     * @param headers  the HTTP headers to add
+     * @param output   the stream where the content is written
+     * @param length   the expected length if already known, else
+     *                 {@link HttpTransfer#UNKNOWN_LENGTH}
+     * @param success  callback returning the number of bytes written
+     * @param progress callback to notify download progress
+     * @param failure  callback when error occurred
+     */
+    public void downloadRequest(final URL url,
+                                final Map<String, String> headers,
+                                final OutputStream output,
+                                final long length,
+                                final Response.Listener<Long> success,
+                                final OrangeListener.Progress progress,
+                                final OrangeListener.Error failure) {
+        downloadRequest(url, headers, output, 0, length, success, progress, failure);
+    }
+
+    /**
+     * Download a content from a position, to resume a download interrupted after
+     * <code>offset</code> bytes were written in the output. The range is asked to the
+     * server; if it sends the whole content instead, the first bytes are skipped.
+     * This method is synchronous and has to be called from a background thread.
+     *
+     * @param url      the download url
+     * @param headers  the HTTP headers to add
+     * @param output   the stream where the content is written
+     * @param offset   number of bytes already written in the output
+     * @param length   the expected length if already known, else
+     *                 {@link HttpTransfer#UNKNOWN_LENGTH}
+     * @param success  callback returning the total number of bytes written
+     * @param progress callback to notify download progress
+     * @param failure  callback when error occurred
+     */
+    public void downloadRequest(final URL url,
+                                final Map<String, String> headers,
+                                final OutputStream output,
+                                final long offset,
+                                final long length,
+                                final Response.Listener<Long> success,
+                                final OrangeListener.Progress progress,
+                                final OrangeListener.Error failure) {
+        CircuitBreaker breaker = mCircuits.forTransfer(url, failure);
+        if (breaker != null) {
+            if (!breaker.allowRequest()) {
+                failure.onErrorResponse(CircuitBreakers.rejected(breaker));
+            } else {
+                downloadRequest(url, headers, output, offset, length,
+                        CircuitBreakers.recordSuccess(breaker, success), progress,
+                        CircuitBreakers.recordFailure(breaker, failure));
+            }
+            return;
+        }
+        Log.v(TAG, "downloadRequest: " + url);
+        int traceId = mRequestQueue.getSequenceNumber();
+        String traceTag = "Cloud/" + DOWNLOAD_OPERATION + "/" + url.getPath();
+        mTracer.emit(traceId, traceTag, RequestEvent.DISPATCHED);
+
+        HttpURLConnection conn = null;
+        try {
+            Map<String, String> requestHeaders = headers;
+            if (offset > 0) {
+                requestHeaders = new HashMap<String, String>(headers);
+                requestHeaders.put("Range", "bytes=" + offset + "-");
+            }
+            conn = HttpTransfer.openDownload(url, requestHeaders,
+                    mRetryStrategy.getTimeout(DOWNLOAD_OPERATION, 0));
+            int statusCode = conn.getResponseCode();
+            mTracer.emit(traceId, traceTag, RequestEvent.HEADERS_RECEIVED);
+            if (statusCode != 200 && !(offset > 0 && statusCode == 206)) {
+                failure.onErrorResponse(new CloudAPIException(statusCode,
+                        parseError(HttpTransfer.readBody(conn, statusCode))));
+                return;
+            }
+            long contentLength = HttpTransfer.getContentLength(conn);
+            if (contentLength >= 0 && statusCode == 206) {
+                contentLength += offset;
+            } else if (contentLength < 0) {
+                contentLength = length;
+            }
+            InputStream in = conn.getInputStream();
+            long written;
+            try {
+                if (offset > 0 && statusCode == 200) {
+                    // Range ignored: drop the bytes already written
+                    HttpTransfer.skipFully(in, offset);
                 }
-                rd.close();
-                JSONObject object = new JSONObject(response);
-                success.onResponse(object);
+                written = offset + HttpTransfer.copy(in, output, HttpTransfer.UNKNOWN_LENGTH,
+                        offset, contentLength, progress);
+            } finally {
+                in.close();
+            }
+            output.flush();
+            mTracer.emit(traceId, traceTag, RequestEvent.BODY_RECEIVED);
+            reportTraffic(DOWNLOAD_OPERATION, written - offset, 0);
+            success.onResponse(written);
+        } catch (IOException e) {
+            failure.onErrorResponse(new CloudAPIException(new NetworkError(e)));
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+            mTracer.emit(traceId, traceTag, RequestEvent.DELIVERED);
+        }
+    }
+
+    /**
+     * Download a content in a local file by fetching byte ranges in parallel. If the server
+     * does not support ranges, the content is downloaded with a single request.
+     * This method is synchronous and has to be called from a background thread.
+     *
+     * @param url          the download url
+     * @param headers      the HTTP headers to add
+     * @param file         the local file to write
+     * @param length       the size of the content
+     * @param segmentCount the maximum number of ranges fetched in parallel
+     * @param success      callback returning the number of bytes written
+     * @param progress     callback to notify download progress
+     * @param failure      callback when error occurred
+     */
+    public void segmentedDownloadRequest(final URL url,
+                                         final Map<String, String> headers,
+                                         final File file,
+                                         final long length,
+                                         final int segmentCount,
+                                         final Response.Listener<Long> success,
+                                         final OrangeListener.Progress progress,
+                                         final OrangeListener.Error failure) {
+        CircuitBreaker breaker = mCircuits.forTransfer(url, failure);
+        if (breaker != null) {
+            if (!breaker.allowRequest()) {
+                failure.onErrorResponse(CircuitBreakers.rejected(breaker));
             } else {
-                BufferedReader rd = new BufferedReader(new InputStreamReader(
-                        conn.getErrorStream()));
-                String response = "";
-                String line;
-                while ((line = rd.readLine()) != null) {
-                    Log.i("FileUpload", "Error: " + line);
-                    response += line;
+                segmentedDownloadRequest(url, headers, file, length, segmentCount,
+                        CircuitBreakers.recordSuccess(breaker, success), progress,
+                        CircuitBreakers.recordFailure(breaker, failure));
+            }
+            return;
+        }
+        Log.v(TAG, "segmentedDownloadRequest: " + url);
+
+        SegmentedDownload download = new SegmentedDownload(url, headers, file, length,
+                segmentCount, progress);
+        download.setTimeout(mRetryStrategy.getTimeout(DOWNLOAD_OPERATION, 0));
+        try {
+            long written = download.run(getSegmentExecutor());
+            reportTraffic(DOWNLOAD_OPERATION, written, 0);
+            success.onResponse(written);
+        } catch (SegmentedDownload.RangeNotSupportedException e) {
+            Log.w(TAG, "Ranges not supported, downloading " + url + " at once");
+            singleDownload(url, headers, file, length, success, progress, failure);
+        } catch (HttpStatusException e) {
+            failure.onErrorResponse(new CloudAPIException(e.getStatusCode(),
+                    parseError(e.getBody())));
+        } catch (IOException e) {
+            failure.onErrorResponse(new CloudAPIException(new NetworkError(e)));
+        }
+    }
+
+    private void singleDownload(final URL url,
+                                final Map<String, String> headers,
+                                final File file,
+                                final long length,
+                                final Response.Listener<Long> success,
+                                final OrangeListener.Progress progress,
+                                final OrangeListener.Error failure) {
+        FileOutputStream output;
+        try {
+            output = new FileOutputStream(file);
+        } catch (FileNotFoundException e) {
+            failure.onErrorResponse(new CloudAPIException(new NetworkError(e)));
+            return;
+        }
+        try {
+            downloadRequest(url, headers, output, length, success, progress, failure);
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    private synchronized ExecutorService getDiskExecutor() {
+        if (mDiskExecutor == null) {
+            mDiskExecutor = Executors.newSingleThreadExecutor();
+        }
+        return mDiskExecutor;
+    }
+
+    private synchronized ExecutorService getSegmentExecutor() {
+        if (mSegmentExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_SEGMENT_THREADS,
+                    MAX_SEGMENT_THREADS, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            mSegmentExecutor = executor;
+        }
+        return mSegmentExecutor;
+    }
+
+    private synchronized UploadJournal getUploadJournal() {
+        if (mUploadJournal == null) {
+            mUploadJournal = new UploadJournal(new File(mContext.getFilesDir(), "orange_uploads"));
+        }
+        return mUploadJournal;
+    }
+
+    /**
+     * @return the error of a chunked upload whose content is acknowledged but not completed
+     */
+    private static CloudAPIException notCompleted(URL url) {
+        return new CloudAPIException(new VolleyError(
+                "Upload acknowledged without being completed by " + url.getHost()));
+    }
+
+    private static JSONObject parseError(String response) {
+        try {
+            return new JSONObject(response);
+        } catch (JSONException e) {
+            return new JSONObject();
+        }
+    }
+
+    /**
+     * Open the content of an uri and find its length.
+     *
+     * @param uri the content uri
+     * @return the opened source
+     * @throws IOException if the content can not be opened
+     */
+    private UploadSource openSource(Uri uri) throws IOException {
+        ContentResolver resolver = mContext.getContentResolver();
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = resolver.openAssetFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            // Some providers can only open streams
+            descriptor = null;
+        }
+        UploadSource source = new UploadSource();
+        if (descriptor != null) {
+            source.length = descriptor.getLength();
+            try {
+                // Streams created from a descriptor close it too
+                source.in = descriptor.createInputStream();
+            } catch (IOException e) {
+                descriptor.close();
+                throw e;
+            }
+        } else {
+            source.in = resolver.openInputStream(uri);
+            if (source.in == null) {
+                throw new FileNotFoundException("Unable to open " + uri);
+            }
+        }
+        if (source.length < 0) {
+            source.length = queryLength(uri);
+        }
+        return source;
+    }
+
+    /**
+     * Find the size of a content without reading it.
+     *
+     * @param uri the content uri
+     * @return the size in bytes or {@link HttpTransfer#UNKNOWN_LENGTH}
+     */
+    public long getContentLength(Uri uri) {
+        try {
+            AssetFileDescriptor descriptor =
+                    mContext.getContentResolver().openAssetFileDescriptor(uri, "r");
+            if (descriptor != null) {
+                long length = descriptor.getLength();
+                descriptor.close();
+                if (length >= 0) {
+                    return length;
                 }
-                rd.close();
-                JSONObject errorResponse = new JSONObject(response);
-                failure.onErrorResponse(new CloudAPIException(serverResponseCode, errorResponse));
             }
+        } catch (IOException e) {
+            // Some providers can only open streams
+        }
+        return queryLength(uri);
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Ask the ContentResolver the size of a content.
+     *
+     * @param uri the content uri
+     * @return the size in bytes or {@link HttpTransfer#UNKNOWN_LENGTH}
+     */
+    private long queryLength(Uri uri) {
+        if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            return new File(uri.getPath()).length();
         }
+        long length = HttpTransfer.UNKNOWN_LENGTH;
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(uri,
+                    new String[]{OpenableColumns.SIZE}, null, null, null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                length = cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // Provider does not expose the size
+            Log.w(TAG, "Unable to get the length of " + uri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return length;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * An opened upload content.
+     */
+    private static class UploadSource {
+        InputStream in;
+        long length = HttpTransfer.UNKNOWN_LENGTH;
+
+        void close() {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Streaming parser of a JSON response, called on the network thread.
+     *
+     * @param <T> type of the parsed response
+     */
+    public interface ResponseParser<T> {
+        /**
+         * @param reader reader of the JSON response
+         * @return the parsed response
+         * @throws IOException if the response is not valid
+         */
+        T parse(JsonReader reader) throws IOException;
     }
 }
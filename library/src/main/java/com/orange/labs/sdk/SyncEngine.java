@@ -0,0 +1,986 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.volley.VolleyError;
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+import com.orange.labs.sdk.exception.CloudAPIException;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two-way sync of a local directory with a cloud folder. Both trees are compared with a
+ * snapshot of the last sync, so that only the paths changed on one side are transferred:
+ * <ul>
+ * <li>local files are compared by size and modification date first, and by content hash
+ * only when these differ,</li>
+ * <li>remote files are compared by identifier, size and creation date.</li>
+ * </ul>
+ * A path changed on both sides is a conflict: it is reported and left untouched. The changes
+ * are applied with the SDK calls (createFolder, upload, download, delete), with a bounded
+ * number of transfers in parallel. The listener is called on the main thread.
+ * <p>
+ * The folder listings are kept in the snapshot with their validators and each sync lists
+ * the folders with conditional requests: an unchanged folder costs a 304, without body nor
+ * parsing. Each sync still sends one request per remote folder and reads the size and date
+ * of every local file: the Cloud API has no change feed, and the validators of a folder
+ * listing are not known to cover the changes made deeper in its subtree, so that an
+ * unchanged folder can not be skipped with its descendants.
+ */
+public class SyncEngine {
+
+    private static final String TAG = SyncEngine.class.toString();
+
+    /**
+     * Default number of actions run in parallel.
+     */
+    public static final int DEFAULT_CONCURRENCY = 3;
+
+    // Suffix of the files being downloaded, ignored by the local scan
+    private static final String DOWNLOAD_SUFFIX = ".orangesync";
+
+    // Size of remote files not known yet (just uploaded)
+    private static final long UNKNOWN_BYTES = -1;
+
+    /**
+     * Callback interface for delivering the progress of a sync.
+     */
+    public interface Listener {
+        /**
+         * Called once the changes are known, before they are applied.
+         *
+         * @param actions the actions to run
+         */
+        void onPlan(List<Action> actions);
+
+        /**
+         * Called when an action has been applied.
+         *
+         * @param action the action
+         */
+        void onActionDone(Action action);
+
+        /**
+         * Called when an action failed. The path is compared again on next sync.
+         *
+         * @param action the action
+         * @param error  the Orange Api Cloud error
+         */
+        void onActionFailed(Action action, OrangeAPIException error);
+
+        /**
+         * Called for a path changed both locally and remotely. Nothing is done for this path.
+         *
+         * @param path the path, relative to the synced folders
+         */
+        void onConflict(String path);
+
+        /**
+         * Called once at the end of the sync.
+         *
+         * @param done      number of actions applied
+         * @param failed    number of actions failed
+         * @param cancelled true if the sync has been cancelled
+         */
+        void onComplete(int done, int failed, boolean cancelled);
+
+        /**
+         * Called instead of the other callbacks when the remote tree could not be listed
+         * entirely: nothing has been changed.
+         *
+         * @param error the Orange Api Cloud error
+         */
+        void onError(OrangeAPIException error);
+    }
+
+    /**
+     * A change to apply.
+     */
+    public static class Action {
+
+        /**
+         * The kinds of change.
+         */
+        public enum Type {
+            CREATE_REMOTE_FOLDER, CREATE_LOCAL_FOLDER, UPLOAD, DOWNLOAD, DELETE_REMOTE,
+            DELETE_LOCAL
+        }
+
+        /**
+         * Kind of change.
+         */
+        public final Type type;
+
+        /**
+         * Path relative to the synced folders, with '/' separators.
+         */
+        public final String path;
+
+        // Local file or directory
+        final File file;
+        // Remote entry, null if none
+        final Entry remote;
+
+        Action(Type type, String path, File file, Entry remote) {
+            this.type = type;
+            this.path = path;
+            this.file = file;
+            this.remote = remote;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + path;
+        }
+    }
+
+    private final OrangeCloudAPI<?> api;
+    private final File localRoot;
+    private final Entry remoteRoot;
+    private final File snapshotFile;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private volatile boolean running;
+    private volatile boolean cancelled;
+    private volatile ExecutorService executor;
+
+    /**
+     * Create a sync engine.
+     *
+     * @param api          the Cloud API
+     * @param localRoot    the local directory
+     * @param remoteRoot   the cloud folder
+     * @param snapshotFile file holding the state of the last sync, outside of localRoot
+     */
+    public SyncEngine(OrangeCloudAPI<?> api, File localRoot, Entry remoteRoot,
+                      File snapshotFile) {
+        if (api == null) {
+            throw new IllegalArgumentException("api must not be null.");
+        }
+        if (localRoot == null) {
+            throw new IllegalArgumentException("localRoot must not be null.");
+        }
+        if (remoteRoot == null || remoteRoot.type != Entry.Type.DIRECTORY) {
+            throw new IllegalArgumentException("remoteRoot must be a folder.");
+        }
+        if (snapshotFile == null) {
+            throw new IllegalArgumentException("snapshotFile must not be null.");
+        }
+        this.api = api;
+        this.localRoot = localRoot;
+        this.remoteRoot = remoteRoot;
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * @param concurrency maximum number of actions run in parallel
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be greater than 0.");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Start a sync in background.
+     *
+     * @param listener callback notified of the progress of the sync
+     */
+    public synchronized void sync(final Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null.");
+        }
+        if (running) {
+            throw new IllegalStateException("Sync already running.");
+        }
+        running = true;
+        cancelled = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runSync(listener);
+                } finally {
+                    running = false;
+                }
+            }
+        }, "OrangeSync").start();
+    }
+
+    /**
+     * Cancel the sync in progress: no more actions are started and transfers are interrupted.
+     * The actions already applied are kept in the snapshot.
+     */
+    public void cancel() {
+        cancelled = true;
+        ExecutorService current = executor;
+        if (current != null) {
+            // Queued actions are cancelled so that nobody waits for them
+            for (Runnable queued : current.shutdownNow()) {
+                if (queued instanceof Future) {
+                    ((Future<?>) queued).cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if a sync is in progress
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void runSync(final Listener listener) {
+        final SyncSnapshot snapshot = new SyncSnapshot(snapshotFile);
+
+        // Both trees by path
+        Map<String, File> local = new HashMap<String, File>();
+        scan(localRoot, "", local);
+        final Map<String, Entry> remote = new HashMap<String, Entry>();
+        final OrangeAPIException error = walk(remote, snapshot.getListings());
+        if (error != null) {
+            // A partial listing would look like remote deletions
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onError(error);
+                }
+            });
+            return;
+        }
+
+        final Map<String, Entry> remoteFolders = new HashMap<String, Entry>();
+        remoteFolders.put("", remoteRoot);
+        for (Map.Entry<String, Entry> entry : remote.entrySet()) {
+            if (entry.getValue().type == Entry.Type.DIRECTORY) {
+                remoteFolders.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        final List<String> conflicts = new ArrayList<String>();
+        final List<Action> actions = plan(localRoot, local, remote, snapshot, conflicts);
+
+        post(new Runnable() {
+            @Override
+            public void run() {
+                for (String path : conflicts) {
+                    listener.onConflict(path);
+                }
+                listener.onPlan(Collections.unmodifiableList(actions));
+            }
+        });
+
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        List<Action> parallel = new ArrayList<Action>();
+        List<Action> prune = new ArrayList<Action>();
+        for (Action action : actions) {
+            if (action.type == Action.Type.CREATE_REMOTE_FOLDER
+                    || action.type == Action.Type.CREATE_LOCAL_FOLDER) {
+                // Parents before children: plan is sorted by path
+                if (!cancelled) {
+                    apply(action, snapshot, remoteFolders, listener, done, failed);
+                }
+            } else if (action.type == Action.Type.DELETE_LOCAL && action.file.isDirectory()) {
+                prune.add(0, action);
+            } else {
+                parallel.add(action);
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        executor = pool;
+        List<Future<?>> futures = new ArrayList<Future<?>>(parallel.size());
+        for (final Action action : parallel) {
+            if (cancelled) {
+                break;
+            }
+            try {
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancelled) {
+                            apply(action, snapshot, remoteFolders, listener, done, failed);
+                        }
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // Cancelled meanwhile
+                break;
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                // Cancelled: the action reports nothing
+            }
+        }
+        pool.shutdown();
+        executor = null;
+
+        // Deepest directories first: reversed path order
+        for (Action action : prune) {
+            if (!cancelled) {
+                apply(action, snapshot, remoteFolders, listener, done, failed);
+            }
+        }
+
+        try {
+            snapshot.save();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save snapshot " + snapshotFile, e);
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onComplete(done.get(), failed.get(), cancelled);
+            }
+        });
+    }
+
+    /**
+     * Compare both trees with the snapshot. Unchanged paths get their snapshot record
+     * refreshed, changed ones give an action.
+     */
+    static List<Action> plan(File localRoot, Map<String, File> local, Map<String, Entry> remote,
+                             SyncSnapshot snapshot, List<String> conflicts) {
+        Map<String, SyncSnapshot.Record> records = snapshot.getRecords();
+        TreeSet<String> paths = new TreeSet<String>();
+        paths.addAll(local.keySet());
+        paths.addAll(remote.keySet());
+        paths.addAll(records.keySet());
+
+        List<Action> actions = new ArrayList<Action>();
+        // Paths whose remote side must be kept: downloads and conflicts
+        Set<String> keepRemote = new HashSet<String>();
+        // Folders to create remotely, including the parents of the uploads
+        Set<String> createRemote = new HashSet<String>();
+        List<String> remoteDeletedFolders = new ArrayList<String>();
+        List<String> localDeletedFolders = new ArrayList<String>();
+
+        for (String path : paths) {
+            File file = local.get(path);
+            Entry entry = remote.get(path);
+            SyncSnapshot.Record record = records.get(path);
+
+            boolean localDirectory = file != null && file.isDirectory();
+            boolean remoteDirectory = entry != null && entry.type == Entry.Type.DIRECTORY;
+            if (localDirectory || remoteDirectory) {
+                if (localDirectory && remoteDirectory) {
+                    snapshot.put(folderRecord(path, entry));
+                } else if (localDirectory && entry == null) {
+                    if (record == null) {
+                        createRemote.add(path);
+                    } else {
+                        remoteDeletedFolders.add(path);
+                    }
+                } else if (remoteDirectory && file == null) {
+                    if (record == null) {
+                        keepRemote.add(path);
+                        actions.add(new Action(Action.Type.CREATE_LOCAL_FOLDER, path,
+                                localFile(localRoot, path), entry));
+                    } else {
+                        localDeletedFolders.add(path);
+                    }
+                } else {
+                    // A file on one side and a folder on the other
+                    keepRemote.add(path);
+                    conflicts.add(path);
+                }
+                continue;
+            }
+
+            if (file != null && entry != null) {
+                if (record == null) {
+                    // Never synced: same size does not mean same content, and the remote
+                    // content has no hash to compare with
+                    keepRemote.add(path);
+                    conflicts.add(path);
+                    continue;
+                }
+                boolean localChanged = isLocalChanged(file, record, snapshot, entry);
+                boolean remoteChanged = isRemoteChanged(entry, record);
+                if (localChanged && remoteChanged) {
+                    keepRemote.add(path);
+                    conflicts.add(path);
+                } else if (localChanged) {
+                    actions.add(new Action(Action.Type.UPLOAD, path, file, entry));
+                    addParents(path, remote, createRemote);
+                } else if (remoteChanged) {
+                    keepRemote.add(path);
+                    actions.add(new Action(Action.Type.DOWNLOAD, path, file, entry));
+                } else {
+                    snapshot.put(fileRecord(path, file, record.hash, entry));
+                }
+            } else if (file != null) {
+                if (record != null && !isLocalChanged(file, record, snapshot, null)) {
+                    // Deleted remotely
+                    actions.add(new Action(Action.Type.DELETE_LOCAL, path, file, null));
+                } else {
+                    actions.add(new Action(Action.Type.UPLOAD, path, file, null));
+                    addParents(path, remote, createRemote);
+                }
+            } else if (entry != null) {
+                if (record != null && !isRemoteChanged(entry, record)) {
+                    // Deleted locally
+                    actions.add(new Action(Action.Type.DELETE_REMOTE, path, null, entry));
+                } else {
+                    keepRemote.add(path);
+                    actions.add(new Action(Action.Type.DOWNLOAD, path,
+                            localFile(localRoot, path), entry));
+                }
+            } else {
+                // Deleted on both sides
+                snapshot.remove(path);
+            }
+        }
+
+        for (String path : createRemote) {
+            actions.add(new Action(Action.Type.CREATE_REMOTE_FOLDER, path,
+                    localFile(localRoot, path), null));
+        }
+        for (String path : remoteDeletedFolders) {
+            if (!createRemote.contains(path)) {
+                actions.add(new Action(Action.Type.DELETE_LOCAL, path,
+                        localFile(localRoot, path), null));
+            }
+        }
+        for (String path : localDeletedFolders) {
+            if (hasDescendant(keepRemote, path)) {
+                // Something changed remotely inside: restored locally by its download
+                actions.add(new Action(Action.Type.CREATE_LOCAL_FOLDER, path,
+                        localFile(localRoot, path), remote.get(path)));
+                continue;
+            }
+            // One call deletes the whole folder, not its entries one by one
+            List<Action> covered = new ArrayList<Action>();
+            for (Action action : actions) {
+                if (action.type == Action.Type.DELETE_REMOTE
+                        && action.path.startsWith(path + "/")) {
+                    covered.add(action);
+                }
+            }
+            actions.removeAll(covered);
+            actions.add(new Action(Action.Type.DELETE_REMOTE, path, null, remote.get(path)));
+        }
+        // A folder deleted with its parent is not deleted again
+        List<Action> nested = new ArrayList<Action>();
+        for (Action action : actions) {
+            if (action.type == Action.Type.DELETE_REMOTE
+                    && action.remote.type == Entry.Type.DIRECTORY
+                    && isCoveredByRemoteDelete(actions, action)) {
+                nested.add(action);
+            }
+        }
+        actions.removeAll(nested);
+
+        // Parents before children
+        Collections.sort(actions, new Comparator<Action>() {
+            @Override
+            public int compare(Action lhs, Action rhs) {
+                return lhs.path.compareTo(rhs.path);
+            }
+        });
+        return actions;
+    }
+
+    private static boolean isCoveredByRemoteDelete(List<Action> actions, Action action) {
+        for (Action other : actions) {
+            if (other != action && other.type == Action.Type.DELETE_REMOTE
+                    && action.path.startsWith(other.path + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasDescendant(Set<String> paths, String folder) {
+        String prefix = folder + "/";
+        for (String path : paths) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addParents(String path, Map<String, Entry> remote, Set<String> create) {
+        int index = path.lastIndexOf('/');
+        while (index > 0) {
+            String parent = path.substring(0, index);
+            if (remote.containsKey(parent)) {
+                return;
+            }
+            create.add(parent);
+            index = parent.lastIndexOf('/');
+        }
+    }
+
+    /**
+     * A local file is changed if its size or date changed and its content hash too. A file
+     * only touched gets its record refreshed.
+     */
+    private static boolean isLocalChanged(File file, SyncSnapshot.Record record,
+                                          SyncSnapshot snapshot, Entry entry) {
+        if (file.length() == record.localLength && file.lastModified() == record.localModified) {
+            return false;
+        }
+        if (file.length() != record.localLength || record.hash.length() == 0) {
+            return true;
+        }
+        String hash = hash(file);
+        if (!record.hash.equals(hash)) {
+            return true;
+        }
+        if (entry != null) {
+            snapshot.put(fileRecord(record.path, file, hash, entry));
+        }
+        return false;
+    }
+
+    private static boolean isRemoteChanged(Entry entry, SyncSnapshot.Record record) {
+        if (record.remoteIdentifier.length() > 0
+                && !record.remoteIdentifier.equals(entry.identifier)) {
+            return true;
+        }
+        if (record.remoteBytes != UNKNOWN_BYTES && record.remoteBytes != entry.bytes) {
+            return true;
+        }
+        // The creation date changes when a file is replaced, even with the same size
+        return record.remoteCreated != 0 && entry.creationDate != null
+                && record.remoteCreated != entry.creationDate.getTime();
+    }
+
+    private void apply(Action action, SyncSnapshot snapshot, Map<String, Entry> remoteFolders,
+                       final Listener listener, AtomicInteger done, AtomicInteger failed) {
+        OrangeAPIException error;
+        try {
+            error = run(action, snapshot, remoteFolders);
+        } catch (IOException e) {
+            error = new CloudAPIException(new VolleyError(e));
+        }
+        final Action result = action;
+        final OrangeAPIException resultError = error;
+        if (error == null) {
+            done.incrementAndGet();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onActionDone(result);
+                }
+            });
+        } else if (!cancelled) {
+            failed.incrementAndGet();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onActionFailed(result, resultError);
+                }
+            });
+        }
+    }
+
+    /**
+     * Apply an action and update the snapshot.
+     *
+     * @return null on success, else the error
+     */
+    private OrangeAPIException run(Action action, SyncSnapshot snapshot,
+                                   Map<String, Entry> remoteFolders) throws IOException {
+        final String name = action.path.substring(action.path.lastIndexOf('/') + 1);
+        final Entry parent = remoteFolders.get(parentPath(action.path));
+        final Object[] result = new Object[1];
+
+        switch (action.type) {
+            case CREATE_REMOTE_FOLDER: {
+                if (parent == null) {
+                    return missingParent(action);
+                }
+                OrangeAPIException error = awaitMain(new AsyncCall<Entry>() {
+                    @Override
+                    public void run(OrangeListener.Success<Entry> success,
+                                    OrangeListener.Error failure) {
+                        api.createFolder(parent, name, success, failure);
+                    }
+                }, result);
+                if (error == null) {
+                    Entry folder = (Entry) result[0];
+                    remoteFolders.put(action.path, folder);
+                    snapshot.put(folderRecord(action.path, folder));
+                }
+                return error;
+            }
+            case CREATE_LOCAL_FOLDER: {
+                if (!action.file.isDirectory() && !action.file.mkdirs()) {
+                    throw new IOException("Unable to create " + action.file);
+                }
+                snapshot.put(folderRecord(action.path, action.remote));
+                return null;
+            }
+            case UPLOAD: {
+                if (parent == null) {
+                    return missingParent(action);
+                }
+                String hash = hash(action.file);
+                long length = action.file.length();
+                long modified = action.file.lastModified();
+                final Uri uri = Uri.fromFile(action.file);
+                OrangeAPIException error = awaitSync(new AsyncCall<JSONObject>() {
+                    @Override
+                    public void run(OrangeListener.Success<JSONObject> success,
+                                    OrangeListener.Error failure) {
+                        api.upload(uri, name, parent, success, null, failure);
+                    }
+                }, result);
+                if (error != null) {
+                    return error;
+                }
+                JSONObject response = (JSONObject) result[0];
+                String fileId = (response != null) ? response.optString("fileId") : "";
+                // An upload is assumed to create a new file next to the existing one, which
+                // the sync then replaces. A server overwriting the file in place returns the
+                // identifier of the existing file: it must not be deleted then.
+                if (action.remote != null && !action.remote.identifier.equals(fileId)) {
+                    // Replaced: the previous version is removed once the new one is safe
+                    final Entry previous = action.remote;
+                    OrangeAPIException deleteError = awaitMain(new AsyncCall<String>() {
+                        @Override
+                        public void run(OrangeListener.Success<String> success,
+                                        OrangeListener.Error failure) {
+                            api.delete(previous, success, failure);
+                        }
+                    }, new Object[1]);
+                    if (deleteError != null) {
+                        Log.w(TAG, "Unable to delete previous version of " + action.path);
+                    }
+                }
+                snapshot.put(new SyncSnapshot.Record(action.path, false, length, modified, hash,
+                        fileId, UNKNOWN_BYTES, 0));
+                return null;
+            }
+            case DOWNLOAD: {
+                // Download urls are only given by the file information
+                final Entry entry = action.remote;
+                OrangeAPIException error = awaitMain(new AsyncCall<Entry>() {
+                    @Override
+                    public void run(OrangeListener.Success<Entry> success,
+                                    OrangeListener.Error failure) {
+                        api.requestFileInfo(entry, success, failure);
+                    }
+                }, result);
+                if (error != null) {
+                    return error;
+                }
+                final Entry info = (Entry) result[0];
+                File directory = action.file.getParentFile();
+                if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Unable to create " + directory);
+                }
+                final File tmp = new File(action.file.getPath() + DOWNLOAD_SUFFIX);
+                error = awaitSync(new AsyncCall<Entry>() {
+                    @Override
+                    public void run(OrangeListener.Success<Entry> success,
+                                    OrangeListener.Error failure) {
+                        api.download(info, tmp, success, null, failure);
+                    }
+                }, result);
+                if (error != null) {
+                    return error;
+                }
+                if (action.file.exists() && !action.file.delete()) {
+                    throw new IOException("Unable to replace " + action.file);
+                }
+                if (!tmp.renameTo(action.file)) {
+                    throw new IOException("Unable to write " + action.file);
+                }
+                snapshot.put(fileRecord(action.path, action.file, hash(action.file),
+                        action.remote));
+                return null;
+            }
+            case DELETE_REMOTE: {
+                final Entry entry = action.remote;
+                OrangeAPIException error = awaitMain(new AsyncCall<String>() {
+                    @Override
+                    public void run(OrangeListener.Success<String> success,
+                                    OrangeListener.Error failure) {
+                        api.delete(entry, success, failure);
+                    }
+                }, result);
+                if (error == null) {
+                    removeRecords(snapshot, action.path);
+                }
+                return error;
+            }
+            case DELETE_LOCAL: {
+                if (action.file.exists() && !action.file.delete()) {
+                    throw new IOException("Unable to delete " + action.file);
+                }
+                snapshot.remove(action.path);
+                return null;
+            }
+            default:
+                throw new IllegalStateException("Unknown action " + action.type);
+        }
+    }
+
+    /**
+     * List the whole remote tree from the main thread, where listings are delivered. Each
+     * folder is revalidated against its listing of the last sync: an unchanged folder costs
+     * a 304 and no parsing. Listings of the folders gone are dropped.
+     *
+     * @param remote   filled with the remote entries by path
+     * @param listings listings of the last sync by url, updated with the ones of this walk
+     * @return null if the whole tree has been listed, else the first error
+     */
+    private OrangeAPIException walk(final Map<String, Entry> remote,
+                                    final ValidatorCache listings) {
+        final OrangeAPIException[] error = new OrangeAPIException[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                // Path of the folders by identifier: parents are listed before their children
+                final Map<String, String> folderPaths = new HashMap<String, String>();
+                folderPaths.put(remoteRoot.identifier, "");
+                TreeWalker walker = new TreeWalker(api, remoteRoot, new TreeWalker.Visitor() {
+                    @Override
+                    public void onEntry(Entry entry, int depth) {
+                        String parentPath = folderPaths.get(entry.parentIdentifier);
+                        String path = (parentPath == null || parentPath.length() == 0)
+                                ? entry.name
+                                : parentPath + "/" + entry.name;
+                        if (entry.type == Entry.Type.DIRECTORY) {
+                            folderPaths.put(entry.identifier, path);
+                        }
+                        remote.put(path, entry);
+                    }
+
+                    @Override
+                    public void onError(Entry folder, OrangeAPIException walkError) {
+                        if (error[0] == null) {
+                            error[0] = walkError;
+                        }
+                    }
+
+                    @Override
+                    public void onComplete(long count, long bytes, boolean cancelled) {
+                        if (error[0] == null && !cancelled) {
+                            for (Map.Entry<String, ValidatorCache.Validated> listing
+                                    : listings.getEntries().entrySet()) {
+                                Entry folder = (Entry) listing.getValue().value;
+                                if (!folderPaths.containsKey(folder.identifier)) {
+                                    listings.remove(listing.getKey());
+                                }
+                            }
+                        }
+                        latch.countDown();
+                    }
+                });
+                walker.setValidators(listings);
+                walker.start();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new CloudAPIException(new VolleyError(e));
+        }
+        return error[0];
+    }
+
+    /**
+     * List the local tree.
+     *
+     * @param directory the directory to list
+     * @param prefix    path of the directory
+     * @param local     filled with the local files and directories by path
+     */
+    private void scan(File directory, String prefix, Map<String, File> local) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(DOWNLOAD_SUFFIX) || file.equals(snapshotFile)) {
+                continue;
+            }
+            String path = (prefix.length() == 0) ? file.getName() : prefix + "/" + file.getName();
+            local.put(path, file);
+            if (file.isDirectory()) {
+                scan(file, path, local);
+            }
+        }
+    }
+
+    /**
+     * Run an asynchronous SDK call from the main thread and wait for its result.
+     *
+     * @param call   the call
+     * @param result receives the response of the call
+     * @return null on success, else the error
+     */
+    private <T> OrangeAPIException awaitMain(final AsyncCall<T> call, final Object[] result) {
+        final OrangeAPIException[] error = new OrangeAPIException[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                call.run(new OrangeListener.Success<T>() {
+                    @Override
+                    public void onResponse(T response) {
+                        result[0] = response;
+                        latch.countDown();
+                    }
+                }, new OrangeListener.Error() {
+                    @Override
+                    public void onErrorResponse(OrangeAPIException callError) {
+                        error[0] = callError;
+                        latch.countDown();
+                    }
+                });
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new CloudAPIException(new VolleyError(e));
+        }
+        return error[0];
+    }
+
+    /**
+     * Run a synchronous SDK call (upload, download) on the calling thread.
+     *
+     * @param call   the call
+     * @param result receives the response of the call
+     * @return null on success, else the error
+     */
+    private static <T> OrangeAPIException awaitSync(AsyncCall<T> call, final Object[] result) {
+        final boolean[] succeeded = new boolean[1];
+        final OrangeAPIException[] error = new OrangeAPIException[1];
+        call.run(new OrangeListener.Success<T>() {
+            @Override
+            public void onResponse(T response) {
+                result[0] = response;
+                succeeded[0] = true;
+            }
+        }, new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException callError) {
+                error[0] = callError;
+            }
+        });
+        if (!succeeded[0] && error[0] == null) {
+            // Call ended without any result
+            return new CloudAPIException(new VolleyError("No response"));
+        }
+        return error[0];
+    }
+
+    private void post(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    private static File localFile(File root, String path) {
+        return new File(root, path);
+    }
+
+    private static String parentPath(String path) {
+        int index = path.lastIndexOf('/');
+        return (index > 0) ? path.substring(0, index) : "";
+    }
+
+    private static OrangeAPIException missingParent(Action action) {
+        return new CloudAPIException(new VolleyError("Parent folder of " + action.path
+                + " not created"));
+    }
+
+    private static void removeRecords(SyncSnapshot snapshot, String path) {
+        String prefix = path + "/";
+        for (String recorded : snapshot.getRecords().keySet()) {
+            if (recorded.equals(path) || recorded.startsWith(prefix)) {
+                snapshot.remove(recorded);
+            }
+        }
+    }
+
+    private static SyncSnapshot.Record folderRecord(String path, Entry entry) {
+        return new SyncSnapshot.Record(path, true, 0, 0, null,
+                (entry != null) ? entry.identifier : null, 0, 0);
+    }
+
+    private static SyncSnapshot.Record fileRecord(String path, File file, String hash,
+                                                  Entry entry) {
+        return new SyncSnapshot.Record(path, false, file.length(), file.lastModified(), hash,
+                entry.identifier, entry.bytes,
+                (entry.creationDate != null) ? entry.creationDate.getTime() : 0);
+    }
+
+    /**
+     * @return MD5 of the content of a file in hexadecimal, empty if it can not be read
+     */
+    private static String hash(File file) {
+        try {
+            return Digests.md5Hex(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+            return "";
+        }
+    }
+
+    /**
+     * An SDK call with its callbacks.
+     */
+    private interface AsyncCall<T> {
+        void run(OrangeListener.Success<T> success, OrangeListener.Error failure);
+    }
+}
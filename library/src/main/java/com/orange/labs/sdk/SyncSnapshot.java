@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import android.util.Log;
+
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State of a synced tree after the last sync: for each path, the local and remote versions
+ * that were identical. A change is a difference with this state, on one side or the other.
+ * The remote folder listings of the last sync are kept with their validators, to list an
+ * unchanged folder with a 304 on the next sync.
+ * Stored in a JSON file, written then renamed to never leave a partially written snapshot.
+ */
+class SyncSnapshot {
+
+    private static final String TAG = SyncSnapshot.class.toString();
+
+    private final File file;
+    private final Map<String, Record> records = new HashMap<String, Record>();
+    // Never evicted: every listing of the tree is revalidated on each sync
+    private final ValidatorCache listings = new ValidatorCache(Integer.MAX_VALUE);
+
+    /**
+     * Load a snapshot. A missing or corrupted file gives an empty snapshot: a file present on
+     * both sides is then a conflict.
+     *
+     * @param file the snapshot file
+     */
+    SyncSnapshot(File file) {
+        this.file = file;
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < data.length
+                        && (read = in.read(data, offset, data.length - offset)) != -1) {
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+            String content = new String(data, "UTF-8").trim();
+            JSONArray array;
+            if (content.startsWith("[")) {
+                // Snapshot written before the listings were kept
+                array = new JSONArray(content);
+            } else {
+                JSONObject json = new JSONObject(content);
+                array = json.getJSONArray("records");
+                JSONArray listingArray = json.optJSONArray("listings");
+                if (listingArray != null) {
+                    for (int i = 0; i < listingArray.length(); i++) {
+                        JSONObject listing = listingArray.getJSONObject(i);
+                        listings.put(listing.getString("url"),
+                                listing.isNull("etag") ? null : listing.getString("etag"),
+                                listing.isNull("lastModified")
+                                        ? null : listing.getString("lastModified"),
+                                entryFromJSON(listing.getJSONObject("folder")));
+                    }
+                }
+            }
+            for (int i = 0; i < array.length(); i++) {
+                Record record = new Record(array.getJSONObject(i));
+                records.put(record.path, record);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read snapshot " + file, e);
+            records.clear();
+            listings.clear();
+        } catch (JSONException e) {
+            Log.w(TAG, "Corrupted snapshot " + file, e);
+            records.clear();
+            listings.clear();
+        }
+    }
+
+    synchronized Record get(String path) {
+        return records.get(path);
+    }
+
+    synchronized void put(Record record) {
+        records.put(record.path, record);
+    }
+
+    synchronized void remove(String path) {
+        records.remove(path);
+    }
+
+    /**
+     * @return a copy of the records by path
+     */
+    synchronized Map<String, Record> getRecords() {
+        return new HashMap<String, Record>(records);
+    }
+
+    /**
+     * @return the folder listings of the last sync with their validators, keyed by url
+     */
+    ValidatorCache getListings() {
+        return listings;
+    }
+
+    /**
+     * Persist the snapshot.
+     *
+     * @throws IOException if the snapshot can not be written
+     */
+    synchronized void save() throws IOException {
+        JSONArray array = new JSONArray();
+        for (Record record : records.values()) {
+            array.put(record.toJSON());
+        }
+        JSONArray listingArray = new JSONArray();
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, ValidatorCache.Validated> entry
+                    : listings.getEntries().entrySet()) {
+                ValidatorCache.Validated validated = entry.getValue();
+                JSONObject listing = new JSONObject();
+                listing.put("url", entry.getKey());
+                listing.put("etag", (validated.etag != null) ? validated.etag : JSONObject.NULL);
+                listing.put("lastModified", (validated.lastModified != null)
+                        ? validated.lastModified : JSONObject.NULL);
+                listing.put("folder", entryToJSON((Entry) validated.value));
+                listingArray.put(listing);
+            }
+            json.put("records", array);
+            json.put("listings", listingArray);
+        } catch (JSONException e) {
+            // Only raised for non finite numbers
+            throw new IllegalStateException(e);
+        }
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(json.toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to write snapshot " + file);
+        }
+    }
+
+    /**
+     * Keep the fields of a listed entry needed by a sync, with the entries of a folder.
+     */
+    private static JSONObject entryToJSON(Entry entry) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", entry.identifier);
+        json.put("parentId", entry.parentIdentifier);
+        json.put("name", entry.name);
+        json.put("type", entry.type.name());
+        json.put("bytes", entry.bytes);
+        json.put("created", (entry.creationDate != null) ? entry.creationDate.getTime() : 0);
+        if (entry.contents != null) {
+            JSONArray contents = new JSONArray();
+            for (Entry child : entry.contents) {
+                contents.put(entryToJSON(child));
+            }
+            json.put("contents", contents);
+        }
+        return json;
+    }
+
+    private static Entry entryFromJSON(JSONObject json) throws JSONException {
+        Entry entry = new Entry();
+        entry.identifier = json.getString("id");
+        entry.parentIdentifier = json.optString("parentId");
+        entry.name = json.optString("name");
+        try {
+            entry.type = Entry.Type.valueOf(json.getString("type"));
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Unknown entry type " + json.getString("type"));
+        }
+        entry.bytes = json.optLong("bytes");
+        long created = json.optLong("created");
+        entry.creationDate = (created != 0) ? new Date(created) : null;
+        JSONArray contents = json.optJSONArray("contents");
+        if (contents != null) {
+            entry.contents = new ArrayList<Entry>(contents.length());
+            for (int i = 0; i < contents.length(); i++) {
+                entry.contents.add(entryFromJSON(contents.getJSONObject(i)));
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Synced state of a path.
+     */
+    static class Record {
+
+        /**
+         * Path relative to the roots, with '/' separators.
+         */
+        final String path;
+
+        final boolean directory;
+
+        /**
+         * Size and modification date of the local file when synced.
+         */
+        final long localLength;
+        final long localModified;
+
+        /**
+         * MD5 of the local file content when synced, empty if unknown.
+         */
+        final String hash;
+
+        /**
+         * Identifier, size and creation date of the remote entry when synced. The identifier
+         * may be empty after an upload if the server did not return it, the creation date is
+         * 0 when unknown.
+         */
+        final String remoteIdentifier;
+        final long remoteBytes;
+        final long remoteCreated;
+
+        Record(String path, boolean directory, long localLength, long localModified,
+               String hash, String remoteIdentifier, long remoteBytes, long remoteCreated) {
+            this.path = path;
+            this.directory = directory;
+            this.localLength = localLength;
+            this.localModified = localModified;
+            this.hash = (hash != null) ? hash : "";
+            this.remoteIdentifier = (remoteIdentifier != null) ? remoteIdentifier : "";
+            this.remoteBytes = remoteBytes;
+            this.remoteCreated = remoteCreated;
+        }
+
+        Record(JSONObject json) throws JSONException {
+            this(json.getString("path"),
+                    json.optBoolean("directory"),
+                    json.optLong("localLength"),
+                    json.optLong("localModified"),
+                    json.optString("hash"),
+                    json.optString("remoteId"),
+                    json.optLong("remoteBytes"),
+                    json.optLong("remoteCreated"));
+        }
+
+        JSONObject toJSON() {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("path", path);
+                json.put("directory", directory);
+                json.put("localLength", localLength);
+                json.put("localModified", localModified);
+                json.put("hash", hash);
+                json.put("remoteId", remoteIdentifier);
+                json.put("remoteBytes", remoteBytes);
+                json.put("remoteCreated", remoteCreated);
+                return json;
+            } catch (JSONException e) {
+                // Only raised for non finite numbers
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Walk of a folder tree, breadth first. Folders are listed with a bounded number of listings
+ * in flight and the entries found are streamed to a {@link Visitor} as soon as their folder is
+ * listed, with running totals of the entries and bytes seen.
+ * Designed to be used from the main thread, where listings are delivered.
+ */
+public class TreeWalker {
+
+    /**
+     * Default number of folder listings in flight.
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Depth limit meaning the whole tree is walked.
+     */
+    public static final int UNLIMITED_DEPTH = -1;
+
+    /**
+     * Callback interface for delivering the entries of a walk.
+     */
+    public interface Visitor {
+        /**
+         * Called for each entry found, if its type is accepted.
+         *
+         * @param entry the entry
+         * @param depth depth of the entry, 1 for the children of the root of the walk
+         */
+        void onEntry(Entry entry, int depth);
+
+        /**
+         * Called when a folder could not be listed. Its subtree is skipped, the walk goes on.
+         *
+         * @param folder the folder
+         * @param error  the Orange Api Cloud error
+         */
+        void onError(Entry folder, OrangeAPIException error);
+
+        /**
+         * Called once at the end of the walk.
+         *
+         * @param count     number of entries visited
+         * @param bytes     total size of the files visited
+         * @param cancelled true if the walk has been cancelled
+         */
+        void onComplete(long count, long bytes, boolean cancelled);
+    }
+
+    private final OrangeCloudAPI<?> api;
+    private final Entry root;
+    private final Visitor visitor;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int maxDepth = UNLIMITED_DEPTH;
+    private Set<Entry.Type> types = EnumSet.allOf(Entry.Type.class);
+    private JSONObject parameters;
+    private ValidatorCache validators;
+
+    // Folders waiting to be listed, in discovery order
+    private final Queue<Folder> pending = new ArrayDeque<Folder>();
+    private int running;
+    private long count;
+    private long bytes;
+    private int folderCount;
+    private boolean started;
+    private boolean cancelled;
+    private boolean completed;
+
+    /**
+     * Create a walker. Nothing is listed before {@link #start()}.
+     *
+     * @param api     the Cloud API
+     * @param root    the folder to walk, null for the root folder. It is not visited itself.
+     * @param visitor callback notified of the entries found
+     */
+    public TreeWalker(OrangeCloudAPI<?> api, Entry root, Visitor visitor) {
+        if (api == null) {
+            throw new IllegalArgumentException("api must not be null.");
+        }
+        if (root != null && root.type != Entry.Type.DIRECTORY) {
+            throw new IllegalArgumentException("root must be a folder.");
+        }
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null.");
+        }
+        this.api = api;
+        this.root = root;
+        this.visitor = visitor;
+    }
+
+    /**
+     * @param concurrency maximum number of folder listings in flight
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be greater than 0.");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param maxDepth depth of the deepest entries visited, 1 for the children of the root
+     *                 only, or {@link #UNLIMITED_DEPTH}
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth <= 0 && maxDepth != UNLIMITED_DEPTH) {
+            throw new IllegalArgumentException("maxDepth must be greater than 0.");
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Restrict the entries given to the visitor. Folders are walked in any case.
+     *
+     * @param types the types of the entries to visit
+     */
+    public void setTypes(Set<Entry.Type> types) {
+        if (types == null || types.isEmpty()) {
+            throw new IllegalArgumentException("types must not be null or empty.");
+        }
+        this.types = EnumSet.copyOf(types);
+    }
+
+    /**
+     * @param parameters additional parameters of the listings (see listEntries), can be null
+     */
+    public void setParameters(JSONObject parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Revalidate the listings against the given validators, such as the ones of a previous
+     * walk: an unchanged folder then costs a 304 and no parsing.
+     *
+     * @param validators validators of the listings by url, updated by the walk. Can be null.
+     */
+    void setValidators(ValidatorCache validators) {
+        this.validators = validators;
+    }
+
+    /**
+     * Start the walk.
+     */
+    public void start() {
+        if (started) {
+            throw new IllegalStateException("Walk already started.");
+        }
+        started = true;
+        pending.add(new Folder(root, 0));
+        launch();
+    }
+
+    /**
+     * Cancel the walk: no more folders are listed, listings in flight are ignored and
+     * {@link Visitor#onComplete(long, long, boolean)} is called at once.
+     */
+    public void cancel() {
+        if (completed) {
+            return;
+        }
+        cancelled = true;
+        pending.clear();
+        complete();
+    }
+
+    /**
+     * @return number of entries visited so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return total size of the files visited so far
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of folders listed so far
+     */
+    public int getFolderCount() {
+        return folderCount;
+    }
+
+    /**
+     * @return true if the walk is over, ended or cancelled
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    private void launch() {
+        while (!cancelled && running < concurrency && !pending.isEmpty()) {
+            list(pending.poll());
+        }
+        if (running == 0 && pending.isEmpty()) {
+            complete();
+        }
+    }
+
+    private void list(final Folder folder) {
+        running++;
+        // Listings are not kept in the shared validator cache: a walk would flush it
+        api.requestEntries(folder.entry, parameters, false, validators,
+                new OrangeListener.Success<Entry>() {
+            @Override
+            public void onResponse(Entry response) {
+                if (cancelled) {
+                    return;
+                }
+                running--;
+                folderCount++;
+                if (response.contents != null) {
+                    int depth = folder.depth + 1;
+                    for (Entry entry : response.contents) {
+                        // The visitor may cancel the walk
+                        if (cancelled) {
+                            return;
+                        }
+                        // Listings do not always give the parent of their entries
+                        if (entry.parentIdentifier == null
+                                || entry.parentIdentifier.length() == 0) {
+                            entry.parentIdentifier = response.identifier;
+                        }
+                        if (entry.type == Entry.Type.DIRECTORY
+                                && (maxDepth == UNLIMITED_DEPTH || depth < maxDepth)) {
+                            pending.add(new Folder(entry, depth));
+                        }
+                        if (types.contains(entry.type)) {
+                            count++;
+                            bytes += entry.bytes;
+                            visitor.onEntry(entry, depth);
+                        }
+                    }
+                }
+                launch();
+            }
+        }, new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+                if (cancelled) {
+                    return;
+                }
+                running--;
+                visitor.onError(folder.entry, error);
+                launch();
+            }
+        });
+    }
+
+    private void complete() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        visitor.onComplete(count, bytes, cancelled);
+    }
+
+    /**
+     * A folder to list with its depth.
+     */
+    private static class Folder {
+        final Entry entry;
+        final int depth;
+
+        Folder(Entry entry, int depth) {
+            this.entry = entry;
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import android.util.JsonReader;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GET request of a JSON response revalidated with If-None-Match / If-Modified-Since. The
+ * response is parsed with a streaming {@link JsonReader} on the network thread; on a 304 the
+ * cached parsed response is returned.
+ *
+ * @param <T> type of the parsed response
+ */
+class ValidatedJsonRequest<T> extends Request<T> {
+
+    private final String key;
+    private final Map<String, String> headers;
+    private final RestUtils.ResponseParser<? extends T> parser;
+    private final ValidatorCache cache;
+    private final Response.Listener<T> listener;
+
+    ValidatedJsonRequest(String url,
+                         String key,
+                         Map<String, String> headers,
+                         RestUtils.ResponseParser<? extends T> parser,
+                         ValidatorCache cache,
+                         Response.Listener<T> listener,
+                         Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        this.key = key;
+        this.headers = headers;
+        this.parser = parser;
+        this.cache = cache;
+        this.listener = listener;
+        // Validators are handled here, not by the Volley disk cache
+        setShouldCache(false);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        ValidatorCache.Validated validated = (cache != null) ? cache.get(key) : null;
+        if (validated == null) {
+            return headers;
+        }
+        Map<String, String> conditional = new HashMap<String, String>(headers);
+        if (validated.etag != null) {
+            conditional.put("If-None-Match", validated.etag);
+        }
+        if (validated.lastModified != null) {
+            conditional.put("If-Modified-Since", validated.lastModified);
+        }
+        return conditional;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        if (response.statusCode == 304 && cache != null) {
+            ValidatorCache.Validated validated = cache.notModified(key);
+            if (validated == null) {
+                return Response.error(new ParseError(response));
+            }
+            return Response.success((T) validated.value, null);
+        }
+        try {
+            // Parse the bytes as they come, without String or JSONObject copies
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(response.data),
+                    HttpHeaderParser.parseCharset(response.headers, "utf-8")));
+            T value;
+            try {
+                value = parser.parse(reader);
+            } finally {
+                reader.close();
+            }
+            if (cache != null) {
+                cache.put(key, response.headers.get("ETag"),
+                        response.headers.get("Last-Modified"), value);
+            }
+            return Response.success(value, null);
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        } catch (RuntimeException e) {
+            // Unexpected JSON token or number format
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        listener.onResponse(response);
+    }
+}
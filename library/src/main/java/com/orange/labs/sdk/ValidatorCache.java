@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory cache of the last response of GET requests with their validators (ETag and
+ * Last-Modified), used to revalidate the responses with conditional requests. The parsed
+ * response is kept so that a 304 is served without any parsing.
+ */
+class ValidatorCache {
+
+    /**
+     * Maximum number of responses kept, least recently used are evicted first.
+     */
+    static final int MAX_ENTRIES = 64;
+
+    private final Map<String, Validated> entries;
+
+    private long notModifiedCount;
+
+    ValidatorCache() {
+        this(MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries maximum number of responses kept, least recently used are evicted first
+     */
+    ValidatorCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, Validated>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validated> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param key key of the request (url and principal)
+     * @return the cached response or null
+     */
+    synchronized Validated get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Store a response. Responses without any validator are not stored.
+     *
+     * @param key          key of the request (url and principal)
+     * @param etag         the ETag header, can be null
+     * @param lastModified the Last-Modified header, can be null
+     * @param value        the parsed response
+     */
+    synchronized void put(String key, String etag, String lastModified, Object value) {
+        if (etag == null && lastModified == null) {
+            entries.remove(key);
+        } else {
+            entries.put(key, new Validated(etag, lastModified, value));
+        }
+    }
+
+    /**
+     * @param key key of the request (url and principal)
+     */
+    synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Get a response confirmed by a 304 Not Modified.
+     *
+     * @param key key of the request (url and principal)
+     * @return the cached response or null if it has been evicted meanwhile
+     */
+    synchronized Validated notModified(String key) {
+        Validated validated = entries.get(key);
+        if (validated != null) {
+            notModifiedCount++;
+        }
+        return validated;
+    }
+
+    /**
+     * @return number of responses served from the cache after a 304
+     */
+    synchronized long getNotModifiedCount() {
+        return notModifiedCount;
+    }
+
+    /**
+     * @return a copy of the cached responses by key
+     */
+    synchronized Map<String, Validated> getEntries() {
+        return new LinkedHashMap<String, Validated>(entries);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * A cached response and its validators.
+     */
+    static class Validated {
+        final String etag;
+        final String lastModified;
+        final Object value;
+
+        Validated(String etag, String lastModified, Object value) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.cache;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Pool of bitmaps released by the application, given back to the decoder as
+ * {@link BitmapFactory.Options#inBitmap} to avoid new allocations. Bitmaps are held by soft
+ * references and can be collected at any time.
+ */
+public class BitmapPool {
+
+    /**
+     * Maximum number of bitmaps kept in the pool.
+     */
+    public static final int MAX_BITMAPS = 16;
+
+    private final LinkedList<SoftReference<Bitmap>> bitmaps =
+            new LinkedList<SoftReference<Bitmap>>();
+
+    /**
+     * Add a bitmap to the pool. Only mutable bitmaps can be reused.
+     *
+     * @param bitmap the bitmap no more used
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        bitmaps.addFirst(new SoftReference<Bitmap>(bitmap));
+        if (bitmaps.size() > MAX_BITMAPS) {
+            bitmaps.removeLast();
+        }
+    }
+
+    /**
+     * Take a bitmap able to hold the image described by the options. The bitmap is removed
+     * from the pool.
+     *
+     * @param options options of the decoding, with the size of the image and the sample size
+     * @return a reusable bitmap or null
+     */
+    public synchronized Bitmap get(BitmapFactory.Options options) {
+        Iterator<SoftReference<Bitmap>> it = bitmaps.iterator();
+        while (it.hasNext()) {
+            Bitmap candidate = it.next().get();
+            if (candidate == null || !candidate.isMutable() || candidate.isRecycled()) {
+                it.remove();
+            } else if (canReuse(candidate, options)) {
+                it.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        bitmaps.clear();
+    }
+
+    private static boolean canReuse(Bitmap candidate, BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = options.outWidth / sampleSize;
+        int height = options.outHeight / sampleSize;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return width * height * bytesPerPixel(options.inPreferredConfig)
+                    <= allocationByteCount(candidate);
+        }
+        // Before KitKat, only bitmaps of the same size and config can be reused, without
+        // sampling
+        return candidate.getWidth() == options.outWidth
+                && candidate.getHeight() == options.outHeight
+                && sampleSize == 1
+                && candidate.getConfig() == options.inPreferredConfig;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int allocationByteCount(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
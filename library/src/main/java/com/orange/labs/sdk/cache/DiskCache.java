@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.cache;
+
+import android.util.Log;
+
+import com.orange.labs.sdk.Digests;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded disk cache of byte arrays, one file per key. Least recently used files are
+ * deleted when the cache goes over its maximum size. The index is rebuilt from the files at
+ * start-up, ordered by last modification.
+ * Methods do disk I/O: they have to be called from a background thread.
+ */
+public class DiskCache {
+
+    private static final String TAG = DiskCache.class.toString();
+
+    private final File directory;
+    private final long maxSize;
+    // File names and sizes, in access order
+    private final LinkedHashMap<String, Long> index =
+            new LinkedHashMap<String, Long>(64, 0.75f, true);
+    private long size;
+    private boolean initialized;
+
+    /**
+     * Create a disk cache.
+     *
+     * @param directory directory of the cache, created if needed. Must be used by this cache
+     *                  only.
+     * @param maxSize   maximum size of the cache in bytes
+     */
+    public DiskCache(File directory, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0.");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the content of a key.
+     *
+     * @param key the key
+     * @return the content or null if not in cache
+     */
+    public synchronized byte[] get(String key) {
+        initialize();
+        String name = fileName(key);
+        if (index.get(name) == null) {
+            return null;
+        }
+        File file = new File(directory, name);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < data.length
+                        && (read = in.read(data, offset, data.length - offset)) != -1) {
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+            // Keep the access order across restarts
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + key, e);
+            removeFile(name);
+            return null;
+        }
+    }
+
+    /**
+     * Store the content of a key, written in a temporary file then renamed.
+     *
+     * @param key  the key
+     * @param data the content
+     */
+    public synchronized void put(String key, byte[] data) {
+        initialize();
+        if (data == null || data.length > maxSize) {
+            return;
+        }
+        String name = fileName(key);
+        File tmp = new File(directory, name + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(new File(directory, name))) {
+                throw new IOException("Unable to rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + key, e);
+            tmp.delete();
+            return;
+        }
+        Long previous = index.put(name, (long) data.length);
+        size += data.length - ((previous != null) ? previous : 0);
+        trim();
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key the key
+     */
+    public synchronized void remove(String key) {
+        initialize();
+        removeFile(fileName(key));
+    }
+
+    /**
+     * Remove all the content of the cache.
+     */
+    public synchronized void clear() {
+        initialize();
+        for (String name : index.keySet()) {
+            new File(directory, name).delete();
+        }
+        index.clear();
+        size = 0;
+    }
+
+    /**
+     * @return current size of the cache in bytes
+     */
+    public synchronized long size() {
+        initialize();
+        return size;
+    }
+
+    /**
+     * @return maximum size of the cache in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    private void removeFile(String name) {
+        Long length = index.remove(name);
+        if (length != null) {
+            size -= length;
+        }
+        new File(directory, name).delete();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            size -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    private void initialize() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest first, as in the access order
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return (l < r) ? -1 : ((l == r) ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+            } else {
+                index.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        trim();
+    }
+
+    private static String fileName(String key) {
+        return Digests.md5Hex(key);
+    }
+}
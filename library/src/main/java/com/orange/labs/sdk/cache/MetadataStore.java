@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.cache;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+import com.orange.labs.sdk.OrangeListener;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent store of the metadata of the entries already fetched, backed by SQLite. It keeps
+ * the listings of the visited folders and the file information, so that they can be displayed
+ * at start-up before any network round-trip.
+ * Database accesses are done on a single background thread; results are delivered on the
+ * main thread.
+ */
+public class MetadataStore extends SQLiteOpenHelper {
+
+    private static final String TAG = MetadataStore.class.toString();
+
+    private static final String DATABASE_NAME = "orange_cloud_metadata.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_ENTRIES = "entries";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_PARENT_ID = "parent_id";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_TYPE = "type";
+    private static final String COLUMN_BYTES = "bytes";
+    private static final String COLUMN_SIZE = "size";
+    private static final String COLUMN_CREATION_DATE = "creation_date";
+    private static final String COLUMN_DOWNLOAD_URL = "download_url";
+    private static final String COLUMN_PREVIEW_URL = "preview_url";
+    private static final String COLUMN_THUMBNAIL_URL = "thumbnail_url";
+    private static final String COLUMN_EXTRA_INFO = "extra_info";
+    // Folders whose contents are known
+    private static final String COLUMN_LISTED = "listed";
+    // Root folder, listed without identifier
+    private static final String COLUMN_ROOT = "root";
+    // Rank of the entry in the listing of its parent
+    private static final String COLUMN_POSITION = "position";
+
+    private static final String[] COLUMNS = new String[]{
+            COLUMN_ID, COLUMN_PARENT_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_BYTES, COLUMN_SIZE,
+            COLUMN_CREATION_DATE, COLUMN_DOWNLOAD_URL, COLUMN_PREVIEW_URL, COLUMN_THUMBNAIL_URL,
+            COLUMN_EXTRA_INFO
+    };
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Create the store.
+     *
+     * @param context context of the application
+     */
+    public MetadataStore(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ENTRIES + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_PARENT_ID + " TEXT, "
+                + COLUMN_NAME + " TEXT, "
+                + COLUMN_TYPE + " TEXT, "
+                + COLUMN_BYTES + " INTEGER, "
+                + COLUMN_SIZE + " TEXT, "
+                + COLUMN_CREATION_DATE + " INTEGER, "
+                + COLUMN_DOWNLOAD_URL + " TEXT, "
+                + COLUMN_PREVIEW_URL + " TEXT, "
+                + COLUMN_THUMBNAIL_URL + " TEXT, "
+                + COLUMN_EXTRA_INFO + " INTEGER DEFAULT 0, "
+                + COLUMN_LISTED + " INTEGER DEFAULT 0, "
+                + COLUMN_ROOT + " INTEGER DEFAULT 0, "
+                + COLUMN_POSITION + " INTEGER DEFAULT 0)");
+        db.execSQL("CREATE INDEX " + TABLE_ENTRIES + "_" + COLUMN_PARENT_ID + " ON "
+                + TABLE_ENTRIES + " (" + COLUMN_PARENT_ID + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only a cache: start again from scratch
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ENTRIES);
+        onCreate(db);
+    }
+
+    /**
+     * Get a folder with its contents, as stored by the last listing.
+     * This method is synchronous and has to be called from a background thread.
+     *
+     * @param identifier identifier of the folder, empty or null for the root folder
+     * @return the folder or null if it has never been listed
+     */
+    public Entry getFolder(String identifier) {
+        SQLiteDatabase db = getReadableDatabase();
+        Entry folder;
+        Cursor cursor;
+        if (identifier == null || identifier.length() == 0) {
+            cursor = db.query(TABLE_ENTRIES, COLUMNS,
+                    COLUMN_ROOT + " = 1 AND " + COLUMN_LISTED + " = 1",
+                    null, null, null, null);
+        } else {
+            cursor = db.query(TABLE_ENTRIES, COLUMNS,
+                    COLUMN_ID + " = ? AND " + COLUMN_LISTED + " = 1",
+                    new String[]{identifier}, null, null, null);
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            folder = readEntry(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        folder.contents = new ArrayList<Entry>();
+        cursor = db.query(TABLE_ENTRIES, COLUMNS, COLUMN_PARENT_ID + " = ?",
+                new String[]{folder.identifier}, null, null, COLUMN_POSITION);
+        try {
+            while (cursor.moveToNext()) {
+                folder.contents.add(readEntry(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return folder;
+    }
+
+    /**
+     * Get an entry.
+     * This method is synchronous and has to be called from a background thread.
+     *
+     * @param identifier identifier of the entry
+     * @return the entry, without its contents, or null if unknown
+     */
+    public Entry getEntry(String identifier) {
+        Cursor cursor = getReadableDatabase().query(TABLE_ENTRIES, COLUMNS,
+                COLUMN_ID + " = ?", new String[]{identifier}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? readEntry(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Store the listing of a folder. Children no more listed are removed.
+     * This method is synchronous and has to be called from a background thread.
+     *
+     * @param folder the folder with its contents
+     * @param root   true if the folder is the root folder
+     */
+    public void putFolder(Entry folder, boolean root) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (root) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_ROOT, 0);
+                db.update(TABLE_ENTRIES, values, COLUMN_ROOT + " = 1", null);
+            }
+            ContentValues values = toValues(folder);
+            values.put(COLUMN_LISTED, 1);
+            values.put(COLUMN_ROOT, root ? 1 : 0);
+            upsert(db, folder.identifier, values);
+
+            // Children are updated in place to keep their own listing and file information,
+            // the ones still marked afterwards are no more in the folder
+            ContentValues stale = new ContentValues();
+            stale.put(COLUMN_POSITION, -1);
+            String[] parent = new String[]{folder.identifier};
+            db.update(TABLE_ENTRIES, stale, COLUMN_PARENT_ID + " = ?", parent);
+            if (folder.contents != null) {
+                int position = 0;
+                for (Entry child : folder.contents) {
+                    ContentValues childValues = toValues(child);
+                    childValues.put(COLUMN_PARENT_ID, folder.identifier);
+                    childValues.put(COLUMN_POSITION, position++);
+                    upsert(db, child.identifier, childValues);
+                }
+            }
+            db.delete(TABLE_ENTRIES, COLUMN_PARENT_ID + " = ? AND " + COLUMN_POSITION + " = -1",
+                    parent);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Store an entry, typically after a file info request.
+     * This method is synchronous and has to be called from a background thread.
+     *
+     * @param entry the entry
+     */
+    public void putEntry(Entry entry) {
+        upsert(getWritableDatabase(), entry.identifier, toValues(entry));
+    }
+
+    /**
+     * Remove an entry and the listing of its contents.
+     * This method is synchronous and has to be called from a background thread.
+     *
+     * @param identifier identifier of the entry
+     */
+    public void remove(String identifier) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_ENTRIES, COLUMN_ID + " = ? OR " + COLUMN_PARENT_ID + " = ?",
+                    new String[]{identifier, identifier});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Remove all the entries, for example when the user changes.
+     * This method is synchronous and has to be called from a background thread.
+     */
+    public void clear() {
+        getWritableDatabase().delete(TABLE_ENTRIES, null, null);
+    }
+
+    /**
+     * Load a folder in background.
+     *
+     * @param identifier identifier of the folder, empty or null for the root folder
+     * @param callback   called on the main thread with the folder, or null if not stored
+     */
+    public void loadFolder(final String identifier, final OrangeListener.Success<Entry> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry folder = null;
+                try {
+                    folder = getFolder(identifier);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Unable to read folder " + identifier, e);
+                }
+                deliver(callback, folder);
+            }
+        });
+    }
+
+    /**
+     * Load an entry in background.
+     *
+     * @param identifier identifier of the entry
+     * @param callback   called on the main thread with the entry, or null if not stored
+     */
+    public void loadEntry(final String identifier, final OrangeListener.Success<Entry> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = null;
+                try {
+                    entry = getEntry(identifier);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Unable to read entry " + identifier, e);
+                }
+                deliver(callback, entry);
+            }
+        });
+    }
+
+    /**
+     * Store the listing of a folder in background.
+     *
+     * @param folder the folder with its contents
+     * @param root   true if the folder is the root folder
+     */
+    public void saveFolder(final Entry folder, final boolean root) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    putFolder(folder, root);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Unable to store folder " + folder.identifier, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Store an entry in background.
+     *
+     * @param entry the entry
+     */
+    public void saveEntry(final Entry entry) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    putEntry(entry);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Unable to store entry " + entry.identifier, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove an entry in background.
+     *
+     * @param identifier identifier of the entry
+     */
+    public void delete(final String identifier) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    remove(identifier);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Unable to remove entry " + identifier, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove all the entries in background, after the loads and saves already requested.
+     */
+    public void deleteAll() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    clear();
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Unable to remove entries", e);
+                }
+            }
+        });
+    }
+
+    private void deliver(final OrangeListener.Success<Entry> callback, final Entry entry) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResponse(entry);
+            }
+        });
+    }
+
+    /**
+     * Update the row of an entry keeping the columns not given (parent, listing...), or
+     * insert it.
+     */
+    private static void upsert(SQLiteDatabase db, String identifier, ContentValues values) {
+        int updated = db.update(TABLE_ENTRIES, values, COLUMN_ID + " = ?",
+                new String[]{identifier});
+        if (updated == 0) {
+            db.insert(TABLE_ENTRIES, null, values);
+        }
+    }
+
+    private static ContentValues toValues(Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, entry.identifier);
+        if (entry.parentIdentifier != null && entry.parentIdentifier.length() > 0) {
+            values.put(COLUMN_PARENT_ID, entry.parentIdentifier);
+        }
+        values.put(COLUMN_NAME, entry.name);
+        values.put(COLUMN_TYPE, (entry.type != null) ? entry.type.name() : null);
+        values.put(COLUMN_DOWNLOAD_URL, entry.downloadURL);
+        values.put(COLUMN_PREVIEW_URL, entry.previewURL);
+        values.put(COLUMN_THUMBNAIL_URL, entry.thumbnailURL);
+        // Listings do not hold extra information: keep the one of a previous file info
+        if (entry.extraInfoAvailable) {
+            values.put(COLUMN_BYTES, entry.bytes);
+            values.put(COLUMN_SIZE, entry.size);
+            values.put(COLUMN_CREATION_DATE,
+                    (entry.creationDate != null) ? entry.creationDate.getTime() : null);
+            values.put(COLUMN_EXTRA_INFO, 1);
+        }
+        return values;
+    }
+
+    private static Entry readEntry(Cursor cursor) {
+        Entry entry = new Entry();
+        entry.identifier = cursor.getString(0);
+        entry.parentIdentifier = cursor.getString(1);
+        entry.name = cursor.getString(2);
+        String type = cursor.getString(3);
+        if (type != null) {
+            try {
+                entry.type = Entry.Type.valueOf(type);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown type " + type);
+            }
+        }
+        entry.bytes = cursor.getLong(4);
+        entry.size = cursor.getString(5);
+        if (!cursor.isNull(6)) {
+            entry.creationDate = new Date(cursor.getLong(6));
+        }
+        entry.downloadURL = cursor.getString(7);
+        entry.previewURL = cursor.getString(8);
+        entry.thumbnailURL = cursor.getString(9);
+        entry.extraInfoAvailable = cursor.getInt(10) != 0;
+        if (entry.type == Entry.Type.DIRECTORY) {
+            entry.contents = new ArrayList<Entry>();
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.cache;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.android.volley.toolbox.ImageLoader;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Image cache of the SDK with two tiers: decoded bitmaps in a memory LRU bounded in bytes, and
+ * encoded images in a disk LRU which survives the process. Keys are the entry identifier and
+ * the variant (thumbnail, preview...), followed by the size bucket in the memory tier.
+ * Set it with {@link com.orange.labs.sdk.OrangeCloudAPI#setImageCache(ImageLoader.ImageCache)}.
+ */
+public class TwoTierImageCache implements ImageLoader.ImageCache {
+
+    private final LruCache<String, Bitmap> memory;
+    private final DiskCache disk;
+    private final BitmapPool pool = new BitmapPool();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a cache with a memory tier of 1/8 of the heap and a disk tier of 20 MB in the
+     * cache directory of the application.
+     *
+     * @param context context of the application
+     */
+    public TwoTierImageCache(Context context) {
+        this(context, (int) (Runtime.getRuntime().maxMemory() / 8), 20 * 1024 * 1024);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param context     context of the application
+     * @param memorySize  maximum size of the decoded bitmaps in memory, in bytes
+     * @param diskSize    maximum size of the encoded images on disk, in bytes
+     */
+    public TwoTierImageCache(Context context, int memorySize, long diskSize) {
+        memory = new LruCache<String, Bitmap>(memorySize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+        disk = new DiskCache(new File(context.getCacheDir(), "orange_images"), diskSize);
+    }
+
+    @Override
+    public Bitmap getBitmap(String key) {
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) {
+            memoryHits.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void putBitmap(String key, Bitmap bitmap) {
+        memory.put(key, bitmap);
+    }
+
+    /**
+     * Get an encoded image from the disk tier. Does disk I/O: has to be called from a
+     * background thread.
+     *
+     * @param key the key
+     * @return the encoded image or null
+     */
+    public byte[] getEncoded(String key) {
+        byte[] data = disk.get(key);
+        if (data != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return data;
+    }
+
+    /**
+     * Store an encoded image in the disk tier. Does disk I/O: has to be called from a
+     * background thread.
+     *
+     * @param key  the key
+     * @param data the encoded image
+     */
+    public void putEncoded(String key, byte[] data) {
+        disk.put(key, data);
+    }
+
+    /**
+     * Remove an encoded image from the disk tier, for instance when it can not be decoded.
+     * Does disk I/O: has to be called from a background thread.
+     *
+     * @param key the key
+     */
+    public void removeEncoded(String key) {
+        disk.remove(key);
+    }
+
+    /**
+     * Give back a bitmap that is not displayed any more, by any view, so that its memory is
+     * reused to decode the next images. The bitmap is removed from the memory tier, since its
+     * pixels will be overwritten. Bitmaps evicted from the memory tier are never reused: they
+     * may still be displayed.
+     *
+     * @param bitmap a bitmap returned by the SDK and no more used
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        for (Map.Entry<String, Bitmap> entry : memory.snapshot().entrySet()) {
+            if (entry.getValue() == bitmap) {
+                memory.remove(entry.getKey());
+            }
+        }
+        pool.put(bitmap);
+    }
+
+    /**
+     * @return the pool of the bitmaps given back with {@link #release(Bitmap)}, reused to
+     * decode new images
+     */
+    public BitmapPool getBitmapPool() {
+        return pool;
+    }
+
+    /**
+     * Remove all the images of both tiers. Does disk I/O: has to be called from a background
+     * thread.
+     */
+    public void clear() {
+        memory.evictAll();
+        pool.clear();
+        disk.clear();
+    }
+
+    /**
+     * @return number of images served by the memory tier
+     */
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    /**
+     * @return number of images served by the disk tier
+     */
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return number of images found in neither tier
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return ratio of the images served by the cache [0,1]
+     */
+    public float getHitRate() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return (total == 0) ? 0 : (float) hits / total;
+    }
+}
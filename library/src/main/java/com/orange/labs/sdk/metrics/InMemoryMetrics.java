@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.metrics;
+
+import com.orange.labs.sdk.exception.OrangeAPIException;
+import com.orange.labs.sdk.retry.CircuitBreaker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default {@link MetricsListener}: keeps in memory, for each operation, a latency histogram
+ * and counters of calls, errors, retries, token refreshes, bytes and cache lookups. Snapshots give the
+ * percentiles of the latency at any time. The state of the circuit of each host is kept too.
+ */
+public class InMemoryMetrics implements MetricsListener {
+
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+    private final ConcurrentHashMap<String, CircuitBreaker.State> circuits =
+            new ConcurrentHashMap<String, CircuitBreaker.State>();
+    private final ConcurrentHashMap<String, AtomicLong> circuitOpenings =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    @Override
+    public void onCall(String operation, long durationMillis, int retries, int refreshes,
+                       OrangeAPIException error) {
+        Stats operationStats = get(operation);
+        synchronized (operationStats) {
+            operationStats.latency.record(durationMillis);
+            operationStats.retries += retries;
+            operationStats.refreshes += refreshes;
+            if (error != null) {
+                operationStats.errors++;
+                String code = error.getStatusCode() + " " + error.getCode();
+                Long count = operationStats.errorCodes.get(code);
+                operationStats.errorCodes.put(code, (count == null) ? 1 : count + 1);
+            }
+        }
+    }
+
+    @Override
+    public void onTraffic(String operation, long bytesIn, long bytesOut) {
+        Stats operationStats = get(operation);
+        synchronized (operationStats) {
+            operationStats.exchanges++;
+            operationStats.bytesIn += bytesIn;
+            operationStats.bytesOut += bytesOut;
+        }
+    }
+
+    @Override
+    public void onCacheLookup(String operation, boolean hit) {
+        Stats operationStats = get(operation);
+        synchronized (operationStats) {
+            if (hit) {
+                operationStats.cacheHits++;
+            } else {
+                operationStats.cacheMisses++;
+            }
+        }
+    }
+
+    @Override
+    public void onCircuitStateChange(String host, CircuitBreaker.State state) {
+        circuits.put(host, state);
+        if (state == CircuitBreaker.State.OPEN) {
+            AtomicLong openings = circuitOpenings.get(host);
+            if (openings == null) {
+                AtomicLong created = new AtomicLong();
+                openings = circuitOpenings.putIfAbsent(host, created);
+                if (openings == null) {
+                    openings = created;
+                }
+            }
+            openings.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the state of the circuit of each host whose circuit has changed at least once
+     */
+    public Map<String, CircuitBreaker.State> getCircuitStates() {
+        return new HashMap<String, CircuitBreaker.State>(circuits);
+    }
+
+    /**
+     * @param host the host
+     * @return number of times the circuit of the host has opened
+     */
+    public long getCircuitOpenings(String host) {
+        AtomicLong openings = circuitOpenings.get(host);
+        return (openings != null) ? openings.get() : 0;
+    }
+
+    /**
+     * @param operation the operation
+     * @return the measures of the operation, null if never measured
+     */
+    public Snapshot getSnapshot(String operation) {
+        Stats operationStats = stats.get(operation);
+        return (operationStats != null) ? operationStats.snapshot(operation) : null;
+    }
+
+    /**
+     * @return the measures of all the operations, by operation
+     */
+    public Map<String, Snapshot> getSnapshots() {
+        Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forget all the measures. The current states of the circuits are kept.
+     */
+    public void reset() {
+        stats.clear();
+        circuitOpenings.clear();
+    }
+
+    private Stats get(String operation) {
+        Stats operationStats = stats.get(operation);
+        if (operationStats == null) {
+            Stats created = new Stats();
+            operationStats = stats.putIfAbsent(operation, created);
+            if (operationStats == null) {
+                operationStats = created;
+            }
+        }
+        return operationStats;
+    }
+
+    private static class Stats {
+        final Histogram latency = new Histogram();
+        final Map<String, Long> errorCodes = new HashMap<String, Long>();
+        long errors;
+        long retries;
+        long refreshes;
+        long exchanges;
+        long bytesIn;
+        long bytesOut;
+        long cacheHits;
+        long cacheMisses;
+
+        synchronized Snapshot snapshot(String operation) {
+            return new Snapshot(operation, this);
+        }
+    }
+
+    /**
+     * Measures of an operation at a point in time.
+     */
+    public static class Snapshot {
+
+        public final String operation;
+
+        /**
+         * Number of calls ended, with success or error.
+         */
+        public final long calls;
+        public final long errors;
+
+        /**
+         * Number of calls sent again after a transient error.
+         */
+        public final long retries;
+
+        /**
+         * Number of calls sent again after a 401, with a refreshed token.
+         */
+        public final long refreshes;
+
+        /**
+         * Latency of the calls, in milliseconds. Percentiles are accurate to 12.5%.
+         */
+        public final double meanMillis;
+        public final long p50Millis;
+        public final long p90Millis;
+        public final long p99Millis;
+        public final long maxMillis;
+
+        /**
+         * Number of HTTP exchanges and their body sizes.
+         */
+        public final long exchanges;
+        public final long bytesIn;
+        public final long bytesOut;
+
+        public final long cacheHits;
+        public final long cacheMisses;
+
+        /**
+         * Number of errors by "statusCode code".
+         */
+        public final Map<String, Long> errorCodes;
+
+        private Snapshot(String operation, Stats stats) {
+            this.operation = operation;
+            this.calls = stats.latency.getCount();
+            this.errors = stats.errors;
+            this.retries = stats.retries;
+            this.refreshes = stats.refreshes;
+            this.meanMillis = stats.latency.getMean();
+            this.p50Millis = stats.latency.getPercentile(50);
+            this.p90Millis = stats.latency.getPercentile(90);
+            this.p99Millis = stats.latency.getPercentile(99);
+            this.maxMillis = stats.latency.getMax();
+            this.exchanges = stats.exchanges;
+            this.bytesIn = stats.bytesIn;
+            this.bytesOut = stats.bytesOut;
+            this.cacheHits = stats.cacheHits;
+            this.cacheMisses = stats.cacheMisses;
+            this.errorCodes = Collections.unmodifiableMap(
+                    new HashMap<String, Long>(stats.errorCodes));
+        }
+
+        @Override
+        public String toString() {
+            return operation + ": " + calls + " calls, " + errors + " errors, p50 " + p50Millis
+                    + " ms, p90 " + p90Millis + " ms, p99 " + p99Millis + " ms, max "
+                    + maxMillis + " ms, " + bytesIn + " bytes in, " + bytesOut + " bytes out";
+        }
+    }
+}
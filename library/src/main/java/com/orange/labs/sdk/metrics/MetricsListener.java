@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.metrics;
+
+import com.orange.labs.sdk.exception.OrangeAPIException;
+import com.orange.labs.sdk.retry.CircuitBreaker;
+
+/**
+ * Receives the measures of the SDK calls, to be plugged in with
+ * {@link com.orange.labs.sdk.OrangeCloudAPI#setMetrics(MetricsListener)}. Operations are named
+ * after the SDK methods (freespace, listEntries, fileInfo, thumbnail, upload...).
+ * Methods are called from the main thread and from the network and transfer threads: an
+ * implementation has to be thread safe and fast, see {@link InMemoryMetrics}.
+ */
+public interface MetricsListener {
+
+    /**
+     * Called when a call ends, once its callback is about to be called.
+     *
+     * @param operation      the operation
+     * @param durationMillis time from the call to its result, token refreshes included
+     * @param retries        number of times the call has been sent again after a transient
+     *                       error
+     * @param refreshes      number of times the call has been sent again after a 401, with
+     *                       a refreshed token
+     * @param error          the error returned, null on success
+     */
+    void onCall(String operation, long durationMillis, int retries, int refreshes,
+                OrangeAPIException error);
+
+    /**
+     * Called for each HTTP exchange of an operation.
+     *
+     * @param operation the operation
+     * @param bytesIn   size of the response body
+     * @param bytesOut  size of the request body
+     */
+    void onTraffic(String operation, long bytesIn, long bytesOut);
+
+    /**
+     * Called when a response is looked up in a cache: images in memory or on disk, listings
+     * revalidated with a 304 Not Modified.
+     *
+     * @param operation the operation
+     * @param hit       true if the cache gave the response
+     */
+    void onCacheLookup(String operation, boolean hit);
+
+    /**
+     * Called when the circuit breaker of a host changes its state: open when the host fails,
+     * half open when trial requests are sent, closed when the host is healthy again.
+     *
+     * @param host  the host
+     * @param state the new state
+     */
+    void onCircuitStateChange(String host, CircuitBreaker.State state);
+}
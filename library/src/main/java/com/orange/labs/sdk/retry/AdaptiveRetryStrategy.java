@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.retry;
+
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.orange.labs.sdk.RestUtils;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default {@link RetryStrategy}:
+ * <ul>
+ * <li>the timeout of an attempt grows with the expected size of the response, given by the
+ * call or set by operation, at a minimal throughput;</li>
+ * <li>timeouts, connection errors, 408, 429, 500, 502, 503 and 504 are retried with an
+ * exponential backoff and a full jitter. A Retry-After header is honored;</li>
+ * <li>calls rejected by an open {@link CircuitBreaker} are not retried;</li>
+ * <li>calls that are not idempotent (create, copy, move...) are retried only when the server
+ * has surely not processed them: 429 and failed connections;</li>
+ * <li>calls have 30 seconds to succeed, retries and token refreshes included. Uploads,
+ * downloads and full size images have no deadline.</li>
+ * </ul>
+ */
+public class AdaptiveRetryStrategy implements RetryStrategy {
+
+    public static final int DEFAULT_TIMEOUT = 5000;
+    public static final long DEFAULT_MIN_THROUGHPUT = 32 * 1024;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_BASE_DELAY = 250;
+    public static final long DEFAULT_MAX_DELAY = 8000;
+    public static final long DEFAULT_DEADLINE = 30000;
+
+    private final Random random = new Random();
+    private final Map<String, Long> expectedBytes = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<String, Long>();
+
+    private volatile int timeout = DEFAULT_TIMEOUT;
+    private volatile long minThroughput = DEFAULT_MIN_THROUGHPUT;
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile long baseDelay = DEFAULT_BASE_DELAY;
+    private volatile long maxDelay = DEFAULT_MAX_DELAY;
+    private volatile long deadline = DEFAULT_DEADLINE;
+
+    public AdaptiveRetryStrategy() {
+        expectedBytes.put("thumbnail", 32L * 1024);
+        expectedBytes.put("preview", 512L * 1024);
+        expectedBytes.put("content", 4L * 1024 * 1024);
+        deadlines.put(RestUtils.UPLOAD_OPERATION, 0L);
+        deadlines.put(RestUtils.DOWNLOAD_OPERATION, 0L);
+        deadlines.put("content", 0L);
+    }
+
+    /**
+     * @param timeout timeout of an attempt without response body, in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive.");
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param bytesPerSecond throughput below which an attempt is considered as stalled
+     */
+    public void setMinThroughput(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive.");
+        }
+        this.minThroughput = bytesPerSecond;
+    }
+
+    /**
+     * @param operation the operation
+     * @param bytes     expected size of its responses when the call does not give it
+     */
+    public void setExpectedBytes(String operation, long bytes) {
+        expectedBytes.put(operation, bytes);
+    }
+
+    /**
+     * @param maxRetries number of retries of a call after a transient error, 0 for none
+     */
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative.");
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param baseDelay upper bound of the delay before the first retry, doubled at each retry
+     * @param maxDelay  upper bound of the delay before any retry
+     */
+    public void setBackoff(long baseDelay, long maxDelay) {
+        if (baseDelay <= 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("baseDelay must be in ]0, maxDelay].");
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * @param deadline time allowed to the calls without a deadline of their own, 0 for no limit
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param operation the operation
+     * @param deadline  time allowed to its calls, 0 for no limit
+     */
+    public void setDeadline(String operation, long deadline) {
+        deadlines.put(operation, deadline);
+    }
+
+    @Override
+    public int getTimeout(String operation, long expectedBytes) {
+        long bytes = expectedBytes;
+        if (bytes <= 0) {
+            Long expected = this.expectedBytes.get(operation);
+            bytes = (expected != null) ? expected : 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, timeout + bytes * 1000 / minThroughput);
+    }
+
+    @Override
+    public long getRetryDelay(String operation, boolean idempotent, int attempt,
+                              OrangeAPIException error) {
+        // A call rejected by an open circuit would be rejected again
+        if (attempt > maxRetries || error.getCause() instanceof CircuitOpenError
+                || !(idempotent ? isTransient(error) : isNotProcessed(error))) {
+            return -1;
+        }
+        // Full jitter: clients failing together do not retry together
+        long bound = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+        long delay = (long) (random.nextDouble() * bound);
+        return Math.max(delay, retryAfter(error));
+    }
+
+    @Override
+    public long getDeadline(String operation) {
+        Long value = deadlines.get(operation);
+        return (value != null) ? value : deadline;
+    }
+
+    /**
+     * @return true if the error may not happen again
+     */
+    protected boolean isTransient(OrangeAPIException error) {
+        switch (error.getStatusCode()) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            case 0:
+                Throwable cause = error.getCause();
+                if (cause instanceof TimeoutError) {
+                    return true;
+                }
+                if (!(cause instanceof NetworkError)) {
+                    return false;
+                }
+                // A paused or cancelled transfer interrupts its thread, but a read timeout
+                // is an interrupted I/O too
+                Throwable origin = cause.getCause();
+                return origin instanceof SocketTimeoutException
+                        || !(origin instanceof InterruptedIOException);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the request has surely not been processed by the server
+     */
+    protected boolean isNotProcessed(OrangeAPIException error) {
+        if (error.getStatusCode() == 429) {
+            return true;
+        }
+        Throwable cause = error.getCause();
+        if (error.getStatusCode() != 0 || !(cause instanceof NetworkError)) {
+            return false;
+        }
+        Throwable reason = cause.getCause();
+        return reason instanceof ConnectException || reason instanceof UnknownHostException;
+    }
+
+    /**
+     * @return the delay asked by a Retry-After header in seconds, 0 if none
+     */
+    private static long retryAfter(OrangeAPIException error) {
+        if (!(error.getCause() instanceof VolleyError)) {
+            return 0;
+        }
+        NetworkResponse response = ((VolleyError) error.getCause()).networkResponse;
+        if (response == null || response.headers == null) {
+            return 0;
+        }
+        String value = response.headers.get("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // HTTP date: not worth the parsing for a backoff
+            return 0;
+        }
+    }
+}
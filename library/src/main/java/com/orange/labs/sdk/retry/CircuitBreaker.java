@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.retry;
+
+import android.os.SystemClock;
+
+/**
+ * Circuit breaker of a host. It trips when the recent requests fail or are slow too often:
+ * requests are then rejected at once during a cool down, instead of waiting for timeouts.
+ * After the cool down, a few trial requests are let through (half open): the circuit closes
+ * if they succeed and opens again otherwise.
+ * <p>
+ * Only failures of the server count: timeouts, connection errors, 429 and 5xx. Other errors
+ * (404, expired token...) show a healthy server.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Listener of the state changes of a circuit.
+     */
+    public interface Listener {
+        void onStateChange(CircuitBreaker breaker, State state);
+    }
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MIN_CALLS = 10;
+    public static final float DEFAULT_FAILURE_RATE = 0.5f;
+    public static final long DEFAULT_SLOW_CALL_DURATION = 4000;
+    public static final float DEFAULT_SLOW_CALL_RATE = 0.8f;
+    public static final long DEFAULT_OPEN_DURATION = 10000;
+    public static final int DEFAULT_TRIAL_CALLS = 2;
+
+    private final String name;
+    private final Listener listener;
+
+    private volatile int minCalls = DEFAULT_MIN_CALLS;
+    private volatile float failureRate = DEFAULT_FAILURE_RATE;
+    private volatile long slowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+    private volatile float slowCallRate = DEFAULT_SLOW_CALL_RATE;
+    private volatile long openDuration = DEFAULT_OPEN_DURATION;
+    private volatile int trialCalls = DEFAULT_TRIAL_CALLS;
+
+    // Outcomes of the last requests, in a ring
+    private boolean[] failed = new boolean[DEFAULT_WINDOW_SIZE];
+    private boolean[] slow = new boolean[DEFAULT_WINDOW_SIZE];
+    private int count;
+    private int next;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trials;
+    private int trialSuccesses;
+
+    /**
+     * @param name     name of the circuit, usually the host
+     * @param listener listener of the state changes, can be null
+     */
+    public CircuitBreaker(String name, Listener listener) {
+        this.name = name;
+        this.listener = listener;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @param windowSize number of last requests the rates are computed on
+     * @param minCalls   number of requests needed in the window before the circuit can trip
+     */
+    public synchronized void setWindow(int windowSize, int minCalls) {
+        if (windowSize <= 0 || minCalls <= 0 || minCalls > windowSize) {
+            throw new IllegalArgumentException("minCalls must be in ]0, windowSize].");
+        }
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+        this.minCalls = minCalls;
+        reset();
+    }
+
+    /**
+     * @param failureRate rate of failed requests in the window which trips the circuit
+     */
+    public void setFailureRate(float failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @param duration duration from which a request is slow, in milliseconds
+     * @param rate     rate of slow requests in the window which trips the circuit
+     */
+    public void setSlowCalls(long duration, float rate) {
+        this.slowCallDuration = duration;
+        this.slowCallRate = rate;
+    }
+
+    /**
+     * @param duration time the circuit stays open before trial requests, in milliseconds
+     * @param trials   number of trial requests which have to succeed to close the circuit
+     */
+    public void setRecovery(long duration, int trials) {
+        if (trials <= 0) {
+            throw new IllegalArgumentException("trials must be positive.");
+        }
+        this.openDuration = duration;
+        this.trialCalls = trials;
+    }
+
+    /**
+     * @return true if the circuit is open and requests are rejected. Does not count as a trial
+     * request, see {@link #allowRequest()}.
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && SystemClock.elapsedRealtime() - openedAt < openDuration;
+    }
+
+    /**
+     * Ask for the sending of a request. Once the circuit is half open, each call takes one of
+     * the trial requests.
+     *
+     * @return true if the request can be sent, false if it has to be rejected
+     */
+    public boolean allowRequest() {
+        boolean allowed;
+        State changed = null;
+        synchronized (this) {
+            if (state == State.OPEN && SystemClock.elapsedRealtime() - openedAt >= openDuration) {
+                state = State.HALF_OPEN;
+                trials = 0;
+                trialSuccesses = 0;
+                changed = state;
+            }
+            if (state == State.HALF_OPEN) {
+                allowed = trials < trialCalls;
+                if (allowed) {
+                    trials++;
+                }
+            } else {
+                allowed = state == State.CLOSED;
+            }
+        }
+        notify(changed);
+        return allowed;
+    }
+
+    /**
+     * Record the outcome of a request.
+     *
+     * @param failure        true if the server failed
+     * @param durationMillis duration of the request, 0 when it does not tell the server health
+     *                       (long transfers)
+     */
+    public void onResult(boolean failure, long durationMillis) {
+        boolean isSlow = durationMillis >= slowCallDuration;
+        State changed = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                if (failure || isSlow) {
+                    changed = open();
+                } else if (++trialSuccesses >= trialCalls) {
+                    changed = close();
+                }
+            } else if (state == State.CLOSED) {
+                record(failure, isSlow);
+                if (count >= minCalls && (failures >= failureRate * count
+                        || slowCalls >= slowCallRate * count)) {
+                    changed = open();
+                }
+            }
+            // Open: requests sent before the trip, nothing to learn
+        }
+        notify(changed);
+    }
+
+    private void record(boolean failure, boolean isSlow) {
+        if (count == failed.length) {
+            // Drop the oldest outcome
+            failures -= failed[next] ? 1 : 0;
+            slowCalls -= slow[next] ? 1 : 0;
+        } else {
+            count++;
+        }
+        failed[next] = failure;
+        slow[next] = isSlow;
+        failures += failure ? 1 : 0;
+        slowCalls += isSlow ? 1 : 0;
+        next = (next + 1) % failed.length;
+    }
+
+    private State open() {
+        state = State.OPEN;
+        openedAt = SystemClock.elapsedRealtime();
+        reset();
+        return state;
+    }
+
+    private State close() {
+        state = State.CLOSED;
+        reset();
+        return state;
+    }
+
+    private void reset() {
+        count = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private void notify(State changed) {
+        if (changed != null && listener != null) {
+            listener.onStateChange(this, changed);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.retry;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+/**
+ * Error of a request rejected because the circuit of its host is open. It is seen by the
+ * callbacks as a {@link com.orange.labs.sdk.exception.CloudAPIException} with the status
+ * code 503 and the code {@link #CODE}, and is never retried.
+ */
+public class CircuitOpenError extends VolleyError {
+
+    public static final String CODE = "CIRCUIT_OPEN";
+
+    public CircuitOpenError(String host) {
+        super(new NetworkResponse(503, body(host), Collections.<String, String>emptyMap(), false));
+    }
+
+    private static byte[] body(String host) {
+        return ("{\"error\":{\"code\":\"" + CODE + "\",\"message\":\"Circuit open\","
+                + "\"description\":\"" + host + " is failing, requests are rejected for a "
+                + "while\"}}").getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.retry;
+
+import com.orange.labs.sdk.exception.OrangeAPIException;
+
+/**
+ * Decides the timeouts, the retries and the deadline of the SDK calls, to be plugged in with
+ * {@link com.orange.labs.sdk.OrangeCloudAPI#setRetryStrategy(RetryStrategy)}. Operations are
+ * named after the SDK methods, as for the metrics. Expired tokens are handled apart: the
+ * session is refreshed and the call sent again, within the deadline of the call.
+ * Methods are called from the main thread and from the network and transfer threads: an
+ * implementation has to be thread safe. See {@link AdaptiveRetryStrategy}.
+ */
+public interface RetryStrategy {
+
+    /**
+     * @param operation     the operation
+     * @param expectedBytes expected size of the response, 0 if unknown
+     * @return timeout of one attempt, in milliseconds
+     */
+    int getTimeout(String operation, long expectedBytes);
+
+    /**
+     * @param operation  the operation
+     * @param idempotent true if sending the call again has the same effect as sending it once
+     * @param attempt    number of the retry, starting at 1
+     * @param error      the error of the last attempt
+     * @return delay before the retry in milliseconds, -1 to report the error
+     */
+    long getRetryDelay(String operation, boolean idempotent, int attempt,
+                       OrangeAPIException error);
+
+    /**
+     * @param operation the operation
+     * @return time allowed to a call in milliseconds, retries and token refreshes included,
+     * 0 for no limit
+     */
+    long getDeadline(String operation);
+}
@@ -28,15 +28,19 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Base64;
+import android.util.Log;
 
+import com.android.volley.ParseError;
 import com.android.volley.Request;
-import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.Volley;
 import com.orange.labs.sdk.OrangeListener;
 import com.orange.labs.sdk.RestUtils;
 import com.orange.labs.sdk.activity.AuthActivity;
+import com.orange.labs.sdk.exception.CloudAPIException;
 import com.orange.labs.sdk.exception.OrangeAPIException;
 
 import org.json.JSONException;
@@ -45,6 +49,7 @@ import org.json.JSONObject;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -64,19 +69,61 @@ public class AuthSession implements Session {
             = "com.orange.sdk.androidAuthSession.FORCE_LOGIN";
     private static final String[] API_DEFAULT_SCOPES = new String[]{"openid", "offline_access"};
 
+    private static String TAG = AuthSession.class.toString();
+
+    /**
+     * Default delay before the expiry of the access token at which it is renewed.
+     */
+    public static final long DEFAULT_RENEWAL_MARGIN = 60 * 1000;
+
     private final String appKey;
     private final String appSecret;
     private final String redirectURI;
+    // Headers of the token requests, computed once
+    private final Map<String, String> headers;
 
-    private String accessToken = "";
+    private volatile Credentials credentials = Credentials.NONE;
     private String refreshToken = "";
     private Date expiresIn;
 
+    // Expiry and lifetime of the access token on the elapsed realtime clock, which is not
+    // changed by the user or by network time updates
+    private volatile long tokenExpiry;
+    private volatile long tokenLifetime;
+    private volatile long renewalMargin = DEFAULT_RENEWAL_MARGIN;
+    private volatile String apiServer = API_SERVER;
+    private volatile String preferencesName = SHARED_PREFERENCES_KEY;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable renewal = new Runnable() {
+        @Override
+        public void run() {
+            refresh(new OrangeListener.Success<String>() {
+                @Override
+                public void onResponse(String response) {
+                }
+            }, new OrangeListener.Error() {
+                @Override
+                public void onErrorResponse(OrangeAPIException error) {
+                    // Next calls will refresh the token again
+                    Log.w(TAG, "Unable to renew access token: " + error.getMessage());
+                }
+            });
+        }
+    };
+
     private Context context;
     private RestUtils restClient;
 
     private List<String> scopes;
 
+    // Calls waiting for the refresh in flight
+    private final List<OrangeListener.Success<String>> refreshListeners =
+            new ArrayList<OrangeListener.Success<String>>();
+    private final List<OrangeListener.Error> refreshErrorListeners =
+            new ArrayList<OrangeListener.Error>();
+    private boolean refreshing;
+
 
     /**
      * Create a new session to authenticate Android apps with the given app
@@ -106,6 +153,10 @@ public class AuthSession implements Session {
         this.redirectURI = redirectURI;
         this.context = context;
 
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "Basic " + encodedCredentials(appKey, appSecret));
+        this.headers = Collections.unmodifiableMap(headers);
+
         // Create default scope:
         for (String scope : API_DEFAULT_SCOPES)
             addScope(scope);
@@ -151,7 +202,23 @@ public class AuthSession implements Session {
 
     @Override
     public String getAccessToken() {
-        return accessToken;
+        return credentials.getAccessToken();
+    }
+
+    /**
+     * @return the current credentials, safe to read from any thread
+     */
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * Publish the credentials of a new access token.
+     *
+     * @param accessToken the new access token, empty when unlinked
+     */
+    private synchronized void setAccessToken(String accessToken) {
+        credentials = credentials.next(accessToken);
     }
 
     @Override
@@ -159,10 +226,112 @@ public class AuthSession implements Session {
         return expiresIn;
     }
 
-    private void setExpiresIn(int expiresIn) {
+    /**
+     * Send the token requests to another server than {@link #API_SERVER}, typically a local
+     * simulator for load tests. The login page of {@link com.orange.labs.sdk.activity.AuthActivity}
+     * is still the one of {@link #API_SERVER}.
+     *
+     * @param server the server url, without path (http://10.0.2.2:8080)
+     */
+    public void setApiServer(String server) {
+        if (server == null)
+            throw new IllegalArgumentException("'server' must be non-null");
+
+        this.apiServer = server.endsWith("/") ? server.substring(0, server.length() - 1) : server;
+    }
+
+    /**
+     * Keep the refresh token of this session in other shared preferences than the default
+     * ones, so that a second session, against a simulator for instance, never replaces the
+     * token of the user. To be called before any other method of the session.
+     *
+     * @param name name of the shared preferences
+     */
+    public void setPreferencesName(String name) {
+        if (name == null)
+            throw new IllegalArgumentException("'name' must be non-null");
+
+        this.preferencesName = name;
+    }
+
+    /**
+     * @return the server of the token requests
+     */
+    public String getApiServer() {
+        return apiServer;
+    }
+
+    /**
+     * Set the delay before the expiry of the access token at which it is renewed in the
+     * background. Calls made in this delay wait for the new token.
+     *
+     * @param margin delay in milliseconds, {@link #DEFAULT_RENEWAL_MARGIN} by default
+     */
+    public void setRenewalMargin(long margin) {
+        if (margin < 0)
+            throw new IllegalArgumentException("'margin' must be positive");
+
+        this.renewalMargin = margin;
+        scheduleRenewal();
+    }
+
+    /**
+     * Store the lifetime of a new access token. The lifetime is counted from the time the token
+     * request was sent, which is before the server issued the token: the local expiry is then
+     * always a bit early, whatever the offset between device and server clocks.
+     *
+     * @param expiresIn   lifetime of the token in seconds, 0 or less if not given
+     * @param requestedAt elapsed realtime when the token request was sent
+     */
+    private void setExpiresIn(int expiresIn, long requestedAt) {
+        long now = SystemClock.elapsedRealtime();
+        if (expiresIn > 0) {
+            tokenLifetime = expiresIn * 1000L;
+            tokenExpiry = requestedAt + tokenLifetime;
+        } else {
+            // Unknown expiry: the token is only refreshed once rejected
+            tokenLifetime = 0;
+            tokenExpiry = 0;
+        }
+
         Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.SECOND, expiresIn);
+        if (tokenExpiry != 0) {
+            calendar.add(Calendar.MILLISECOND, (int) (tokenExpiry - now));
+        }
         this.expiresIn = calendar.getTime();
+        scheduleRenewal();
+    }
+
+    /**
+     * @return the margin applied to the current token: never more than half its lifetime, so
+     * that a short lived token is not renewed in a loop
+     */
+    private long getEffectiveMargin() {
+        return Math.min(renewalMargin, tokenLifetime / 2);
+    }
+
+    private void scheduleRenewal() {
+        handler.removeCallbacks(renewal);
+        if (tokenExpiry == 0) {
+            return;
+        }
+        long delay = tokenExpiry - getEffectiveMargin() - SystemClock.elapsedRealtime();
+        // The handler clock stops in deep sleep: a late renewal is caught by needsRefresh()
+        handler.postDelayed(renewal, Math.max(0, delay));
+    }
+
+    /**
+     * @return true if the access token is being refreshed or is about to expire: calls should
+     * wait for {@link #refresh(OrangeListener.Success, OrangeListener.Error)} before being sent
+     */
+    public boolean needsRefresh() {
+        synchronized (refreshListeners) {
+            if (refreshing) {
+                return true;
+            }
+        }
+        return tokenExpiry != 0
+                && SystemClock.elapsedRealtime() >= tokenExpiry - getEffectiveMargin();
     }
 
     @Override
@@ -175,9 +344,6 @@ public class AuthSession implements Session {
 
     @Override
     public Map<String, String> getHeaders() {
-
-        HashMap<String, String> headers = new HashMap<String, String>();
-        headers.put("Authorization", "Basic " + encodedCredentials(appKey, appSecret));
         return headers;
     }
 
@@ -201,6 +367,7 @@ public class AuthSession implements Session {
     @Override
     public boolean isLinked() {
 
+        String accessToken = getAccessToken();
         if (accessToken == null || accessToken.length() == 0)
             return false;
 
@@ -214,26 +381,42 @@ public class AuthSession implements Session {
 
     @Override
     public void unlink() {
-        accessToken = "";
+        setAccessToken("");
+        tokenExpiry = 0;
+        handler.removeCallbacks(renewal);
         setRefreshToken("");
+        if (restClient != null) {
+            // The next user must not share the requests of this one
+            restClient.resetPrincipal();
+        }
 
         // Write that first connection user has to be connected
         // TODO: use this method because no way to do a real logout in IDENTITY Orange API.
-        SharedPreferences sharedPref = context.getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+        SharedPreferences sharedPref = context.getSharedPreferences(preferencesName, Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = sharedPref.edit();
         editor.putBoolean(SHARED_PREFERENCES_FORCE_LOGIN, true);
         editor.commit();
     }
 
+    /**
+     * Refresh the access token. A single token request is in flight at a time: calls made
+     * during a refresh wait for its result.
+     */
     @Override
     public void refresh(final OrangeListener.Success<String> success,
                         final OrangeListener.Error failure) {
 
-        // Instantiate the RequestQueue.
-        RequestQueue queue = Volley.newRequestQueue(context);
+        synchronized (refreshListeners) {
+            refreshListeners.add(success);
+            refreshErrorListeners.add(failure);
+            if (refreshing) {
+                return;
+            }
+            refreshing = true;
+        }
 
         // Prepare URL
-        String url = API_SERVER + "/oauth/v2/token";
+        String url = apiServer + "/oauth/v2/token";
 
         // Prepare params in body request
         Map<String, String> params = new HashMap<String, String>();
@@ -242,6 +425,7 @@ public class AuthSession implements Session {
         params.put("scope", getScope());
         params.put("redirect_uri", getRedirectUri());
 
+        final long requestedAt = SystemClock.elapsedRealtime();
         getRestClient().stringRequest(
                 "/session/refresh/",
                 Request.Method.POST,
@@ -251,19 +435,48 @@ public class AuthSession implements Session {
                 new Response.Listener<String>() {
                     @Override
                     public void onResponse(String response) {
-                        JSONObject jsonResponse = null;
                         try {
-                            jsonResponse = new JSONObject(response);
-                            accessToken = jsonResponse.optString("access_token");
+                            JSONObject jsonResponse = new JSONObject(response);
+                            setAccessToken(jsonResponse.optString("access_token"));
 
-                            setExpiresIn(jsonResponse.optInt("expires_in"));
-                            success.onResponse("OK");
+                            setExpiresIn(jsonResponse.optInt("expires_in"), requestedAt);
+                            completeRefresh(null);
                         } catch (JSONException e) {
-                            e.printStackTrace();
-                            //failure(e);
+                            completeRefresh(new CloudAPIException(new ParseError(e)));
                         }
                     }
-                }, failure);
+                }, new OrangeListener.Error() {
+                    @Override
+                    public void onErrorResponse(OrangeAPIException error) {
+                        completeRefresh(error);
+                    }
+                });
+    }
+
+    /**
+     * Deliver the result of a refresh to all the calls waiting for it.
+     *
+     * @param error the error, null on success
+     */
+    private void completeRefresh(OrangeAPIException error) {
+        List<OrangeListener.Success<String>> successes;
+        List<OrangeListener.Error> failures;
+        synchronized (refreshListeners) {
+            successes = new ArrayList<OrangeListener.Success<String>>(refreshListeners);
+            failures = new ArrayList<OrangeListener.Error>(refreshErrorListeners);
+            refreshListeners.clear();
+            refreshErrorListeners.clear();
+            refreshing = false;
+        }
+        if (error == null) {
+            for (OrangeListener.Success<String> success : successes) {
+                success.onResponse("OK");
+            }
+        } else {
+            for (OrangeListener.Error failure : failures) {
+                failure.onErrorResponse(error);
+            }
+        }
     }
 
     /**
@@ -284,7 +497,7 @@ public class AuthSession implements Session {
 
             // Check if Oauth has to force user to enter login & password
             SharedPreferences sharedPref = context.getApplicationContext()
-                    .getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+                    .getSharedPreferences(preferencesName, Context.MODE_PRIVATE);
             boolean forceLogin = sharedPref.getBoolean(SHARED_PREFERENCES_FORCE_LOGIN, false);
             intent.putExtra(AuthActivity.EXTRA_INTERNAL_APP_FORCE_LOGIN, forceLogin);
 
@@ -331,7 +544,7 @@ public class AuthSession implements Session {
                     // Check the authorization code to return an access token, refresh token...
 
                     // Prepare URL
-                    String url = API_SERVER + "/oauth/v2/token";
+                    String url = apiServer + "/oauth/v2/token";
                     // Prepare params in body request
 
                     Map<String, String> params = new HashMap<String, String>();
@@ -339,6 +552,7 @@ public class AuthSession implements Session {
                     params.put("code", data.getStringExtra(AuthActivity.EXTRA_AUTHORIZATION_CODE));
                     params.put("redirect_uri", redirectURI);
 
+                    final long requestedAt = SystemClock.elapsedRealtime();
                     getRestClient().stringRequest(
                             "/session/check/authorizationCode",
                             Request.Method.POST,
@@ -352,14 +566,15 @@ public class AuthSession implements Session {
                                     try {
                                         jsonResponse = new JSONObject(response);
                                         // save values :
-                                        accessToken = jsonResponse.optString("access_token");
+                                        setAccessToken(jsonResponse.optString("access_token"));
 
-                                        setExpiresIn(jsonResponse.optInt("expires_in"));
+                                        setExpiresIn(jsonResponse.optInt("expires_in"),
+                                                requestedAt);
 
                                         setRefreshToken(jsonResponse.optString("refresh_token"));
 
                                         // Check that authent is success !
-                                        SharedPreferences sharedPref = context.getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+                                        SharedPreferences sharedPref = context.getSharedPreferences(preferencesName, Context.MODE_PRIVATE);
                                         SharedPreferences.Editor editor = sharedPref.edit();
                                         editor.putBoolean(SHARED_PREFERENCES_FORCE_LOGIN, false);
                                         editor.commit();
@@ -383,17 +598,26 @@ public class AuthSession implements Session {
     private String getRefreshToken() {
         if (refreshToken == null || refreshToken.length() == 0) {
             // Check if refresh token has been stored
-            SharedPreferences sharedPref = context.getApplicationContext().getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+            SharedPreferences sharedPref = context.getApplicationContext().getSharedPreferences(preferencesName, Context.MODE_PRIVATE);
             refreshToken = sharedPref.getString(SHARED_PREFERENCES_REFRESH_TOKEN, "");
         }
         return refreshToken;
     }
 
-    private void setRefreshToken(String refreshToken) {
+    /**
+     * Link the session with a refresh token obtained without {@link
+     * com.orange.labs.sdk.activity.AuthActivity}, from a simulator for instance. The access
+     * token is then requested by {@link #checkAuthentication(OrangeListener.Success,
+     * OrangeListener.Error)}.
+     *
+     * @param refreshToken the refresh token, stored in the shared preferences of the session,
+     *                     see {@link #setPreferencesName(String)}
+     */
+    public void setRefreshToken(String refreshToken) {
         this.refreshToken = refreshToken;
 
         // Save refresh token in Shared Preferences
-        SharedPreferences sharedPref = context.getSharedPreferences(SHARED_PREFERENCES_KEY, Context.MODE_PRIVATE);
+        SharedPreferences sharedPref = context.getSharedPreferences(preferencesName, Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = sharedPref.edit();
         editor.putString(SHARED_PREFERENCES_REFRESH_TOKEN, refreshToken);
         editor.commit();
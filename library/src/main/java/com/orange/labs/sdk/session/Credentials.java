@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.session;
+
+import com.orange.labs.sdk.OrangeCloudAPI;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the credentials of a session. A new snapshot is published each time
+ * the access token changes, so that it can be read from any thread without locking. The
+ * headers of the Cloud Api requests are computed once per snapshot and shared by all requests.
+ */
+public final class Credentials {
+
+    /**
+     * Credentials of a session without access token.
+     */
+    public static final Credentials NONE = new Credentials("", 0);
+
+    private final String accessToken;
+    private final long version;
+    private final Map<String, String> headers;
+
+    Credentials(String accessToken, long version) {
+        this.accessToken = accessToken;
+        this.version = version;
+
+        HashMap<String, String> headers = new HashMap<String, String>(2);
+        headers.put("Authorization", "Bearer " + accessToken);
+        headers.put("X-OAPI-Agent", "Android-" + OrangeCloudAPI.SDK_VERSION);
+        this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @return the access token, empty if the session is not linked
+     */
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    /**
+     * @return the version of the snapshot, incremented on each token change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the HTTP headers of the Cloud Api requests, not modifiable
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @param accessToken an access token
+     * @return credentials of a session which does not publish its own snapshots
+     */
+    public static Credentials of(String accessToken) {
+        return new Credentials(accessToken, 0);
+    }
+
+    /**
+     * @param accessToken the new access token
+     * @return the snapshot following this one
+     */
+    Credentials next(String accessToken) {
+        return new Credentials(accessToken, version + 1);
+    }
+}
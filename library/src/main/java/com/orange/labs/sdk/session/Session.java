@@ -67,7 +67,7 @@ public interface Session {
     public RestUtils getRestClient();
 
     /**
-     * @return headers for http request with session parameters
+     * @return headers for http request with session parameters, not modifiable
      */
     public Map<String, String> getHeaders();
 
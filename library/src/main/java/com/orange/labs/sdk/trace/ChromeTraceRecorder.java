@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.trace;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link RequestEventListener} keeping the traces of the last requests in memory. Traces can
+ * be exported in the Chrome Trace Event format, to be opened in chrome://tracing or Perfetto:
+ * each request is a row, each of its phases a slice.
+ */
+public class ChromeTraceRecorder implements RequestEventListener {
+
+    /**
+     * Default number of requests kept.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final Map<Integer, RequestTrace> traces;
+
+    /**
+     * Create a recorder of the last {@link #DEFAULT_CAPACITY} requests.
+     */
+    public ChromeTraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a recorder.
+     *
+     * @param capacity number of requests kept, the oldest are forgotten first
+     */
+    public ChromeTraceRecorder(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than 0.");
+        }
+        traces = new LinkedHashMap<Integer, RequestTrace>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, RequestTrace> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void onEvent(int requestId, String tag, RequestEvent event,
+                                     long timeNanos) {
+        RequestTrace trace = traces.get(requestId);
+        if (trace == null) {
+            trace = new RequestTrace(requestId, tag);
+            traces.put(requestId, trace);
+        }
+        trace.set(event, timeNanos);
+    }
+
+    /**
+     * @return a copy of the traces kept, oldest request first
+     */
+    public synchronized List<RequestTrace> getTraces() {
+        List<RequestTrace> copy = new ArrayList<RequestTrace>(traces.size());
+        for (RequestTrace trace : traces.values()) {
+            copy.add(new RequestTrace(trace));
+        }
+        return copy;
+    }
+
+    /**
+     * Forget all the traces.
+     */
+    public synchronized void clear() {
+        traces.clear();
+    }
+
+    /**
+     * Write the traces kept in the Chrome Trace Event JSON format. The writer is not closed.
+     *
+     * @param writer where the JSON is written
+     * @throws IOException if the writer fails
+     */
+    public void writeTo(Writer writer) throws IOException {
+        JSONArray events = new JSONArray();
+        try {
+            for (RequestTrace trace : getTraces()) {
+                // Row of the request, named after its tag
+                JSONObject name = new JSONObject();
+                name.put("name", "thread_name");
+                name.put("ph", "M");
+                name.put("pid", 1);
+                name.put("tid", trace.getId());
+                name.put("args", new JSONObject().put("name", trace.getTag()));
+                events.put(name);
+                for (RequestTrace.Phase phase : RequestTrace.Phase.values()) {
+                    long duration = trace.getDuration(phase);
+                    if (duration == RequestTrace.UNKNOWN) {
+                        continue;
+                    }
+                    JSONObject event = new JSONObject();
+                    event.put("name", phase.name().toLowerCase());
+                    event.put("cat", "request");
+                    event.put("ph", "X");
+                    // Microseconds, as expected by the format
+                    event.put("ts", trace.getTime(phase.start) / 1000);
+                    event.put("dur", duration / 1000);
+                    event.put("pid", 1);
+                    event.put("tid", trace.getId());
+                    event.put("args", new JSONObject().put("tag", trace.getTag()));
+                    events.put(event);
+                }
+            }
+            writer.write(new JSONObject().put("traceEvents", events)
+                    .put("displayTimeUnit", "ms").toString());
+        } catch (JSONException e) {
+            throw new IOException(e.toString());
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.trace;
+
+/**
+ * The steps of the life of a request, in their order. A step can be missing: a response found
+ * in the Volley cache is never dispatched to the network, a transfer is never queued.
+ */
+public enum RequestEvent {
+
+    /**
+     * Request added to the Volley queue.
+     */
+    QUEUED,
+
+    /**
+     * Request taken by a network thread.
+     */
+    DISPATCHED,
+
+    /**
+     * Status line and headers of the response received: connection, TLS handshake, sending of
+     * the request and server time are before this step.
+     */
+    HEADERS_RECEIVED,
+
+    /**
+     * Body of the response fully read, or network error.
+     */
+    BODY_RECEIVED,
+
+    /**
+     * Response parsed, or error raised, and posted to the main thread.
+     */
+    PARSED,
+
+    /**
+     * Response taken by the main thread, callback about to be called.
+     */
+    DELIVERY_STARTED,
+
+    /**
+     * Callback returned.
+     */
+    DELIVERED
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.trace;
+
+/**
+ * Receives the steps of the requests sent by the SDK, to be plugged in with
+ * {@link com.orange.labs.sdk.OrangeCloudAPI#setRequestEventListener(RequestEventListener)}.
+ * Events are sent from the main thread, the network threads and the transfer threads: an
+ * implementation has to be thread safe and fast, and must not expect the events of a request
+ * in order, see {@link ChromeTraceRecorder}.
+ */
+public interface RequestEventListener {
+
+    /**
+     * @param requestId unique identifier of the request in the process
+     * @param tag       tag of the request ("Cloud/entries/list/...")
+     * @param event     the step reached
+     * @param timeNanos time of the step, from {@link System#nanoTime()}
+     */
+    void onEvent(int requestId, String tag, RequestEvent event, long timeNanos);
+}
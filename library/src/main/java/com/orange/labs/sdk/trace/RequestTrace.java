@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.trace;
+
+/**
+ * The steps reached by a request, and the time spent between them.
+ */
+public class RequestTrace {
+
+    /**
+     * Time intervals of a request, between two of its steps.
+     */
+    public enum Phase {
+        /**
+         * Wait in the Volley queue for a free network thread.
+         */
+        QUEUE(RequestEvent.QUEUED, RequestEvent.DISPATCHED),
+        /**
+         * Connection, TLS handshake, request sending and server time, up to the first byte.
+         */
+        WAIT(RequestEvent.DISPATCHED, RequestEvent.HEADERS_RECEIVED),
+        /**
+         * Reading of the response body.
+         */
+        TRANSFER(RequestEvent.HEADERS_RECEIVED, RequestEvent.BODY_RECEIVED),
+        /**
+         * Parsing of the response on the network thread.
+         */
+        PARSE(RequestEvent.BODY_RECEIVED, RequestEvent.PARSED),
+        /**
+         * Wait for the main thread.
+         */
+        MAIN_THREAD(RequestEvent.PARSED, RequestEvent.DELIVERY_STARTED),
+        /**
+         * Callback of the caller.
+         */
+        CALLBACK(RequestEvent.DELIVERY_STARTED, RequestEvent.DELIVERED);
+
+        final RequestEvent start;
+        final RequestEvent end;
+
+        Phase(RequestEvent start, RequestEvent end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Time of a step not reached.
+     */
+    public static final long UNKNOWN = -1;
+
+    private final int id;
+    private final String tag;
+    private final long[] times = new long[RequestEvent.values().length];
+
+    RequestTrace(int id, String tag) {
+        this.id = id;
+        this.tag = tag;
+        for (int i = 0; i < times.length; i++) {
+            times[i] = UNKNOWN;
+        }
+    }
+
+    RequestTrace(RequestTrace trace) {
+        this.id = trace.id;
+        this.tag = trace.tag;
+        System.arraycopy(trace.times, 0, times, 0, times.length);
+    }
+
+    void set(RequestEvent event, long timeNanos) {
+        times[event.ordinal()] = timeNanos;
+    }
+
+    /**
+     * @return unique identifier of the request in the process
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return tag of the request
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @param event a step
+     * @return time of the step in nanoseconds, from {@link System#nanoTime()}, or
+     * {@link #UNKNOWN}
+     */
+    public long getTime(RequestEvent event) {
+        return times[event.ordinal()];
+    }
+
+    /**
+     * @param phase a phase
+     * @return duration of the phase in nanoseconds, or {@link #UNKNOWN} if one of its steps has
+     * not been reached
+     */
+    public long getDuration(Phase phase) {
+        long start = getTime(phase.start);
+        long end = getTime(phase.end);
+        return (start == UNKNOWN || end == UNKNOWN) ? UNKNOWN : end - start;
+    }
+
+    /**
+     * @return true once the callback of the request has returned
+     */
+    public boolean isDelivered() {
+        return getTime(RequestEvent.DELIVERED) != UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(tag).append(" #").append(id);
+        for (Phase phase : Phase.values()) {
+            long duration = getDuration(phase);
+            if (duration != UNKNOWN) {
+                builder.append(", ").append(phase.name().toLowerCase()).append(' ')
+                        .append(duration / 1000000).append(" ms");
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.transfer;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import com.android.volley.toolbox.ByteArrayPool;
+import com.orange.labs.sdk.OrangeListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Low level helpers used to stream file content over {@link HttpURLConnection}.
+ *
+ * Bodies are never buffered in memory: a request body is sent in fixed length streaming
+ * mode when its size is known (chunked mode otherwise) and bytes are moved through a small
+ * pool of reusable buffers.
+ */
+public final class HttpTransfer {
+
+    /**
+     * Size of the buffers used to move bytes between streams.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Value used when the length of a content is not known.
+     */
+    public static final long UNKNOWN_LENGTH = -1;
+
+    // Keep a few buffers around, enough for some parallel transfers
+    private static final ByteArrayPool sBufferPool = new ByteArrayPool(8 * BUFFER_SIZE);
+
+    // Minimal ratio between two progress notifications
+    private static final float PROGRESS_STEP = 0.01f;
+
+    private HttpTransfer() {
+    }
+
+    /**
+     * @return a buffer of at least {@link #BUFFER_SIZE} bytes taken from the pool
+     */
+    public static byte[] acquireBuffer() {
+        return sBufferPool.getBuf(BUFFER_SIZE);
+    }
+
+    /**
+     * Give back a buffer obtained by {@link #acquireBuffer()}.
+     *
+     * @param buffer the buffer to release
+     */
+    public static void releaseBuffer(byte[] buffer) {
+        sBufferPool.returnBuf(buffer);
+    }
+
+    /**
+     * Open a connection ready to stream a request body.
+     *
+     * @param url     the url to call
+     * @param method  the HTTP method (POST, PUT...)
+     * @param headers the HTTP headers to add
+     * @param length  the length of the body or {@link #UNKNOWN_LENGTH}
+     * @param timeout connect timeout, and maximal wait for the response once the body is
+     *                sent, in milliseconds. 0 for none. Both measure inactivity: a base
+     *                timeout, not one scaled with the size of the body.
+     * @return a connection whose output stream can be written
+     * @throws IOException if the connection can not be opened
+     */
+    public static HttpURLConnection openUpload(URL url,
+                                               String method,
+                                               Map<String, String> headers,
+                                               long length,
+                                               int timeout) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setDoInput(true);
+        conn.setDoOutput(true);
+        conn.setUseCaches(false);
+        conn.setRequestMethod(method);
+
+        // Without a streaming mode, HttpURLConnection keeps the whole body in memory
+        // to compute its Content-Length.
+        if (length >= 0 && length <= Integer.MAX_VALUE) {
+            conn.setFixedLengthStreamingMode((int) length);
+        } else if (length >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            setFixedLengthStreamingMode(conn, length);
+        } else {
+            // Unknown length, or more than 2 GB before KitKat
+            conn.setChunkedStreamingMode(BUFFER_SIZE);
+        }
+
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        return conn;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void setFixedLengthStreamingMode(HttpURLConnection conn, long length) {
+        conn.setFixedLengthStreamingMode(length);
+    }
+
+    /**
+     * Open a connection to download a content.
+     *
+     * @param url     the url to call
+     * @param headers the HTTP headers to add
+     * @param timeout connect timeout, and maximal wait of each read (a stalled download), in
+     *                milliseconds. 0 for none.
+     * @return a connection whose input stream can be read
+     * @throws IOException if the connection can not be opened
+     */
+    public static HttpURLConnection openDownload(URL url,
+                                                 Map<String, String> headers,
+                                                 int timeout) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setDoInput(true);
+        conn.setUseCaches(false);
+        conn.setRequestMethod("GET");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * Read the Content-Length of a response, even greater than 2 GB.
+     *
+     * @param conn the connection
+     * @return the length or {@link #UNKNOWN_LENGTH}
+     */
+    public static long getContentLength(HttpURLConnection conn) {
+        String value = conn.getHeaderField("Content-Length");
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                // unknown
+            }
+        }
+        return UNKNOWN_LENGTH;
+    }
+
+    /**
+     * Copy an input stream in an output stream. Output is not flushed: it's up to the caller
+     * to close it once all the content has been written.
+     *
+     * @param in       the source
+     * @param out      the destination
+     * @param length   the expected number of bytes or {@link #UNKNOWN_LENGTH}
+     * @param progress callback notified each time a percent is transferred. Can be null.
+     * @return the number of bytes copied
+     * @throws IOException if a stream can not be read or written
+     */
+    public static long copy(InputStream in,
+                            OutputStream out,
+                            long length,
+                            OrangeListener.Progress progress) throws IOException {
+        return copy(in, out, UNKNOWN_LENGTH, 0, length, progress);
+    }
+
+    /**
+     * Copy a part of an input stream in an output stream. Output is not flushed.
+     * The copy stops with an {@link InterruptedIOException} if the current thread is
+     * interrupted.
+     *
+     * @param in       the source
+     * @param out      the destination
+     * @param count    the maximum number of bytes to copy or {@link #UNKNOWN_LENGTH} to copy
+     *                 until the end of the source
+     * @param offset   position of the part in the whole content, used to compute the progress
+     * @param length   the length of the whole content or {@link #UNKNOWN_LENGTH}
+     * @param progress callback notified each time a percent of the whole content is
+     *                 transferred. Can be null.
+     * @return the number of bytes copied
+     * @throws IOException if a stream can not be read or written
+     */
+    public static long copy(InputStream in,
+                            OutputStream out,
+                            long count,
+                            long offset,
+                            long length,
+                            OrangeListener.Progress progress) throws IOException {
+        byte[] buffer = acquireBuffer();
+        try {
+            long transferred = 0;
+            float notified = (length > 0) ? (float) offset / length : 0;
+            while (count < 0 || transferred < count) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Transfer interrupted");
+                }
+                int toRead = (count < 0)
+                        ? buffer.length
+                        : (int) Math.min(buffer.length, count - transferred);
+                int read = in.read(buffer, 0, toRead);
+                if (read == -1) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                transferred += read;
+                if (progress != null && length > 0) {
+                    long position = offset + transferred;
+                    float ratio = (float) position / length;
+                    if (ratio - notified >= PROGRESS_STEP || position == length) {
+                        notified = ratio;
+                        progress.onProgress(ratio);
+                    }
+                }
+            }
+            return transferred;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Skip exactly a number of bytes of a stream.
+     *
+     * @param in    the stream
+     * @param count number of bytes to skip
+     * @throws IOException if the stream is shorter than expected
+     */
+    public static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                // skip() may return 0 before the end of stream, check with a read
+                if (in.read() == -1) {
+                    throw new EOFException("Unable to skip " + count + " bytes");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Read the body of a response, whatever the status code.
+     *
+     * @param conn       the connection
+     * @param statusCode the status code already read on the connection
+     * @return the body decoded as UTF-8, or an empty string if there is no body
+     * @throws IOException if the response can not be read
+     */
+    public static String readBody(HttpURLConnection conn, int statusCode) throws IOException {
+        InputStream in = (statusCode >= 400) ? conn.getErrorStream() : conn.getInputStream();
+        if (in == null) {
+            return "";
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(in, out, UNKNOWN_LENGTH, null);
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
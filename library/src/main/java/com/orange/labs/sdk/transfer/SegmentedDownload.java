@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.transfer;
+
+import com.orange.labs.sdk.OrangeListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download of a file split in byte ranges fetched in parallel. Each range is written at its
+ * position in a preallocated file with positional {@link FileChannel} writes, and a failed
+ * range is retried on its own from the last byte written.
+ */
+public class SegmentedDownload {
+
+    /**
+     * Number of attempts of a range before the download fails.
+     */
+    public static final int MAX_SEGMENT_RETRIES = 3;
+
+    /**
+     * Ranges are never smaller than this size.
+     */
+    public static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private final URL url;
+    private final Map<String, String> headers;
+    private final File file;
+    private final long length;
+    private final int segmentCount;
+    private final OrangeListener.Progress progress;
+
+    private final AtomicLong transferred = new AtomicLong();
+    private float notified;
+    private int timeout;
+    // Set to stop the ranges, which must not be interrupted: an interrupt during a write
+    // closes the channel shared by all the ranges
+    private volatile boolean stopped;
+
+    /**
+     * Create a segmented download.
+     *
+     * @param url          the download url
+     * @param headers      the HTTP headers to add
+     * @param file         the local file to write
+     * @param length       the size of the content
+     * @param segmentCount the maximum number of ranges fetched in parallel
+     * @param progress     callback to notify download progress. Can be null.
+     */
+    public SegmentedDownload(URL url, Map<String, String> headers, File file, long length,
+                             int segmentCount, OrangeListener.Progress progress) {
+        this.url = url;
+        this.headers = headers;
+        this.file = file;
+        this.length = length;
+        this.segmentCount = (int) Math.max(1, Math.min(segmentCount, length / MIN_SEGMENT_SIZE));
+        this.progress = progress;
+    }
+
+    /**
+     * @param timeout connect timeout, and maximal wait of each read, in milliseconds. 0 (the
+     *                default) for none.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the number of ranges really used, function of the file size
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Run the download and wait for its end.
+     *
+     * @param executor executor running the ranges
+     * @return the number of bytes written
+     * @throws RangeNotSupportedException if the server ignores the Range header
+     * @throws HttpStatusException        if the server returns an error
+     * @throws IOException                if a range still fails after its retries
+     */
+    public long run(ExecutorService executor) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            // Preallocate the file so that ranges can be written in any order
+            output.setLength(length);
+            if (length == 0) {
+                // Nothing to fetch, and no valid range to ask for
+                return 0;
+            }
+            final FileChannel channel = output.getChannel();
+
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(segmentCount);
+            long segmentSize = length / segmentCount;
+            for (int i = 0; i < segmentCount; i++) {
+                final long start = i * segmentSize;
+                final long end = (i == segmentCount - 1) ? length - 1 : start + segmentSize - 1;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        fetchWithRetries(channel, start, end);
+                        return null;
+                    }
+                }));
+            }
+
+            try {
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            } finally {
+                // Stop the other ranges on error
+                stopped = true;
+                for (Future<Void> future : futures) {
+                    future.cancel(false);
+                }
+            }
+            channel.force(false);
+            return transferred.get();
+        } finally {
+            output.close();
+        }
+    }
+
+    private void fetchWithRetries(FileChannel channel, long start, long end) throws IOException {
+        // Position reached, kept between attempts
+        long[] position = new long[]{start};
+        int attempt = 0;
+        while (true) {
+            if (stopped) {
+                throw new InterruptedIOException("Download stopped");
+            }
+            try {
+                fetch(channel, position, end);
+                return;
+            } catch (RangeNotSupportedException e) {
+                throw e;
+            } catch (SocketTimeoutException e) {
+                if (++attempt >= MAX_SEGMENT_RETRIES) {
+                    throw e;
+                }
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (HttpStatusException e) {
+                // Only server errors are worth a retry
+                if (e.getStatusCode() < 500 || ++attempt >= MAX_SEGMENT_RETRIES) {
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (++attempt >= MAX_SEGMENT_RETRIES) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetch a range, from the position reached, and write it in the file.
+     */
+    private void fetch(FileChannel channel, long[] position, long end) throws IOException {
+        Map<String, String> rangeHeaders = new HashMap<String, String>(headers);
+        rangeHeaders.put("Range", "bytes=" + position[0] + "-" + end);
+        HttpURLConnection conn = HttpTransfer.openDownload(url, rangeHeaders, timeout);
+        byte[] buffer = HttpTransfer.acquireBuffer();
+        try {
+            int statusCode = conn.getResponseCode();
+            if (statusCode == 200) {
+                throw new RangeNotSupportedException();
+            } else if (statusCode != 206) {
+                throw new HttpStatusException(statusCode, HttpTransfer.readBody(conn, statusCode));
+            }
+            InputStream in = conn.getInputStream();
+            try {
+                ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+                int read;
+                while (position[0] <= end && (read = in.read(buffer)) != -1) {
+                    if (stopped || Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Download interrupted");
+                    }
+                    int count = (int) Math.min(read, end - position[0] + 1);
+                    wrapper.clear();
+                    wrapper.limit(count);
+                    while (wrapper.hasRemaining()) {
+                        position[0] += channel.write(wrapper, position[0]);
+                    }
+                    onTransferred(count);
+                }
+            } finally {
+                in.close();
+            }
+            if (position[0] <= end) {
+                throw new IOException("Range ended at " + position[0] + " instead of " + end);
+            }
+        } finally {
+            HttpTransfer.releaseBuffer(buffer);
+            conn.disconnect();
+        }
+    }
+
+    private void onTransferred(long count) {
+        long total = transferred.addAndGet(count);
+        if (progress == null) {
+            return;
+        }
+        float ratio = (float) total / length;
+        synchronized (this) {
+            if (ratio - notified >= 0.01f || total == length) {
+                notified = ratio;
+                progress.onProgress(ratio);
+            }
+        }
+    }
+
+    /**
+     * Raised when the server answers a range request with the whole content.
+     */
+    public static class RangeNotSupportedException extends IOException {
+        public RangeNotSupportedException() {
+            super("Server does not support ranges");
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.transfer;
+
+import com.orange.labs.sdk.OrangeListener;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+
+/**
+ * An upload or a download scheduled by a {@link TransferManager}. It can be paused, resumed
+ * or cancelled at any time. Callbacks are delivered on the main thread.
+ */
+public abstract class Transfer implements Runnable, Comparable<Transfer> {
+
+    /**
+     * The states of a transfer.
+     */
+    public enum State {
+        QUEUED, RUNNING, PAUSED, CANCELLED, SUCCEEDED, FAILED
+    }
+
+    private final TransferManager manager;
+    private final TransferManager.Priority priority;
+    private final long sequence;
+    private final OrangeListener.Progress progressListener;
+
+    private volatile long length;
+    private volatile State state = State.QUEUED;
+    private volatile float progress;
+    private volatile Thread runner;
+    // True while a worker is in run(), even after a pause: a resumed transfer waits for it
+    private boolean active;
+    private long reportedBytes;
+
+    Transfer(TransferManager manager, TransferManager.Priority priority, long sequence,
+             long length, OrangeListener.Progress progressListener) {
+        this.manager = manager;
+        this.priority = priority;
+        this.sequence = sequence;
+        this.length = length;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Do the transfer, synchronously. Results have to be given to
+     * {@link #deliverSuccess(OrangeListener.Success, Object)} or
+     * {@link #deliverFailure(OrangeListener.Error, OrangeAPIException)}.
+     */
+    abstract void execute();
+
+    /**
+     * @return the current state of the transfer
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the priority of the transfer
+     */
+    public TransferManager.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the last progress notified [0,1]
+     */
+    public float getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return the size of the content or {@link HttpTransfer#UNKNOWN_LENGTH}, for instance
+     * before an upload has started
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @param length the size of the content, once known
+     */
+    void setLength(long length) {
+        this.length = length;
+    }
+
+    /**
+     * Pause the transfer. A running transfer is interrupted, resumable uploads keep their
+     * acknowledged chunks.
+     */
+    public void pause() {
+        synchronized (this) {
+            if (state != State.QUEUED && state != State.RUNNING) {
+                return;
+            }
+            state = State.PAUSED;
+        }
+        stop();
+    }
+
+    /**
+     * Resume a paused transfer: it is queued again, once the interrupted run has ended.
+     */
+    public void resume() {
+        synchronized (this) {
+            if (state != State.PAUSED) {
+                return;
+            }
+            state = State.QUEUED;
+            if (active) {
+                // Scheduled by the previous worker when it leaves run()
+                return;
+            }
+        }
+        manager.schedule(this);
+    }
+
+    /**
+     * Cancel the transfer. No callback is called after a cancel.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (state == State.SUCCEEDED || state == State.FAILED) {
+                return;
+            }
+            state = State.CANCELLED;
+        }
+        stop();
+    }
+
+    private void stop() {
+        manager.unschedule(this);
+        Thread thread = runner;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (state != State.QUEUED || active) {
+                return;
+            }
+            state = State.RUNNING;
+            runner = Thread.currentThread();
+            active = true;
+        }
+        boolean resumed;
+        try {
+            execute();
+        } finally {
+            synchronized (this) {
+                runner = null;
+                active = false;
+                if (state == State.RUNNING) {
+                    // Call ended without any result
+                    state = State.FAILED;
+                }
+                resumed = state == State.QUEUED;
+                // A pause or a cancel may have interrupted the worker
+                Thread.interrupted();
+            }
+        }
+        if (resumed) {
+            // Resumed while this worker was still stopping
+            manager.schedule(this);
+        }
+    }
+
+    @Override
+    public int compareTo(Transfer another) {
+        // Highest priority first, then first in first out
+        int result = another.priority.compareTo(priority);
+        if (result == 0) {
+            result = (sequence < another.sequence) ? -1 : ((sequence == another.sequence) ? 0 : 1);
+        }
+        return result;
+    }
+
+    /**
+     * @return a progress listener to give to the SDK calls
+     */
+    OrangeListener.Progress progressListener() {
+        return new OrangeListener.Progress() {
+            @Override
+            public void onProgress(final float ratio) {
+                if (!isCurrentRun()) {
+                    return;
+                }
+                progress = ratio;
+                if (length > 0) {
+                    long bytes = (long) (ratio * length);
+                    // A resumed transfer may restart below the last reported position
+                    if (bytes > reportedBytes) {
+                        manager.addTransferredBytes(bytes - reportedBytes);
+                    }
+                    reportedBytes = bytes;
+                }
+                if (progressListener != null) {
+                    manager.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            progressListener.onProgress(ratio);
+                        }
+                    });
+                }
+            }
+        };
+    }
+
+    /**
+     * @return true if the calling thread runs the transfer and the transfer has not been
+     * paused or cancelled meanwhile
+     */
+    private boolean isCurrentRun() {
+        return state == State.RUNNING && runner == Thread.currentThread();
+    }
+
+    <T> void deliverSuccess(final OrangeListener.Success<T> success, final T response) {
+        synchronized (this) {
+            if (!isCurrentRun()) {
+                return;
+            }
+            state = State.SUCCEEDED;
+        }
+        manager.post(new Runnable() {
+            @Override
+            public void run() {
+                success.onResponse(response);
+            }
+        });
+    }
+
+    void deliverFailure(final OrangeListener.Error failure, final OrangeAPIException error) {
+        synchronized (this) {
+            // Errors raised by a pause or a cancel are not reported
+            if (!isCurrentRun()) {
+                return;
+            }
+            state = State.FAILED;
+        }
+        manager.post(new Runnable() {
+            @Override
+            public void run() {
+                failure.onErrorResponse(error);
+            }
+        });
+    }
+}
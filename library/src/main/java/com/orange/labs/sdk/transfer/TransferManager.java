@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.transfer;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.orange.labs.sdk.OrangeCloudAPI;
+import com.orange.labs.sdk.OrangeListener;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of uploads and downloads run in the background on a bounded pool of threads.
+ *
+ * The number of parallel transfers depends on the active network (more on Wi-Fi than on
+ * 2G) unless fixed by {@link #setMaxParallelTransfers(int)}. Transfers run on their own
+ * connections, outside of the Volley queue, so that metadata calls are never queued behind
+ * them. Callbacks are delivered on the main thread.
+ */
+public class TransferManager {
+
+    private static final String TAG = TransferManager.class.toString();
+
+    /**
+     * Priorities of transfers: highest priorities are started first.
+     */
+    public enum Priority {
+        LOW, NORMAL, HIGH
+    }
+
+    // Period used to compute the throughput
+    private static final long THROUGHPUT_WINDOW = 2000;
+    private static final long KEEP_ALIVE = 30;
+
+    private final OrangeCloudAPI<?> mApi;
+    private final ConnectivityManager mConnectivityManager;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mHandler;
+    private final AtomicLong mSequence = new AtomicLong();
+    private final List<Transfer> mTransfers = new ArrayList<Transfer>();
+
+    private int mMaxParallelTransfers;
+
+    // Throughput computation
+    private final AtomicLong mTransferredBytes = new AtomicLong();
+    private long mWindowStart;
+    private long mWindowBytes;
+    private long mThroughput;
+    private boolean mThroughputMeasured;
+
+    /**
+     * Create a transfer manager.
+     *
+     * @param context a context used to check the network type
+     * @param api     the Cloud Api used to run the transfers
+     */
+    public TransferManager(Context context, OrangeCloudAPI<?> api) {
+        if (api == null) {
+            throw new IllegalArgumentException("api must not be null.");
+        }
+        mApi = api;
+        mConnectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        mHandler = new Handler(Looper.getMainLooper());
+        mWindowStart = SystemClock.elapsedRealtime();
+
+        int poolSize = computePoolSize();
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "OrangeTransfer #" + count.incrementAndGet());
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue an upload. See {@link OrangeCloudAPI#upload}.
+     *
+     * @param fileUri  Uri of file to upload
+     * @param filename name of file to upload
+     * @param entry    the parent folder
+     * @param priority priority of the transfer
+     * @param success  callback if upload is ok
+     * @param progress callback to notify upload progress
+     * @param failure  callback to notify error
+     * @return the transfer, to follow or control it
+     */
+    public Transfer upload(final Uri fileUri,
+                           final String filename,
+                           final OrangeCloudAPI.Entry entry,
+                           final Priority priority,
+                           final OrangeListener.Success<JSONObject> success,
+                           final OrangeListener.Progress progress,
+                           final OrangeListener.Error failure) {
+        return upload(fileUri, filename, entry, priority, false, success, progress, failure);
+    }
+
+    /**
+     * Queue a resumable upload: a paused upload restarts from its last acknowledged chunk.
+     * See {@link OrangeCloudAPI#resumableUpload}.
+     *
+     * @param fileUri  Uri of file to upload
+     * @param filename name of file to upload
+     * @param entry    the parent folder
+     * @param priority priority of the transfer
+     * @param success  callback if upload is ok
+     * @param progress callback to notify upload progress
+     * @param failure  callback to notify error
+     * @return the transfer, to follow or control it
+     */
+    public Transfer resumableUpload(final Uri fileUri,
+                                    final String filename,
+                                    final OrangeCloudAPI.Entry entry,
+                                    final Priority priority,
+                                    final OrangeListener.Success<JSONObject> success,
+                                    final OrangeListener.Progress progress,
+                                    final OrangeListener.Error failure) {
+        return upload(fileUri, filename, entry, priority, true, success, progress, failure);
+    }
+
+    private Transfer upload(final Uri fileUri,
+                            final String filename,
+                            final OrangeCloudAPI.Entry entry,
+                            final Priority priority,
+                            final boolean resumable,
+                            final OrangeListener.Success<JSONObject> success,
+                            final OrangeListener.Progress progress,
+                            final OrangeListener.Error failure) {
+        Transfer transfer = new Transfer(this, priority, mSequence.incrementAndGet(),
+                HttpTransfer.UNKNOWN_LENGTH, progress) {
+            @Override
+            void execute() {
+                final Transfer transfer = this;
+                // Content resolver I/O, kept out of the calling thread
+                setLength(mApi.getSession().getRestClient().getContentLength(fileUri));
+                OrangeListener.Success<JSONObject> onSuccess = new OrangeListener.Success<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        transfer.deliverSuccess(success, response);
+                    }
+                };
+                OrangeListener.Error onFailure = new OrangeListener.Error() {
+                    @Override
+                    public void onErrorResponse(OrangeAPIException error) {
+                        transfer.deliverFailure(failure, error);
+                    }
+                };
+                if (resumable) {
+                    mApi.resumableUpload(fileUri, filename, entry, onSuccess,
+                            progressListener(), onFailure);
+                } else {
+                    mApi.upload(fileUri, filename, entry, onSuccess, progressListener(),
+                            onFailure);
+                }
+            }
+        };
+        enqueue(transfer);
+        return transfer;
+    }
+
+    /**
+     * Queue a download in a local file. See {@link OrangeCloudAPI#download}.
+     *
+     * @param entry    the entry metadata. Must be a file.
+     * @param file     the local file to write
+     * @param priority priority of the transfer
+     * @param success  callback returning the downloaded entry
+     * @param progress callback to notify download progress
+     * @param failure  callback when error occurred
+     * @return the transfer, to follow or control it
+     */
+    public Transfer download(final OrangeCloudAPI.Entry entry,
+                             final File file,
+                             final Priority priority,
+                             final OrangeListener.Success<OrangeCloudAPI.Entry> success,
+                             final OrangeListener.Progress progress,
+                             final OrangeListener.Error failure) {
+        long length = entry.extraInfoAvailable ? entry.bytes : HttpTransfer.UNKNOWN_LENGTH;
+        Transfer transfer = new Transfer(this, priority, mSequence.incrementAndGet(), length,
+                progress) {
+            @Override
+            void execute() {
+                final Transfer transfer = this;
+                mApi.download(entry, file, new OrangeListener.Success<OrangeCloudAPI.Entry>() {
+                    @Override
+                    public void onResponse(OrangeCloudAPI.Entry response) {
+                        transfer.deliverSuccess(success, response);
+                    }
+                }, progressListener(), new OrangeListener.Error() {
+                    @Override
+                    public void onErrorResponse(OrangeAPIException error) {
+                        transfer.deliverFailure(failure, error);
+                    }
+                });
+            }
+        };
+        enqueue(transfer);
+        return transfer;
+    }
+
+    /**
+     * Fix the number of parallel transfers.
+     *
+     * @param maxParallelTransfers the number of transfers run at the same time, or 0 to
+     *                             choose it function of the network type
+     */
+    public void setMaxParallelTransfers(int maxParallelTransfers) {
+        if (maxParallelTransfers < 0) {
+            throw new IllegalArgumentException("maxParallelTransfers must be positive.");
+        }
+        mMaxParallelTransfers = maxParallelTransfers;
+        updatePoolSize();
+    }
+
+    /**
+     * @return the number of transfers currently run at the same time
+     */
+    public int getMaxParallelTransfers() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the transfers not completed yet (queued, running or paused)
+     */
+    public List<Transfer> getTransfers() {
+        List<Transfer> transfers = new ArrayList<Transfer>();
+        synchronized (mTransfers) {
+            for (Transfer transfer : mTransfers) {
+                Transfer.State state = transfer.getState();
+                if (state == Transfer.State.QUEUED || state == Transfer.State.RUNNING
+                        || state == Transfer.State.PAUSED) {
+                    transfers.add(transfer);
+                }
+            }
+        }
+        return transfers;
+    }
+
+    /**
+     * @return the aggregate throughput of all the transfers, in bytes per second, averaged
+     * since the previous measure however long ago it was
+     */
+    public long getThroughput() {
+        synchronized (mTransferredBytes) {
+            long now = SystemClock.elapsedRealtime();
+            long elapsed = now - mWindowStart;
+            if (elapsed >= THROUGHPUT_WINDOW) {
+                long total = mTransferredBytes.get();
+                mThroughput = (total - mWindowBytes) * 1000 / elapsed;
+                mThroughputMeasured = true;
+                mWindowStart = now;
+                mWindowBytes = total;
+            } else if (!mThroughputMeasured && elapsed > 0) {
+                // First window not over yet: average since the creation of the manager
+                return (mTransferredBytes.get() - mWindowBytes) * 1000 / elapsed;
+            }
+            return mThroughput;
+        }
+    }
+
+    /**
+     * @return the number of bytes transferred since the creation of the manager
+     */
+    public long getTransferredBytes() {
+        return mTransferredBytes.get();
+    }
+
+    /**
+     * Cancel all the transfers not completed yet.
+     */
+    public void cancelAll() {
+        for (Transfer transfer : getTransfers()) {
+            transfer.cancel();
+        }
+    }
+
+    /**
+     * Cancel all the transfers and release the threads. The manager can not be used anymore.
+     */
+    public void shutdown() {
+        cancelAll();
+        mExecutor.shutdownNow();
+    }
+
+    private void enqueue(Transfer transfer) {
+        synchronized (mTransfers) {
+            mTransfers.add(transfer);
+        }
+        schedule(transfer);
+    }
+
+    void schedule(Transfer transfer) {
+        // Network may have changed since the last transfer
+        updatePoolSize();
+        mExecutor.execute(transfer);
+    }
+
+    void unschedule(Transfer transfer) {
+        mExecutor.remove(transfer);
+        Transfer.State state = transfer.getState();
+        if (state == Transfer.State.CANCELLED) {
+            synchronized (mTransfers) {
+                mTransfers.remove(transfer);
+            }
+        }
+    }
+
+    void addTransferredBytes(long bytes) {
+        mTransferredBytes.addAndGet(bytes);
+    }
+
+    void post(Runnable runnable) {
+        mHandler.post(runnable);
+        purgeCompleted();
+    }
+
+    private void purgeCompleted() {
+        synchronized (mTransfers) {
+            for (int i = mTransfers.size() - 1; i >= 0; i--) {
+                Transfer.State state = mTransfers.get(i).getState();
+                if (state == Transfer.State.SUCCEEDED || state == Transfer.State.FAILED) {
+                    mTransfers.remove(i);
+                }
+            }
+        }
+    }
+
+    private synchronized void updatePoolSize() {
+        int size = computePoolSize();
+        if (size == mExecutor.getMaximumPoolSize()) {
+            return;
+        }
+        // Core size must never be greater than maximum size
+        if (size > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(size);
+            mExecutor.setCorePoolSize(size);
+        } else {
+            mExecutor.setCorePoolSize(size);
+            mExecutor.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * @return the number of parallel transfers function of the network
+     */
+    private int computePoolSize() {
+        if (mMaxParallelTransfers > 0) {
+            return mMaxParallelTransfers;
+        }
+        NetworkInfo info;
+        try {
+            info = mConnectivityManager.getActiveNetworkInfo();
+        } catch (SecurityException e) {
+            Log.w(TAG, "ACCESS_NETWORK_STATE permission is missing", e);
+            return 2;
+        }
+        if (info == null) {
+            return 1;
+        }
+        switch (info.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_WIMAX:
+            case ConnectivityManager.TYPE_ETHERNET:
+                return 4;
+            case ConnectivityManager.TYPE_MOBILE:
+                switch (info.getSubtype()) {
+                    case TelephonyManager.NETWORK_TYPE_LTE:
+                    case TelephonyManager.NETWORK_TYPE_HSPAP:
+                        return 3;
+                    case TelephonyManager.NETWORK_TYPE_UMTS:
+                    case TelephonyManager.NETWORK_TYPE_HSDPA:
+                    case TelephonyManager.NETWORK_TYPE_HSUPA:
+                    case TelephonyManager.NETWORK_TYPE_HSPA:
+                    case TelephonyManager.NETWORK_TYPE_EVDO_0:
+                    case TelephonyManager.NETWORK_TYPE_EVDO_A:
+                    case TelephonyManager.NETWORK_TYPE_EVDO_B:
+                        return 2;
+                    default:
+                        return 1;
+                }
+            default:
+                return 2;
+        }
+    }
+}
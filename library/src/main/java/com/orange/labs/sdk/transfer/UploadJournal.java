@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.transfer;
+
+import android.util.Log;
+
+import com.orange.labs.sdk.Digests;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Small on-disk journal of the resumable uploads in progress. Each upload is stored in its
+ * own file holding the offset acknowledged by the server, so that an upload can restart from
+ * its last committed chunk after a network failure or a process restart. The offsets are the
+ * ones acknowledged with the assumed chunk protocol described in
+ * {@link com.orange.labs.sdk.RestUtils#resumableUploadRequest}.
+ */
+public class UploadJournal {
+
+    private static final String TAG = UploadJournal.class.toString();
+
+    /**
+     * Uploads not updated since this delay are restarted from scratch.
+     */
+    public static final long MAX_AGE = 24 * 60 * 60 * 1000;
+
+    private final File directory;
+
+    /**
+     * Create a journal.
+     *
+     * @param directory directory holding the journal files, created if needed
+     */
+    public UploadJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Get the record of an upload, creating it if the upload is not known or too old.
+     *
+     * @param source      the source of the upload (uri...)
+     * @param destination the destination of the upload (url with name and folder)
+     * @param length      the size of the content
+     * @param chunkSize   the size of the chunks for a new upload
+     * @return the record, never null
+     */
+    public synchronized Record open(String source, String destination, long length,
+                                    int chunkSize) {
+        String key = key(source, destination, length);
+        Record record = read(key);
+        if (record == null
+                || record.length != length
+                || record.chunkSize <= 0
+                || record.offset >= length
+                || System.currentTimeMillis() - record.updated > MAX_AGE) {
+            record = new Record(key, length, chunkSize);
+        }
+        return record;
+    }
+
+    /**
+     * Persist the state of an upload. File is written then renamed to never leave a
+     * partially written journal.
+     *
+     * @param record the record to save
+     * @throws IOException if journal can not be written
+     */
+    public synchronized void save(Record record) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        record.updated = System.currentTimeMillis();
+
+        File tmp = new File(directory, record.key + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(record.toJSON().toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file(record.key))) {
+            throw new IOException("Unable to write journal " + record.key);
+        }
+    }
+
+    /**
+     * Forget an upload, usually once completed.
+     *
+     * @param record the record to remove
+     */
+    public synchronized void remove(Record record) {
+        File file = file(record.key);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Unable to delete journal " + record.key);
+        }
+    }
+
+    private Record read(String key) {
+        File file = file(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < data.length
+                        && (read = in.read(data, offset, data.length - offset)) != -1) {
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+            return new Record(key, new JSONObject(new String(data, "UTF-8")));
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read journal " + key, e);
+        } catch (JSONException e) {
+            Log.w(TAG, "Corrupted journal " + key, e);
+        }
+        return null;
+    }
+
+    private File file(String key) {
+        return new File(directory, key + ".journal");
+    }
+
+    private static String key(String source, String destination, long length) {
+        return Digests.md5Hex(source + "\n" + destination + "\n" + length);
+    }
+
+    /**
+     * State of a resumable upload.
+     */
+    public static class Record {
+
+        /**
+         * Unique key of the upload.
+         */
+        public final String key;
+
+        /**
+         * Total size of the content.
+         */
+        public final long length;
+
+        /**
+         * Size of the chunks sent to the server.
+         */
+        public final int chunkSize;
+
+        /**
+         * Identifier of the upload given by the server with the first chunk.
+         */
+        public String uploadId;
+
+        /**
+         * Number of bytes acknowledged by the server.
+         */
+        public long offset;
+
+        /**
+         * Last update of the record.
+         */
+        public long updated;
+
+        Record(String key, long length, int chunkSize) {
+            this.key = key;
+            this.length = length;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * @return size of the next chunk, 0 once the whole content is acknowledged
+         */
+        public long nextChunkLength() {
+            return Math.max(0, Math.min(chunkSize, length - offset));
+        }
+
+        /**
+         * @param count size of the chunk sent at the current offset
+         * @return the Content-Range header of the chunk
+         */
+        public String contentRange(long count) {
+            return "bytes " + offset + "-" + (offset + count - 1) + "/" + length;
+        }
+
+        /**
+         * Read the number of bytes acknowledged by the server from a Range header
+         * ({@code bytes=0-1023}).
+         *
+         * @param range the Range header of the response, can be null
+         * @param sent  number of bytes sent, from the start of the content
+         * @return the offset of the next chunk, at most the length of the content
+         */
+        public long acknowledged(String range, long sent) {
+            long end = sent;
+            if (range != null) {
+                int dash = range.lastIndexOf('-');
+                if (dash != -1) {
+                    try {
+                        end = Long.parseLong(range.substring(dash + 1).trim()) + 1;
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "Invalid Range header: " + range);
+                    }
+                }
+            }
+            return Math.min(end, length);
+        }
+
+        Record(String key, JSONObject json) {
+            this.key = key;
+            this.length = json.optLong("length");
+            this.chunkSize = json.optInt("chunkSize");
+            this.uploadId = json.optString("uploadId", null);
+            this.offset = json.optLong("offset");
+            this.updated = json.optLong("updated");
+        }
+
+        JSONObject toJSON() throws IOException {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("length", length);
+                json.put("chunkSize", chunkSize);
+                json.put("uploadId", uploadId);
+                json.put("offset", offset);
+                json.put("updated", updated);
+                return json;
+            } catch (JSONException e) {
+                throw new IOException(e.toString());
+            }
+        }
+    }
+}
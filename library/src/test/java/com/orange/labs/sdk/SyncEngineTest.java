@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk;
+
+import com.orange.labs.sdk.OrangeCloudAPI.Entry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyncEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private SyncSnapshot snapshot;
+    private Map<String, File> local;
+    private Map<String, Entry> remote;
+    private List<String> conflicts;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.newFolder("local");
+        snapshot = new SyncSnapshot(new File(folder.getRoot(), "snapshot.json"));
+        local = new HashMap<String, File>();
+        remote = new HashMap<String, Entry>();
+        conflicts = new ArrayList<String>();
+    }
+
+    @Test
+    public void unchangedPathsGiveNoAction() throws IOException {
+        File file = localFile("a.txt", 3);
+        Entry entry = remoteFile("a.txt", "id-a", 3, 1000);
+        record(file, entry);
+
+        assertEquals(Collections.<SyncEngine.Action>emptyList(), plan());
+        assertTrue(conflicts.isEmpty());
+    }
+
+    @Test
+    public void pathChangedOnBothSidesIsAConflict() throws IOException {
+        File file = localFile("a.txt", 3);
+        Entry entry = remoteFile("a.txt", "id-a", 3, 1000);
+        record(file, entry);
+        localFile("a.txt", 5);
+        remoteFile("a.txt", "id-b", 7, 2000);
+
+        assertEquals(Collections.<SyncEngine.Action>emptyList(), plan());
+        assertEquals(Collections.singletonList("a.txt"), conflicts);
+    }
+
+    @Test
+    public void sameSizeWithoutRecordIsAConflict() throws IOException {
+        localFile("a.txt", 3);
+        remoteFile("a.txt", "id-a", 3, 1000);
+
+        assertEquals(Collections.<SyncEngine.Action>emptyList(), plan());
+        assertEquals(Collections.singletonList("a.txt"), conflicts);
+        assertNull(snapshot.get("a.txt"));
+    }
+
+    @Test
+    public void sameSizeRemoteEditIsDownloaded() throws IOException {
+        File file = localFile("a.txt", 3);
+        Entry entry = remoteFile("a.txt", "id-a", 3, 1000);
+        record(file, entry);
+        remoteFile("a.txt", "id-a", 3, 2000);
+
+        assertActions(plan(), "DOWNLOAD a.txt");
+    }
+
+    @Test
+    public void localChangeIsUploaded() throws IOException {
+        File file = localFile("a.txt", 3);
+        Entry entry = remoteFile("a.txt", "id-a", 3, 1000);
+        record(file, entry);
+        localFile("a.txt", 4);
+
+        assertActions(plan(), "UPLOAD a.txt");
+    }
+
+    @Test
+    public void folderDeletedLocallyIsDeletedWithOneCall() throws IOException {
+        Entry directory = remoteFolder("dir", "id-dir");
+        Entry nested = remoteFolder("dir/sub", "id-sub");
+        Entry entry = remoteFile("dir/sub/a.txt", "id-a", 3, 1000);
+        snapshot.put(folderRecord("dir", directory));
+        snapshot.put(folderRecord("dir/sub", nested));
+        snapshot.put(new SyncSnapshot.Record("dir/sub/a.txt", false, 3, 1000, "", entry.identifier,
+                entry.bytes, entry.creationDate.getTime()));
+
+        assertActions(plan(), "DELETE_REMOTE dir");
+    }
+
+    @Test
+    public void folderDeletedLocallyIsRestoredIfChangedRemotely() throws IOException {
+        Entry directory = remoteFolder("dir", "id-dir");
+        Entry entry = remoteFile("dir/a.txt", "id-a", 3, 1000);
+        snapshot.put(folderRecord("dir", directory));
+        snapshot.put(new SyncSnapshot.Record("dir/a.txt", false, 3, 1000, "", entry.identifier,
+                entry.bytes, entry.creationDate.getTime()));
+        remoteFile("dir/a.txt", "id-a", 5, 2000);
+
+        assertActions(plan(), "CREATE_LOCAL_FOLDER dir", "DOWNLOAD dir/a.txt");
+    }
+
+    @Test
+    public void folderDeletedRemotelyIsDeletedLocally() throws IOException {
+        File directory = new File(root, "dir");
+        assertTrue(directory.mkdir());
+        local.put("dir", directory);
+        File file = localFile("dir/a.txt", 3);
+        snapshot.put(folderRecord("dir", remoteFolder("dir", "id-dir")));
+        record(file, remoteFile("dir/a.txt", "id-a", 3, 1000));
+        remote.clear();
+
+        assertActions(plan(), "DELETE_LOCAL dir", "DELETE_LOCAL dir/a.txt");
+    }
+
+    @Test
+    public void listingsAreKeptInTheSnapshot() throws IOException {
+        Entry directory = remoteFolder("dir", "id-dir");
+        directory.contents = new ArrayList<Entry>();
+        directory.contents.add(remoteFile("dir/a.txt", "id-a", 3, 1000));
+        snapshot.getListings().put("https://cloud/folders/id-dir", "\"v1\"", null, directory);
+        snapshot.save();
+
+        SyncSnapshot loaded = new SyncSnapshot(new File(folder.getRoot(), "snapshot.json"));
+        ValidatorCache.Validated listing = loaded.getListings().get("https://cloud/folders/id-dir");
+        assertEquals("\"v1\"", listing.etag);
+        assertNull(listing.lastModified);
+        Entry loadedFolder = (Entry) listing.value;
+        assertEquals("id-dir", loadedFolder.identifier);
+        assertEquals(Entry.Type.DIRECTORY, loadedFolder.type);
+        assertEquals(1, loadedFolder.contents.size());
+        Entry loadedFile = loadedFolder.contents.get(0);
+        assertEquals("a.txt", loadedFile.name);
+        assertEquals(Entry.Type.FILE, loadedFile.type);
+        assertEquals(3, loadedFile.bytes);
+        assertEquals(1000, loadedFile.creationDate.getTime());
+    }
+
+    private List<SyncEngine.Action> plan() {
+        return SyncEngine.plan(root, local, remote, snapshot, conflicts);
+    }
+
+    private static void assertActions(List<SyncEngine.Action> actions, String... expected) {
+        List<String> descriptions = new ArrayList<String>();
+        for (SyncEngine.Action action : actions) {
+            descriptions.add(action.toString());
+        }
+        List<String> expectedList = new ArrayList<String>();
+        Collections.addAll(expectedList, expected);
+        assertEquals(expectedList, descriptions);
+    }
+
+    private File localFile(String path, int length) throws IOException {
+        File file = new File(root, path);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory()) {
+            assertTrue(parent.mkdirs());
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        local.put(path, file);
+        return file;
+    }
+
+    private Entry remoteFile(String path, String identifier, long bytes, long created) {
+        Entry entry = new Entry();
+        entry.identifier = identifier;
+        entry.name = path.substring(path.lastIndexOf('/') + 1);
+        entry.type = Entry.Type.FILE;
+        entry.bytes = bytes;
+        entry.creationDate = new Date(created);
+        remote.put(path, entry);
+        return entry;
+    }
+
+    private Entry remoteFolder(String path, String identifier) {
+        Entry entry = new Entry();
+        entry.identifier = identifier;
+        entry.name = path.substring(path.lastIndexOf('/') + 1);
+        entry.type = Entry.Type.DIRECTORY;
+        remote.put(path, entry);
+        return entry;
+    }
+
+    private void record(File file, Entry entry) {
+        String path = root.toURI().relativize(file.toURI()).getPath();
+        snapshot.put(new SyncSnapshot.Record(path, false, file.length(), file.lastModified(), "",
+                entry.identifier, entry.bytes, entry.creationDate.getTime()));
+    }
+
+    private static SyncSnapshot.Record folderRecord(String path, Entry entry) {
+        return new SyncSnapshot.Record(path, true, 0, 0, null, entry.identifier, 0, 0);
+    }
+}
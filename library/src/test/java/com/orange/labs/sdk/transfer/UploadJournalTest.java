@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.transfer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UploadJournalTest {
+
+    private static final String SOURCE = "file:///sdcard/video.mp4";
+    private static final String DESTINATION = "https://cloudapi/files/content?name=video.mp4";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UploadJournal journal;
+
+    @Before
+    public void setUp() {
+        journal = new UploadJournal(folder.getRoot());
+    }
+
+    @Test
+    public void savedRecordIsResumed() throws IOException {
+        UploadJournal.Record record = journal.open(SOURCE, DESTINATION, 2500, 1000);
+        record.offset = 1000;
+        record.uploadId = "upload-1";
+        journal.save(record);
+
+        UploadJournal.Record resumed = journal.open(SOURCE, DESTINATION, 2500, 1000);
+        assertEquals(1000, resumed.offset);
+        assertEquals("upload-1", resumed.uploadId);
+    }
+
+    @Test
+    public void removedRecordStartsAgain() throws IOException {
+        UploadJournal.Record record = journal.open(SOURCE, DESTINATION, 2500, 1000);
+        record.offset = 1000;
+        journal.save(record);
+        journal.remove(record);
+
+        assertEquals(0, journal.open(SOURCE, DESTINATION, 2500, 1000).offset);
+    }
+
+    @Test
+    public void fullyAcknowledgedRecordStartsAgain() throws IOException {
+        UploadJournal.Record record = journal.open(SOURCE, DESTINATION, 2500, 1000);
+        record.offset = 2500;
+        journal.save(record);
+
+        UploadJournal.Record reopened = journal.open(SOURCE, DESTINATION, 2500, 1000);
+        assertEquals(0, reopened.offset);
+        assertNull(reopened.uploadId);
+    }
+
+    @Test
+    public void chunksCoverTheContent() {
+        UploadJournal.Record record = new UploadJournal.Record("key", 2500, 1000);
+        assertEquals(1000, record.nextChunkLength());
+        assertEquals("bytes 0-999/2500", record.contentRange(1000));
+
+        record.offset = 2000;
+        assertEquals(500, record.nextChunkLength());
+        assertEquals("bytes 2000-2499/2500", record.contentRange(500));
+
+        record.offset = 2500;
+        assertEquals(0, record.nextChunkLength());
+    }
+
+    @Test
+    public void acknowledgedOffsetFollowsTheRangeHeader() {
+        UploadJournal.Record record = new UploadJournal.Record("key", 2500, 1000);
+        // No header: the whole chunk is kept
+        assertEquals(1000, record.acknowledged(null, 1000));
+        // Part of the chunk kept
+        assertEquals(600, record.acknowledged("bytes=0-599", 1000));
+        // Invalid header
+        assertEquals(1000, record.acknowledged("bytes=0-", 1000));
+        // Never past the content
+        assertEquals(2500, record.acknowledged("bytes=0-4999", 2500));
+    }
+}
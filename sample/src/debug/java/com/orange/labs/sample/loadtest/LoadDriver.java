@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sample.loadtest;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.orange.labs.sdk.OrangeCloudAPI;
+import com.orange.labs.sdk.OrangeListener;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+import com.orange.labs.sdk.metrics.InMemoryMetrics;
+import com.orange.labs.sdk.retry.CircuitBreaker;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drive a mix of SDK calls against a Cloud API, usually the simulator of the project, keeping
+ * a fixed number of calls in flight. Latency percentiles per operation are collected by an
+ * {@link InMemoryMetrics} set on the API.
+ * <p>
+ * The mix is made of listings, file information, thumbnails and free space requests, plus a
+ * few downloads and uploads run on a background pool since these calls are synchronous. Files
+ * are discovered from the listings along the run.
+ * <p>
+ * The driver must be started on the main thread, its listener is called on the main thread.
+ */
+public class LoadDriver {
+
+    /**
+     * Listener of a run.
+     */
+    public interface Listener {
+        /**
+         * @param done  number of calls completed
+         * @param total number of calls of the run
+         */
+        void onProgress(int done, int total);
+
+        /**
+         * @param report human readable report of the run
+         */
+        void onComplete(String report);
+    }
+
+    private static final int TRANSFER_THREADS = 4;
+    private static final int UPLOAD_SIZE = 64 * 1024;
+
+    private final OrangeCloudAPI<?> api;
+    private final int operations;
+    private final int concurrency;
+    private final File workDir;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private final InMemoryMetrics metrics = new InMemoryMetrics();
+    private final List<OrangeCloudAPI.Entry> folders = new ArrayList<OrangeCloudAPI.Entry>();
+    private final List<OrangeCloudAPI.Entry> files = new ArrayList<OrangeCloudAPI.Entry>();
+    private final List<OrangeCloudAPI.Entry> described = new ArrayList<OrangeCloudAPI.Entry>();
+
+    private ExecutorService transfers;
+    private OrangeCloudAPI.Entry root;
+    private File uploadFile;
+    private Listener listener;
+    private int started;
+    private int completed;
+    private int failed;
+    private long startedAt;
+
+    /**
+     * @param api         the API to load, linked to a session
+     * @param operations  number of calls of the run
+     * @param concurrency number of calls kept in flight
+     * @param workDir     directory where downloaded and uploaded files are written
+     */
+    public LoadDriver(OrangeCloudAPI<?> api, int operations, int concurrency, File workDir) {
+        if (operations <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("operations and concurrency must be positive.");
+        }
+        this.api = api;
+        this.operations = operations;
+        this.concurrency = concurrency;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Start the run: the root folder is listed first, then calls are issued until the number
+     * of operations is reached.
+     *
+     * @param listener listener of the run
+     */
+    public void start(Listener listener) {
+        this.listener = listener;
+        try {
+            uploadFile = new File(workDir, "load-upload.bin");
+            FileOutputStream output = new FileOutputStream(uploadFile);
+            try {
+                byte[] content = new byte[UPLOAD_SIZE];
+                random.nextBytes(content);
+                output.write(content);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            listener.onComplete("Cannot write the upload file: " + e.getMessage());
+            return;
+        }
+
+        transfers = Executors.newFixedThreadPool(TRANSFER_THREADS);
+        api.setMetrics(metrics);
+        api.listEntries(null, null, new OrangeListener.Success<OrangeCloudAPI.Entry>() {
+            @Override
+            public void onResponse(OrangeCloudAPI.Entry response) {
+                root = response;
+                collect(response);
+                metrics.reset();
+                startedAt = SystemClock.elapsedRealtime();
+                for (int i = 0; i < concurrency && started < operations; i++) {
+                    next();
+                }
+            }
+        }, new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+                finish("Cannot list the root folder: " + error);
+            }
+        });
+    }
+
+    private void collect(OrangeCloudAPI.Entry folder) {
+        if (folder.contents == null) {
+            return;
+        }
+        for (OrangeCloudAPI.Entry entry : folder.contents) {
+            List<OrangeCloudAPI.Entry> pool =
+                    (entry.type == OrangeCloudAPI.Entry.Type.DIRECTORY) ? folders : files;
+            // Bound the pools: listings of the same folders come back along the run
+            if (pool.size() < 10000) {
+                pool.add(entry);
+            }
+        }
+    }
+
+    private <T> T pick(List<T> pool) {
+        return pool.get(random.nextInt(pool.size()));
+    }
+
+    /**
+     * Issue the next call of the mix. Calls needing a fixture not discovered yet fall back on a
+     * listing.
+     */
+    private void next() {
+        started++;
+        int draw = random.nextInt(100);
+        if (draw < 5 && !described.isEmpty()) {
+            download(pick(described));
+        } else if (draw < 8) {
+            upload();
+        } else if (draw < 20 && !described.isEmpty()) {
+            api.thumbnail(pick(described), this.<Bitmap>onSuccess(), onError());
+        } else if (draw < 30) {
+            api.freespace(this.<Long>onSuccess(), onError());
+        } else if (draw < 60 && !files.isEmpty()) {
+            api.fileInfo(pick(files), new OrangeListener.Success<OrangeCloudAPI.Entry>() {
+                @Override
+                public void onResponse(OrangeCloudAPI.Entry response) {
+                    if (described.size() < 10000) {
+                        described.add(response);
+                    }
+                    done(true);
+                }
+            }, onError());
+        } else {
+            OrangeCloudAPI.Entry folder = folders.isEmpty() ? null : pick(folders);
+            api.listEntries(folder, null, new OrangeListener.Success<OrangeCloudAPI.Entry>() {
+                @Override
+                public void onResponse(OrangeCloudAPI.Entry response) {
+                    collect(response);
+                    done(true);
+                }
+            }, onError());
+        }
+    }
+
+    private void download(final OrangeCloudAPI.Entry entry) {
+        final File file = new File(workDir, "load-download-" + started + ".bin");
+        transfers.execute(new Runnable() {
+            @Override
+            public void run() {
+                api.download(entry, file, new OrangeListener.Success<OrangeCloudAPI.Entry>() {
+                    @Override
+                    public void onResponse(OrangeCloudAPI.Entry response) {
+                        file.delete();
+                        post(true);
+                    }
+                }, null, new OrangeListener.Error() {
+                    @Override
+                    public void onErrorResponse(OrangeAPIException error) {
+                        file.delete();
+                        post(false);
+                    }
+                });
+            }
+        });
+    }
+
+    private void upload() {
+        final String name = "load-" + started + ".bin";
+        transfers.execute(new Runnable() {
+            @Override
+            public void run() {
+                api.resumableUpload(Uri.fromFile(uploadFile), name, root,
+                        new OrangeListener.Success<JSONObject>() {
+                            @Override
+                            public void onResponse(JSONObject response) {
+                                post(true);
+                            }
+                        }, null, new OrangeListener.Error() {
+                            @Override
+                            public void onErrorResponse(OrangeAPIException error) {
+                                post(false);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Bring the end of a transfer back to the main thread, where the state of the run lives.
+     */
+    private void post(final boolean success) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                done(success);
+            }
+        });
+    }
+
+    private <T> OrangeListener.Success<T> onSuccess() {
+        return new OrangeListener.Success<T>() {
+            @Override
+            public void onResponse(T response) {
+                done(true);
+            }
+        };
+    }
+
+    private OrangeListener.Error onError() {
+        return new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+                done(false);
+            }
+        };
+    }
+
+    private void done(boolean success) {
+        completed++;
+        if (!success) {
+            failed++;
+        }
+        if (listener != null) {
+            listener.onProgress(completed, operations);
+        }
+        if (started < operations) {
+            next();
+        } else if (completed == started) {
+            finish(report());
+        }
+    }
+
+    private void finish(String report) {
+        api.setMetrics(null);
+        if (transfers != null) {
+            transfers.shutdown();
+        }
+        if (uploadFile != null) {
+            uploadFile.delete();
+        }
+        if (listener != null) {
+            listener.onComplete(report);
+            listener = null;
+        }
+    }
+
+    private String report() {
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startedAt);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US,
+                "%d calls, %d in flight, %d failed, %.1f s, %.1f calls/s%n",
+                completed, concurrency, failed, elapsed / 1000.0, completed * 1000.0 / elapsed));
+        for (InMemoryMetrics.Snapshot snapshot : metrics.getSnapshots().values()) {
+            report.append(String.format(Locale.US,
+                    "%-12s %6d calls %5d errors %5d retries %5d refreshes  p50 %5d  p90 %5d"
+                            + "  p99 %5d  max %5d ms%n",
+                    snapshot.operation, snapshot.calls, snapshot.errors, snapshot.retries,
+                    snapshot.refreshes, snapshot.p50Millis, snapshot.p90Millis, snapshot.p99Millis,
+                    snapshot.maxMillis));
+            if (!snapshot.errorCodes.isEmpty()) {
+                report.append("             errors ").append(snapshot.errorCodes).append('\n');
+            }
+        }
+        for (Map.Entry<String, CircuitBreaker.State> circuit
+                : metrics.getCircuitStates().entrySet()) {
+            report.append(String.format(Locale.US, "circuit %s %s, opened %d times%n",
+                    circuit.getKey(), circuit.getValue(),
+                    metrics.getCircuitOpenings(circuit.getKey())));
+        }
+        return report.toString();
+    }
+}
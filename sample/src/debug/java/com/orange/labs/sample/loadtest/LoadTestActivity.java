@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sample.loadtest;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.orange.labs.sdk.OrangeCloudAPI;
+import com.orange.labs.sdk.OrangeListener;
+import com.orange.labs.sdk.exception.OrangeAPIException;
+import com.orange.labs.sdk.session.AuthSession;
+
+/**
+ * Run a {@link LoadDriver} against the Cloud API simulator of the project. The run is set by
+ * intent extras:
+ * <pre>
+ * adb shell am start -n com.orange.labs.sample/.loadtest.LoadTestActivity \
+ *     --es server http://10.0.2.2:8080 --ei operations 5000 --ei concurrency 500
+ * </pre>
+ * The report is logged under the tag of this class and displayed at the end of the run.
+ * <p>
+ * The simulator accepts any refresh token. It is kept in preferences of its own: the session
+ * of the user is left untouched. The activity is only declared in debug builds.
+ */
+public class LoadTestActivity extends AppCompatActivity {
+
+    public static final String EXTRA_SERVER = "server";
+    public static final String EXTRA_OPERATIONS = "operations";
+    public static final String EXTRA_CONCURRENCY = "concurrency";
+
+    /** Store of the simulator session, apart from the one of the user */
+    private static final String PREFERENCES_NAME = "com.orange.labs.sample.loadtest.SESSION";
+
+    /** Host machine of the Android emulator */
+    private static final String DEFAULT_SERVER = "http://10.0.2.2:8080";
+
+    private static String TAG = LoadTestActivity.class.toString();
+
+    private TextView mReport;
+    private boolean mStarted;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mReport = new TextView(this);
+        mReport.setTypeface(Typeface.MONOSPACE);
+        ScrollView scroll = new ScrollView(this);
+        scroll.addView(mReport);
+        setContentView(scroll);
+
+        // A configuration change must not start a second run
+        mStarted = savedInstanceState != null;
+        if (!mStarted) {
+            start();
+        }
+    }
+
+    private void start() {
+        mStarted = true;
+        String server = getIntent().getStringExtra(EXTRA_SERVER);
+        if (server == null) {
+            server = DEFAULT_SERVER;
+        }
+        final int operations = getIntent().getIntExtra(EXTRA_OPERATIONS, 5000);
+        final int concurrency = getIntent().getIntExtra(EXTRA_CONCURRENCY, 100);
+
+        AuthSession session = new AuthSession(this, "simulator", "simulator", server);
+        session.setPreferencesName(PREFERENCES_NAME);
+        session.setApiServer(server);
+        session.setRefreshToken("simulator");
+        final OrangeCloudAPI<AuthSession> api = new OrangeCloudAPI<AuthSession>(session);
+        api.setServers(server + "/cloud/", server + "/cloud/");
+
+        mReport.setText("Connecting to " + server + "...");
+        session.checkAuthentication(new OrangeListener.Success<String>() {
+            @Override
+            public void onResponse(String response) {
+                run(api, operations, concurrency);
+            }
+        }, new OrangeListener.Error() {
+            @Override
+            public void onErrorResponse(OrangeAPIException error) {
+                Log.e(TAG, "Authentication failed: " + error);
+                mReport.setText("Authentication failed: " + error);
+            }
+        });
+    }
+
+    private void run(OrangeCloudAPI<AuthSession> api, int operations, int concurrency) {
+        LoadDriver driver = new LoadDriver(api, operations, concurrency, getCacheDir());
+        driver.start(new LoadDriver.Listener() {
+            @Override
+            public void onProgress(int done, int total) {
+                if (done % 100 == 0) {
+                    mReport.setText(done + " / " + total);
+                }
+            }
+
+            @Override
+            public void onComplete(String report) {
+                Log.i(TAG, report);
+                mReport.setText(report);
+            }
+        });
+    }
+}
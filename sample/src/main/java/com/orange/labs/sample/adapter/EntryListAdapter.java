@@ -44,11 +44,15 @@ public class EntryListAdapter extends EntryAdapter {
 
     private SimpleDateFormat mDateFormat;
 
+    // Size of the thumbnail view, in pixels
+    private int mThumbSize;
+
     private View.OnClickListener mMoreInfoClickListener;
 
     public EntryListAdapter(Context context) {
         super(context);
         mDateFormat = new SimpleDateFormat("dd MM yyyy HH:mm", Locale.US);
+        mThumbSize = (int) (60 * context.getResources().getDisplayMetrics().density);
     }
 
     @Override
@@ -94,7 +98,8 @@ public class EntryListAdapter extends EntryAdapter {
                 }
 
                 if (entry.thumbnailURL != null) {
-                    mApi.thumbnail(entry, new OrangeListener.Success<Bitmap>() {
+                    mApi.thumbnail(entry, mThumbSize, mThumbSize, Bitmap.Config.RGB_565,
+                            new OrangeListener.Success<Bitmap>() {
                         @Override
                         public void onResponse(Bitmap response) {
                             viewHolder.thumbView.setImageBitmap(response);
@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.simulator;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in of the Orange Cloud API and of its token endpoint, for load tests of the SDK.
+ * Folders and files are generated in memory; latency, bandwidth caps, 401, 429 and 5xx
+ * responses and dropped connections are injected at configurable rates.
+ *
+ * Point the SDK to it with {@code OrangeCloudAPI.setServers(server + "/cloud/", server +
+ * "/cloud/")} and {@code AuthSession.setApiServer(server)}: any refresh token is accepted.
+ * Counters of the requests and faults are served on /simulator/stats.
+ */
+public class CloudSimulator {
+
+    private static final String API_PREFIX = "/cloud/v1/";
+    private static final int BUFFER_SIZE = 8192;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    // Smallest valid PNG (1x1 pixel), served as thumbnail and preview
+    private static final byte[] IMAGE = {
+            (byte) 0x89, 0x50, 0x4e, 0x47, 0x0d, 0x0a, 0x1a, 0x0a, 0x00, 0x00, 0x00, 0x0d,
+            0x49, 0x48, 0x44, 0x52, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x01, 0x08, 0x06,
+            0x00, 0x00, 0x00, 0x1f, 0x15, (byte) 0xc4, (byte) 0x89, 0x00, 0x00, 0x00, 0x0d,
+            0x49, 0x44, 0x41, 0x54, 0x78, (byte) 0x9c, 0x63, (byte) 0xf8, (byte) 0xcf,
+            (byte) 0xc0, (byte) 0xf0, 0x1f, 0x00, 0x05, 0x00, 0x01, (byte) 0xff, (byte) 0x89,
+            (byte) 0x99, 0x3d, 0x1d, 0x00, 0x00, 0x00, 0x00, 0x49, 0x45, 0x4e, 0x44,
+            (byte) 0xae, 0x42, 0x60, (byte) 0x82
+    };
+
+    private final FileTree tree = new FileTree();
+    private final FaultInjector faults = new FaultInjector();
+    private final Map<String, Long> tokens = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Long> uploads = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong tokensIssued = new AtomicLong();
+    private final AtomicLong expiredTokens = new AtomicLong();
+    private final AtomicLong nextUploadId = new AtomicLong();
+
+    private long tokenLifetimeSeconds = 3600;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public static void main(String[] args) throws IOException {
+        CloudSimulator simulator = new CloudSimulator();
+        int port = 8080;
+        int folders = 20;
+        int files = 100;
+        long fileSize = 256 * 1024;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(value);
+            } else if (args[i].equals("--folders")) {
+                folders = Integer.parseInt(value);
+            } else if (args[i].equals("--files")) {
+                files = Integer.parseInt(value);
+            } else if (args[i].equals("--file-size")) {
+                fileSize = Long.parseLong(value);
+            } else if (args[i].equals("--token-lifetime")) {
+                simulator.tokenLifetimeSeconds = Long.parseLong(value);
+            } else if (args[i].equals("--latency")) {
+                simulator.faults.latencyMillis = Long.parseLong(value);
+            } else if (args[i].equals("--jitter")) {
+                simulator.faults.jitterMillis = Long.parseLong(value);
+            } else if (args[i].equals("--bandwidth")) {
+                simulator.faults.bytesPerSecond = Long.parseLong(value);
+            } else if (args[i].equals("--unauthorized")) {
+                simulator.faults.unauthorizedRate = Double.parseDouble(value);
+            } else if (args[i].equals("--too-many-requests")) {
+                simulator.faults.tooManyRequestsRate = Double.parseDouble(value);
+            } else if (args[i].equals("--server-errors")) {
+                simulator.faults.serverErrorRate = Double.parseDouble(value);
+            } else if (args[i].equals("--drops")) {
+                simulator.faults.dropRate = Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        simulator.populate(folders, files, fileSize);
+        simulator.start(port);
+        System.out.println("Cloud simulator listening on port " + port + ": " + folders
+                + " folders of " + files + " files");
+    }
+
+    /**
+     * Create the fixtures, see {@link FileTree#populate(int, int, long)}.
+     */
+    public void populate(int folders, int filesPerFolder, long fileSize) {
+        tree.populate(folders, filesPerFolder, fileSize);
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    sendError(exchange, 500, "SIMULATOR_ERROR", e.toString());
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        // Latency is simulated by sleeping: one thread per request in flight
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException, InterruptedException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/simulator/stats")) {
+            sendJson(exchange, 200, stats());
+            return;
+        }
+        requests.incrementAndGet();
+        FaultInjector.Fault fault = faults.next();
+        faults.delay();
+        switch (fault) {
+            case DROP:
+                // Close the connection without any response
+                return;
+            case TOO_MANY_REQUESTS:
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 429, "PDK_RP_0005", "Too many requests");
+                return;
+            case SERVER_ERROR:
+                sendError(exchange, faults.serverErrorCode(), "PDK_RP_0001", "Injected error");
+                return;
+            default:
+                break;
+        }
+
+        if (path.equals("/oauth/v2/token")) {
+            token(exchange);
+        } else if (!path.startsWith(API_PREFIX)) {
+            sendError(exchange, 404, "PDK_RP_0004", "Unknown path " + path);
+        } else if (fault == FaultInjector.Fault.UNAUTHORIZED || !isAuthorized(exchange)) {
+            sendError(exchange, 401, "PDK_RP_0007", "Invalid token");
+        } else {
+            api(exchange, path.substring(API_PREFIX.length()));
+        }
+    }
+
+    private void token(HttpExchange exchange) throws IOException, InterruptedException {
+        readBody(exchange);
+        String token = "token-" + tokensIssued.incrementAndGet();
+        tokens.put(token, System.currentTimeMillis() + tokenLifetimeSeconds * 1000);
+        JSONObject json = new JSONObject();
+        json.put("access_token", token);
+        json.put("token_type", "Bearer");
+        json.put("expires_in", tokenLifetimeSeconds);
+        json.put("refresh_token", "simulator-refresh-token");
+        sendJson(exchange, 200, json);
+    }
+
+    private boolean isAuthorized(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return false;
+        }
+        Long expiry = tokens.get(authorization.substring("Bearer ".length()));
+        if (expiry == null) {
+            return false;
+        }
+        if (expiry < System.currentTimeMillis()) {
+            expiredTokens.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void api(HttpExchange exchange, String path) throws IOException, InterruptedException {
+        String method = exchange.getRequestMethod();
+        String baseUrl = "http://" + exchange.getRequestHeaders().getFirst("Host") + "/cloud/";
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String[] segments = path.split("/");
+
+        if (path.equals("freespace")) {
+            sendJson(exchange, 200, new JSONObject().put("freespace",
+                    100L * 1024 * 1024 * 1024 - tree.getUsedBytes()));
+        } else if (path.equals("files/content") && method.equals("POST")) {
+            upload(exchange, query, baseUrl);
+        } else if (segments[0].equals("folders") || segments[0].equals("files")) {
+            FileTree.Node node = tree.get(segments.length > 1 ? segments[1] : "");
+            if (node == null) {
+                sendError(exchange, 404, "PDK_RP_0004", "Unknown entry " + path);
+            } else if (segments.length == 3) {
+                content(exchange, node, segments[2]);
+            } else if (method.equals("GET") && segments[0].equals("folders")) {
+                int offset = query.containsKey("offset") ? Integer.parseInt(query.get("offset")) : 0;
+                int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : -1;
+                sendJson(exchange, 200, tree.toListing(node, baseUrl, offset, limit));
+            } else if (method.equals("GET")) {
+                sendJson(exchange, 200, tree.toInfo(node, baseUrl));
+            } else if (method.equals("DELETE")) {
+                tree.delete(node);
+                send(exchange, 204, null);
+            } else if (method.equals("POST")) {
+                update(exchange, segments.length == 1 ? null : node, baseUrl);
+            } else {
+                sendError(exchange, 405, "PDK_RP_0003", "Method not allowed");
+            }
+        } else {
+            sendError(exchange, 404, "PDK_RP_0004", "Unknown path " + path);
+        }
+    }
+
+    /**
+     * Create a folder (no node), or rename, move or copy a node.
+     */
+    private void update(HttpExchange exchange, FileTree.Node node, String baseUrl)
+            throws IOException, InterruptedException {
+        JSONObject params = new JSONObject(new String(readBody(exchange), "UTF-8"));
+        String name = params.optString("name", null);
+        FileTree.Node parent = params.has("parentFolderId")
+                ? tree.get(params.optString("parentFolderId")) : null;
+        if (params.has("parentFolderId") && (parent == null || !parent.folder)) {
+            sendError(exchange, 404, "PDK_RP_0004", "Unknown folder");
+            return;
+        }
+        if (node == null) {
+            node = tree.createFolder((parent != null) ? parent.id : FileTree.ROOT,
+                    (name != null) ? name : "folder");
+        } else if (parent != null && params.optBoolean("clone")) {
+            node = tree.copy(node, parent);
+        } else if (parent != null) {
+            tree.move(node, parent);
+        } else if (name != null) {
+            tree.rename(node, name);
+        }
+        sendJson(exchange, 200, tree.toInfo(node, baseUrl));
+    }
+
+    /**
+     * Upload at once or by chunks with Content-Range: uncompleted uploads are answered with a
+     * 308, the bytes received in a Range header and the upload id in the body.
+     */
+    private void upload(HttpExchange exchange, Map<String, String> query, String baseUrl)
+            throws IOException, InterruptedException {
+        FileTree.Node folder = tree.get(query.containsKey("folder") ? query.get("folder") : "");
+        if (folder == null || !folder.folder) {
+            readBody(exchange);
+            sendError(exchange, 404, "PDK_RP_0004", "Unknown folder");
+            return;
+        }
+        String name = query.containsKey("name") ? query.get("name") : "upload";
+        long received = drainBody(exchange);
+        String range = exchange.getRequestHeaders().getFirst("Content-Range");
+        if (range == null) {
+            sendJson(exchange, 201, tree.toInfo(tree.createFile(folder.id, name, received),
+                    baseUrl));
+            return;
+        }
+
+        // bytes start-end/total
+        String[] bounds = range.substring("bytes ".length()).split("[-/]");
+        long start = Long.parseLong(bounds[0]);
+        long total = Long.parseLong(bounds[2]);
+        String uploadId = query.get("uploadId");
+        if (uploadId == null) {
+            uploadId = "upload-" + nextUploadId.incrementAndGet();
+            uploads.put(uploadId, 0L);
+        }
+        Long committed = uploads.get(uploadId);
+        if (committed == null) {
+            sendError(exchange, 404, "PDK_RP_0004", "Unknown upload " + uploadId);
+            return;
+        }
+        if (start == committed) {
+            committed += received;
+            uploads.put(uploadId, committed);
+        }
+        if (committed >= total) {
+            uploads.remove(uploadId);
+            sendJson(exchange, 201, tree.toInfo(tree.createFile(folder.id, name, total),
+                    baseUrl));
+        } else {
+            exchange.getResponseHeaders().set("Range", "bytes=0-" + (committed - 1));
+            sendJson(exchange, 308, new JSONObject().put("uploadId", uploadId));
+        }
+    }
+
+    /**
+     * Download a file, with Range support, or its thumbnail or preview.
+     */
+    private void content(HttpExchange exchange, FileTree.Node node, String kind)
+            throws IOException, InterruptedException {
+        if (!kind.equals("content")) {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            send(exchange, 200, IMAGE);
+            return;
+        }
+        long start = 0;
+        long end = node.size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            // Single range only, as the SDK sends them: bytes=<start>-[<end>]
+            Matcher matcher = RANGE.matcher(range);
+            if (!matcher.matches() || Long.parseLong(matcher.group(1)) >= node.size
+                    || (matcher.group(2).length() > 0
+                    && Long.parseLong(matcher.group(2)) < Long.parseLong(matcher.group(1)))) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + node.size);
+                sendError(exchange, 416, "PDK_RP_0002", "Invalid range " + range);
+                return;
+            }
+            start = Long.parseLong(matcher.group(1));
+            if (matcher.group(2).length() > 0) {
+                end = Math.min(end, Long.parseLong(matcher.group(2)));
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + end + "/" + node.size);
+        }
+        long length = end - start + 1;
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(status, (length > 0) ? length : -1);
+        FaultInjector.Throttle throttle = faults.newThrottle();
+        OutputStream out = exchange.getResponseBody();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = start;
+        while (position <= end) {
+            int count = (int) Math.min(buffer.length, end - position + 1);
+            for (int i = 0; i < count; i++) {
+                // Content depends on the position only: ranges can be checked
+                buffer[i] = (byte) (position + i);
+            }
+            throttle.consume(count);
+            out.write(buffer, 0, count);
+            position += count;
+        }
+        out.close();
+    }
+
+    private JSONObject stats() {
+        JSONObject json = new JSONObject();
+        json.put("requests", requests.get());
+        json.put("tokensIssued", tokensIssued.get());
+        json.put("expiredTokens", expiredTokens.get());
+        JSONObject injected = new JSONObject();
+        for (FaultInjector.Fault fault : FaultInjector.Fault.values()) {
+            injected.put(fault.name().toLowerCase(), faults.getCount(fault));
+        }
+        json.put("faults", injected);
+        return json;
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException, InterruptedException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        copyBody(exchange, body);
+        return body.toByteArray();
+    }
+
+    private long drainBody(HttpExchange exchange) throws IOException, InterruptedException {
+        return copyBody(exchange, null);
+    }
+
+    private long copyBody(HttpExchange exchange, OutputStream out)
+            throws IOException, InterruptedException {
+        FaultInjector.Throttle throttle = faults.newThrottle();
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            throttle.consume(read);
+            if (out != null) {
+                out.write(buffer, 0, read);
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private void sendError(HttpExchange exchange, int status, String code, String details)
+            throws IOException {
+        JSONObject error = new JSONObject();
+        error.put("code", code);
+        error.put("label", details);
+        error.put("details", details);
+        sendJson(exchange, status, new JSONObject().put("error", error));
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JSONObject json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        send(exchange, status, json.toString().getBytes("UTF-8"));
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        if (body == null || body.length == 0) {
+            headers.remove("Content-Type");
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+}
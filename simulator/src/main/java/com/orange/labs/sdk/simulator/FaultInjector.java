@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.simulator;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Draws the faults injected in the responses of the simulator: latency, bandwidth cap,
+ * error status codes and dropped connections. Rates are probabilities in [0,1], drawn
+ * independently for each request.
+ */
+final class FaultInjector {
+
+    /**
+     * Faults applied to a request.
+     */
+    enum Fault {
+        NONE, UNAUTHORIZED, TOO_MANY_REQUESTS, SERVER_ERROR, DROP
+    }
+
+    long latencyMillis;
+    long jitterMillis;
+    long bytesPerSecond;
+    double unauthorizedRate;
+    double tooManyRequestsRate;
+    double serverErrorRate;
+    double dropRate;
+
+    private final Random random = new Random();
+    private final AtomicLongArray counts = new AtomicLongArray(Fault.values().length);
+
+    /**
+     * @return the fault of the next request
+     */
+    Fault next() {
+        double draw;
+        synchronized (random) {
+            draw = random.nextDouble();
+        }
+        Fault fault = Fault.NONE;
+        if ((draw -= dropRate) < 0) {
+            fault = Fault.DROP;
+        } else if ((draw -= unauthorizedRate) < 0) {
+            fault = Fault.UNAUTHORIZED;
+        } else if ((draw -= tooManyRequestsRate) < 0) {
+            fault = Fault.TOO_MANY_REQUESTS;
+        } else if ((draw -= serverErrorRate) < 0) {
+            fault = Fault.SERVER_ERROR;
+        }
+        counts.incrementAndGet(fault.ordinal());
+        return fault;
+    }
+
+    /**
+     * @return a 5xx status code
+     */
+    int serverErrorCode() {
+        int[] codes = {500, 502, 503};
+        synchronized (random) {
+            return codes[random.nextInt(codes.length)];
+        }
+    }
+
+    /**
+     * Wait for the latency of a response, jitter included.
+     */
+    void delay() throws InterruptedException {
+        long delay = latencyMillis;
+        if (jitterMillis > 0) {
+            synchronized (random) {
+                delay += (long) ((random.nextDouble() * 2 - 1) * jitterMillis);
+            }
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * @return a bandwidth cap for the body of a request or of a response
+     */
+    Throttle newThrottle() {
+        return new Throttle(bytesPerSecond);
+    }
+
+    /**
+     * @param fault a fault
+     * @return number of requests which received the fault
+     */
+    long getCount(Fault fault) {
+        return counts.get(fault.ordinal());
+    }
+
+    /**
+     * Bandwidth cap of a single body: the transfer sleeps whenever it is ahead of the cap.
+     */
+    static final class Throttle {
+
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void consume(int count) throws InterruptedException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            bytes += count;
+            long expectedNanos = bytes * 1000000000L / bytesPerSecond;
+            long aheadMillis = (expectedNanos - (System.nanoTime() - start)) / 1000000;
+            if (aheadMillis > 0) {
+                Thread.sleep(aheadMillis);
+            }
+        }
+    }
+}
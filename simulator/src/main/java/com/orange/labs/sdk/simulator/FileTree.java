@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2016 Orange.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.orange.labs.sdk.simulator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory folders and files of the simulator, shaped as the Cloud API responses. Only the
+ * size of the files is kept: their content is a generated pattern.
+ */
+final class FileTree {
+
+    /**
+     * Identifier of the root folder, as given by the Cloud API.
+     */
+    static final String ROOT = "Lw";
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+
+    /**
+     * A folder or a file.
+     */
+    static final class Node {
+        final String id;
+        String name;
+        String parentId;
+        final boolean folder;
+        final long size;
+        final long created = System.currentTimeMillis();
+        final List<Node> children = new ArrayList<Node>();
+
+        Node(String id, String name, String parentId, boolean folder, long size) {
+            this.id = id;
+            this.name = name;
+            this.parentId = parentId;
+            this.folder = folder;
+            this.size = size;
+        }
+    }
+
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+    private long nextId;
+
+    FileTree() {
+        nodes.put(ROOT, new Node(ROOT, "root", "", true, 0));
+    }
+
+    /**
+     * Create the fixtures: folders in the root, each holding the same number of pictures.
+     *
+     * @param folderCount    number of folders
+     * @param filesPerFolder number of files in each folder and in the root
+     * @param fileSize       size of the files
+     */
+    synchronized void populate(int folderCount, int filesPerFolder, long fileSize) {
+        for (int f = 0; f <= folderCount; f++) {
+            String folderId = (f == 0) ? ROOT : createFolder(ROOT, "folder " + f).id;
+            for (int i = 0; i < filesPerFolder; i++) {
+                createFile(folderId, "IMG_" + i + ".jpg", fileSize);
+            }
+        }
+    }
+
+    /**
+     * @param id identifier of a node, empty for the root
+     * @return the node or null
+     */
+    synchronized Node get(String id) {
+        return nodes.get(id.length() == 0 ? ROOT : id);
+    }
+
+    synchronized Node createFolder(String parentId, String name) {
+        return add(new Node(newId(), name, parentId, true, 0));
+    }
+
+    synchronized Node createFile(String parentId, String name, long size) {
+        return add(new Node(newId(), name, parentId, false, size));
+    }
+
+    synchronized void rename(Node node, String name) {
+        node.name = name;
+    }
+
+    synchronized void move(Node node, Node parent) {
+        nodes.get(node.parentId).children.remove(node);
+        node.parentId = parent.id;
+        parent.children.add(node);
+    }
+
+    synchronized Node copy(Node node, Node parent) {
+        Node copy = add(new Node(newId(), node.name, parent.id, node.folder, node.size));
+        for (Node child : new ArrayList<Node>(node.children)) {
+            copy(child, copy);
+        }
+        return copy;
+    }
+
+    synchronized void delete(Node node) {
+        nodes.get(node.parentId).children.remove(node);
+        remove(node);
+    }
+
+    synchronized long getUsedBytes() {
+        long used = 0;
+        for (Node node : nodes.values()) {
+            used += node.size;
+        }
+        return used;
+    }
+
+    /**
+     * @param folder  a folder
+     * @param baseUrl url of the Api, to build the urls of the files
+     * @param offset  index of the first file listed
+     * @param limit   maximum number of files listed, negative for all
+     * @return the listing of the folder
+     */
+    synchronized JSONObject toListing(Node folder, String baseUrl, int offset, int limit) {
+        JSONObject json = toJson(folder, baseUrl);
+        JSONArray subfolders = new JSONArray();
+        JSONArray files = new JSONArray();
+        int index = 0;
+        for (Node child : folder.children) {
+            if (child.folder) {
+                subfolders.put(toJson(child, baseUrl));
+            } else {
+                if (index >= offset && (limit < 0 || index < offset + limit)) {
+                    files.put(toJson(child, baseUrl));
+                }
+                index++;
+            }
+        }
+        json.put("subfolders", subfolders);
+        json.put("files", files);
+        return json;
+    }
+
+    /**
+     * @return the information of a file or a folder, as returned by /files/{id}
+     */
+    synchronized JSONObject toInfo(Node node, String baseUrl) {
+        JSONObject json = toJson(node, baseUrl);
+        String date = new SimpleDateFormat(DATE_FORMAT, Locale.US).format(new Date(node.created));
+        json.put("creationDate", date);
+        if (!node.folder) {
+            json.put("metadata", new JSONObject()
+                    .put("height", 2448)
+                    .put("width", 3264)
+                    .put("shootingDate", date));
+        }
+        return json;
+    }
+
+    private JSONObject toJson(Node node, String baseUrl) {
+        JSONObject json = new JSONObject();
+        json.put("id", node.id);
+        json.put("name", node.name);
+        json.put("parentId", node.parentId);
+        if (!node.folder) {
+            String fileUrl = baseUrl + "v1/files/" + node.id;
+            json.put("type", "PICTURE");
+            json.put("size", node.size);
+            json.put("thumbUrl", fileUrl + "/thumbnail");
+            json.put("previewUrl", fileUrl + "/preview");
+            json.put("downloadUrl", fileUrl + "/content");
+        }
+        return json;
+    }
+
+    private String newId() {
+        return "n" + (++nextId);
+    }
+
+    private Node add(Node node) {
+        nodes.put(node.id, node);
+        nodes.get(node.parentId).children.add(node);
+        return node;
+    }
+
+    private void remove(Node node) {
+        nodes.remove(node.id);
+        for (Node child : node.children) {
+            remove(child);
+        }
+    }
+}